@@ -0,0 +1,124 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.routing.Pool;
+import akka.routing.RoundRobinPool;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to serve a burst of orders by the static round-robin barista pool and by the
+ * {@link AdaptiveBaristaPool}, each starting with four baristas. Between two bursts the coffee
+ * house is idle for {@code idleMillis}, giving the adaptive pool the chance to shrink again.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BaristaPoolBenchmark {
+
+    @Param({"round-robin", "adaptive"})
+    public String pool;
+
+    @Param({"16", "256"})
+    public int burst;
+
+    @Param({"0", "200"})
+    public int idleMillis;
+
+    private ActorSystem system;
+
+    private ActorRef waiter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create("barista-pool-benchmark",
+                ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+        final Pool baristaPool = "adaptive".equals(pool)
+                ? new AdaptiveBaristaPool(ConfigFactory.parseString(
+                        "nr-of-instances = 4, resizer { lower-bound = 2, upper-bound = 32, " +
+                        "wait-threshold = 20 milliseconds, messages-per-resize = 4 }"))
+                : new RoundRobinPool(4);
+        final ActorRef baristas = system.actorOf(baristaPool.props(
+                Barista.props(FiniteDuration.create(10, TimeUnit.MILLISECONDS), 100)), "barista");
+        waiter = system.actorOf(BurstWaiter.props(baristas), "waiter");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Setup(Level.Invocation)
+    public void idle() throws InterruptedException {
+        Thread.sleep(idleMillis);
+    }
+
+    @Benchmark
+    public Object serveBurst() throws Exception {
+        final CompletableFuture<Object> served = new CompletableFuture<>();
+        waiter.tell(new BurstWaiter.Burst(burst, served), ActorRef.noSender());
+        return served.get(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Sends a burst of orders to the baristas and completes the burst once all coffees are
+     * prepared, re-sending orders a barista handed back.
+     */
+    static final class BurstWaiter extends AbstractActor {
+
+        private final ActorRef baristas;
+
+        private final Barista.PrepareCoffee order;
+
+        private int remaining;
+
+        private CompletableFuture<Object> served;
+
+        BurstWaiter(ActorRef baristas) {
+            this.baristas = baristas;
+            this.order = new Barista.PrepareCoffee(Coffee.AKKACCINO, baristas);
+        }
+
+        static Props props(ActorRef baristas) {
+            return Props.create(BurstWaiter.class, () -> new BurstWaiter(baristas));
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Burst.class, burst -> {
+                        remaining = burst.size;
+                        served = burst.served;
+                        for (int i = 0; i < burst.size; i++) baristas.tell(order, self());
+                    })
+                    .match(Barista.CoffeePrepared.class, coffeePrepared -> {
+                        if (--remaining == 0) served.complete(coffeePrepared);
+                    })
+                    .match(Barista.BaristaOverloaded.class, overloaded ->
+                            baristas.tell(overloaded.prepareCoffee, self()))
+                    .build();
+        }
+
+        static final class Burst {
+            final int size;
+            final CompletableFuture<Object> served;
+
+            Burst(int size, CompletableFuture<Object> served) {
+                this.size = size;
+                this.served = served;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders/sec through Waiter -> CoffeeHouse -> Barista pool with the waiter approving orders one
+ * by one ({@code batchSize} 1) and in batches of {@link CoffeeHouse.ApproveCoffees} and
+ * {@link Barista.PrepareCoffees} ({@code coffee-house.waiter.batch.max-size}).
+ *
+ * Every invocation all {@value #GUESTS} probe guests order at once and the invocation ends when
+ * all are served. Preparation and finishing durations are zero, so the numbers reflect the
+ * per-message overhead the batches save.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchedOrderBenchmark {
+
+    static final int GUESTS = 256;
+
+    @Param({"1", "8", "64", "256"})
+    public int batchSize;
+
+    @Param({"1 millisecond"})
+    public String batchWindow;
+
+    @Param({"4"})
+    public int baristas;
+
+    private ActorSystem system;
+
+    private ActorRef[] guestRefs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        system = ActorSystem.create("batched-order-benchmark", config());
+        final BlockingQueue<ActorRef> created = new LinkedBlockingQueue<>();
+        final ActorRef coffeeHouse =
+                system.actorOf(BenchmarkCoffeeHouse.props(Integer.MAX_VALUE, created), "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(GUESTS, Coffee.AKKACCINO, Integer.MAX_VALUE),
+                ActorRef.noSender());
+        guestRefs = new ActorRef[GUESTS];
+        for (int i = 0; i < GUESTS; i++) {
+            guestRefs[i] = created.poll(10, TimeUnit.SECONDS);
+            if (guestRefs[i] == null) throw new IllegalStateException("Guests were not created in time");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GUESTS)
+    public Object orders() throws Exception {
+        final CompletableFuture<?>[] served = new CompletableFuture<?>[GUESTS];
+        for (int i = 0; i < GUESTS; i++) {
+            final CompletableFuture<Coffee> order = new CompletableFuture<>();
+            served[i] = order;
+            guestRefs[i].tell(new ProbeGuest.Order(order), ActorRef.noSender());
+        }
+        return CompletableFuture.allOf(served).get(10, TimeUnit.SECONDS);
+    }
+
+    private Config config() {
+        return ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.loggers = [\"akka.event.Logging$DefaultLogger\"]",
+                "akka.actor.debug.lifecycle = off",
+                "akka.actor.debug.unhandled = off",
+                "akka.actor.deployment.\"/coffee-house/barista\".nr-of-instances = " + baristas,
+                "coffee-house.waiter.batch.max-size = " + batchSize,
+                "coffee-house.waiter.batch.window = " + batchWindow,
+                "coffee-house.caffeine-limit = " + Integer.MAX_VALUE,
+                "coffee-house.barista.prepare-coffee-duration = 0 millis",
+                "coffee-house.barista.accuracy = 100",
+                "coffee-house.barista.max-waiting-orders = " + GUESTS,
+                "coffee-house.guest.finish-coffee-duration = 0 millis"))
+                .withFallback(ConfigFactory.load());
+    }
+}
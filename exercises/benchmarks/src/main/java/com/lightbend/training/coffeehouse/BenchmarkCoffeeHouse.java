@@ -0,0 +1,46 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * CoffeeHouse whose first {@code probeGuests} guests are {@link ProbeGuest}s; every probe guest is
+ * handed to the benchmark through the given queue so it can drive orders itself. Further guests
+ * are regular guests, ordering on their own.
+ */
+public class BenchmarkCoffeeHouse extends CoffeeHouse {
+
+    private final String guestDispatcher =
+            context().system().settings().config().getString("coffee-house.guest.dispatcher");
+
+    private final BlockingQueue<ActorRef> guests;
+
+    private int probeGuests;
+
+    public BenchmarkCoffeeHouse(int caffeineLimit, BlockingQueue<ActorRef> guests, int probeGuests) {
+        super(caffeineLimit);
+        this.guests = guests;
+        this.probeGuests = probeGuests;
+    }
+
+    public static Props props(int caffeineLimit, BlockingQueue<ActorRef> guests) {
+        return props(caffeineLimit, guests, Integer.MAX_VALUE);
+    }
+
+    public static Props props(int caffeineLimit, BlockingQueue<ActorRef> guests, int probeGuests) {
+        return Props.create(BenchmarkCoffeeHouse.class,
+                () -> new BenchmarkCoffeeHouse(caffeineLimit, guests, probeGuests));
+    }
+
+    @Override
+    protected ActorRef createGuest(Coffee coffee, int guestCaffeineLimit) {
+        if (probeGuests == 0) return super.createGuest(coffee, guestCaffeineLimit);
+        probeGuests--;
+        final ActorRef guest = context().actorOf(
+                ProbeGuest.props(nextWaiter(), coffee).withDispatcher(guestDispatcher));
+        guests.add(guest);
+        return guest;
+    }
+}
@@ -0,0 +1,128 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Approvals/sec of the caffeine limit as a waiter sees them: asking the {@link CoffeeHouse}, whose
+ * actor serialises all approvals, and incrementing the lock-free {@link CaffeineCounters} the
+ * waiters share with {@code coffee-house.shared-caffeine-counters.enabled}.
+ *
+ * The JMH threads are the waiters approving at the same time; few guests make them contend for
+ * the same counters. {@link #main(String[])} runs both with 1 to 64 threads.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CaffeineApprovalBenchmark {
+
+    private static final java.time.Duration TIMEOUT = java.time.Duration.ofSeconds(10);
+
+    @Param({"16", "10000"})
+    public int guests;
+
+    private ActorSystem system;
+
+    private ActorRef coffeeHouse;
+
+    private ActorRef[] guestRefs;
+
+    private CaffeineCounters counters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        system = ActorSystem.create("caffeine-approval-benchmark",
+                ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+        final ActorRef barista = system.actorOf(Props.create(EchoBarista.class, EchoBarista::new), "echo-barista");
+        final BlockingQueue<ActorRef> created = new LinkedBlockingQueue<>();
+        coffeeHouse = system.actorOf(Props.create(BenchmarkCoffeeHouse.class, () ->
+                new BenchmarkCoffeeHouse(Integer.MAX_VALUE, created, Integer.MAX_VALUE) {
+                    @Override
+                    protected ActorRef createBarista() {
+                        return barista;
+                    }
+                }), "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(guests, Coffee.AKKACCINO, Integer.MAX_VALUE),
+                ActorRef.noSender());
+        guestRefs = new ActorRef[guests];
+        counters = new CaffeineCounters(Integer.MAX_VALUE);
+        for (int i = 0; i < guests; i++) {
+            guestRefs[i] = created.poll(10, TimeUnit.SECONDS);
+            if (guestRefs[i] == null) throw new IllegalStateException("Guests were not created in time");
+            counters.add(guestRefs[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    /** The approval round trip through the coffee house mailbox, answered by an echoing barista. */
+    @Benchmark
+    public Object actorApproval(Cursor cursor) throws Exception {
+        return Patterns.ask(coffeeHouse, new CoffeeHouse.ApproveCoffee(Coffee.AKKACCINO, nextGuest(cursor)), TIMEOUT)
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public CaffeineCounters.Approval sharedCounters(Cursor cursor) {
+        return counters.tryIncrement(nextGuest(cursor));
+    }
+
+    private ActorRef nextGuest(Cursor cursor) {
+        return guestRefs[cursor.next(guestRefs.length)];
+    }
+
+    /**
+     * Per-thread round robin over the guests, so threads do not contend on a shared index.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index = ThreadLocalRandom.current().nextInt(1 << 16);
+
+        int next(int bound) {
+            return Math.floorMod(index++, bound);
+        }
+    }
+
+    static final class EchoBarista extends AbstractActor {
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Barista.PrepareCoffee.class, prepareCoffee -> sender().tell(prepareCoffee, self()))
+                    .build();
+        }
+    }
+
+    /**
+     * Runs both approval modes with 1, 4, 16 and 64 threads, e.g. {@code benchmarks/jmh:runMain
+     * com.lightbend.training.coffeehouse.CaffeineApprovalBenchmark}.
+     */
+    public static void main(String[] args) throws Exception {
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            new Runner(new OptionsBuilder()
+                    .include(CaffeineApprovalBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of registering a deadline with the Akka scheduler and with the {@link CoffeeClock}, the
+ * way guests and baristas do. Run with {@code -prof gc} for the allocation per deadline; for the
+ * retained size of many pending deadlines see {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CoffeeClockBenchmark {
+
+    private static final FiniteDuration DELAY = FiniteDuration.create(2, TimeUnit.SECONDS);
+
+    private ActorSystem system;
+
+    private ActorRef recipient;
+
+    private CoffeeClock clock;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = createSystem("coffee-clock-benchmark");
+        recipient = system.actorOf(Props.empty());
+        clock = CoffeeClock.get(system);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Benchmark
+    public Object scheduler() {
+        return system.scheduler().scheduleOnce(DELAY, recipient, Guest.CoffeeFinished.Instance,
+                system.dispatcher(), recipient);
+    }
+
+    @Benchmark
+    public void coffeeClock() {
+        clock.schedule(DELAY, recipient, Guest.CoffeeFinished.Instance, recipient);
+    }
+
+    private static ActorSystem createSystem(String name) {
+        return ActorSystem.create(name, ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.log-dead-letters = off"))
+                .withFallback(ConfigFactory.load()));
+    }
+
+    /**
+     * Prints the retained heap per pending deadline for the given number of deadlines (default
+     * 500000), e.g. {@code benchmarks/runMain com.lightbend.training.coffeehouse.CoffeeClockBenchmark 1000000}.
+     */
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        final FiniteDuration delay = FiniteDuration.create(1, TimeUnit.MINUTES);
+        final ActorSystem system = createSystem("coffee-clock-footprint");
+        try {
+            final ActorRef recipient = system.actorOf(Props.empty());
+            final CoffeeClock clock = CoffeeClock.get(system);
+
+            long before = usedHeap();
+            for (int i = 0; i < count; i++) {
+                system.scheduler().scheduleOnce(delay, recipient, Guest.CoffeeFinished.Instance,
+                        system.dispatcher(), recipient);
+            }
+            final long schedulerBytes = usedHeap() - before;
+
+            before = usedHeap();
+            for (int i = 0; i < count; i++) {
+                clock.schedule(delay, recipient, Guest.CoffeeFinished.Instance, recipient);
+            }
+            final long clockBytes = usedHeap() - before;
+
+            System.out.printf("%d deadlines: scheduler %d bytes (%.1f/deadline), CoffeeClock %d bytes (%.1f/deadline)%n",
+                    count, schedulerBytes, (double) schedulerBytes / count,
+                    clockBytes, (double) clockBytes / count);
+        } finally {
+            Await.ready(system.terminate(), Duration.Inf());
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,91 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of an order, and thereby of its approval by the coffee house, while {@code busyGuests}
+ * regular guests keep ordering as fast as they are served. With {@code dispatchers=shared} all
+ * roles run on the default dispatcher, with {@code per-role} on the dispatchers configured in
+ * {@code coffee-house.dispatchers}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatcherBenchmark {
+
+    @Param({"shared", "per-role"})
+    public String dispatchers;
+
+    @Param({"0", "1000", "10000"})
+    public int busyGuests;
+
+    private ActorSystem system;
+
+    private ActorRef probeGuest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        system = ActorSystem.create("dispatcher-benchmark", config());
+        final BlockingQueue<ActorRef> created = new LinkedBlockingQueue<>();
+        final ActorRef coffeeHouse = system.actorOf(
+                BenchmarkCoffeeHouse.props(Integer.MAX_VALUE, created, 1)
+                        .withDispatcher(system.settings().config().getString("coffee-house.dispatcher")),
+                "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuest(Coffee.AKKACCINO, Integer.MAX_VALUE),
+                ActorRef.noSender());
+        probeGuest = created.poll(10, TimeUnit.SECONDS);
+        if (probeGuest == null) throw new IllegalStateException("Probe guest was not created in time");
+        if (busyGuests > 0) {
+            coffeeHouse.tell(new CoffeeHouse.CreateGuests(busyGuests, Coffee.AKKACCINO, Integer.MAX_VALUE),
+                    ActorRef.noSender());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Benchmark
+    public Coffee orderLatency() throws Exception {
+        final CompletableFuture<Coffee> served = new CompletableFuture<>();
+        probeGuest.tell(new ProbeGuest.Order(served), ActorRef.noSender());
+        return served.get(10, TimeUnit.SECONDS);
+    }
+
+    private Config config() {
+        final Config shared = "shared".equals(dispatchers)
+                ? ConfigFactory.parseString(String.join("\n",
+                        "coffee-house.dispatcher = akka.actor.default-dispatcher",
+                        "coffee-house.guest.dispatcher = akka.actor.default-dispatcher",
+                        "coffee-house.waiter.dispatcher = akka.actor.default-dispatcher",
+                        "coffee-house.barista.dispatcher = akka.actor.default-dispatcher"))
+                : ConfigFactory.empty();
+        return shared.withFallback(ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.loggers = [\"akka.event.Logging$DefaultLogger\"]",
+                "akka.actor.debug.lifecycle = off",
+                "akka.actor.debug.unhandled = off",
+                "akka.actor.deployment.\"/coffee-house/barista\".router = round-robin-pool",
+                "coffee-house.caffeine-limit = " + Integer.MAX_VALUE,
+                "coffee-house.barista.prepare-coffee-duration = 0 millis",
+                "coffee-house.barista.accuracy = 100",
+                "coffee-house.barista.max-waiting-orders = " + Integer.MAX_VALUE,
+                "coffee-house.guest.finish-coffee-duration = 100 millis")))
+                .withFallback(ConfigFactory.load());
+    }
+}
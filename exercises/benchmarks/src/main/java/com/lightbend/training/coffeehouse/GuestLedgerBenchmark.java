@@ -0,0 +1,143 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link GuestLedger} with the {@code HashMap<ActorRef, Integer>} guest book it replaced.
+ *
+ * Run with {@code -prof gc} to see the allocation per approval ({@code gc.alloc.rate.norm}); the
+ * {@code populate} benchmarks allocate roughly the footprint of a full guest book. For the retained
+ * size of both structures see {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GuestLedgerBenchmark {
+
+    @Param({"1000", "100000"})
+    public int guests;
+
+    private ActorSystem system;
+
+    private ActorRef[] guestRefs;
+
+    private Map<ActorRef, Integer> map;
+
+    private GuestLedger ledger;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = ActorSystem.create("guest-ledger-benchmark",
+                ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+        guestRefs = createGuests(system, guests);
+        map = new HashMap<>();
+        ledger = new GuestLedger();
+        for (ActorRef guest : guestRefs) {
+            map.put(guest, 0);
+            ledger.add(guest);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Benchmark
+    public boolean hashMapIncrement() {
+        final ActorRef guest = nextGuest();
+        final int count = map.get(guest);
+        if (count < Integer.MAX_VALUE) {
+            map.put(guest, count + 1);
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean ledgerIncrement() {
+        return ledger.tryIncrement(nextGuest(), Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Map<ActorRef, Integer> hashMapPopulate() {
+        final Map<ActorRef, Integer> populated = new HashMap<>();
+        for (ActorRef guest : guestRefs) populated.put(guest, 0);
+        return populated;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public GuestLedger ledgerPopulate() {
+        final GuestLedger populated = new GuestLedger();
+        for (ActorRef guest : guestRefs) populated.add(guest);
+        return populated;
+    }
+
+    private ActorRef nextGuest() {
+        final ActorRef guest = guestRefs[next];
+        next = next + 1 == guestRefs.length ? 0 : next + 1;
+        return guest;
+    }
+
+    private static ActorRef[] createGuests(ActorSystem system, int count) {
+        final ActorRef[] refs = new ActorRef[count];
+        for (int i = 0; i < count; i++) refs[i] = system.actorOf(Props.empty());
+        return refs;
+    }
+
+    /**
+     * Prints the retained heap per guest of both guest books, each holding counts for the given
+     * number of guests (default 100000), e.g. {@code benchmarks/runMain
+     * com.lightbend.training.coffeehouse.GuestLedgerBenchmark 1000000}.
+     */
+    public static void main(String[] args) throws Exception {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        final ActorSystem system = ActorSystem.create("guest-ledger-footprint",
+                ConfigFactory.parseString("akka.loglevel = WARNING").withFallback(ConfigFactory.load()));
+        try {
+            final ActorRef[] refs = createGuests(system, count);
+
+            long before = usedHeap();
+            final Map<ActorRef, Integer> map = new HashMap<>();
+            for (int i = 0; i < count; i++) map.put(refs[i], i);
+            final long mapBytes = usedHeap() - before;
+
+            before = usedHeap();
+            final GuestLedger ledger = new GuestLedger();
+            for (int i = 0; i < count; i++) {
+                ledger.add(refs[i]);
+                for (int j = 0; j < i % 8; j++) ledger.tryIncrement(refs[i], Integer.MAX_VALUE);
+            }
+            final long ledgerBytes = usedHeap() - before;
+
+            System.out.printf("%d guests: HashMap %d bytes (%.1f/guest), GuestLedger %d bytes (%.1f/guest)%n",
+                    count, mapBytes, (double) mapBytes / count, ledgerBytes, (double) ledgerBytes / count);
+            if (map.size() != ledger.size()) throw new IllegalStateException("Guest books differ in size");
+        } finally {
+            Await.ready(system.terminate(), Duration.Inf());
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
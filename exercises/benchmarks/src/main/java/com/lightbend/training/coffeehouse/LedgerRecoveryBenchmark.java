@@ -0,0 +1,116 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time until a {@link PersistentCaffeineLedger} of {@code guests} guests answers again after a
+ * restart: it loads the latest snapshot of the counter table and replays the
+ * {@code eventsAfterSnapshot} batches of approvals written since.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LedgerRecoveryBenchmark {
+
+    private static final String PERSISTENCE_ID = "caffeine-ledger-benchmark";
+
+    private static final FiniteDuration TIMEOUT = FiniteDuration.create(5, TimeUnit.MINUTES);
+
+    @Param({"100000", "1000000"})
+    public int guests;
+
+    @Param({"0", "1000"})
+    public int eventsAfterSnapshot;
+
+    private Path dir;
+
+    private ActorSystem system;
+
+    private ActorRef ledger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("ledger-recovery-benchmark");
+        system = ActorSystem.create("ledger-recovery-benchmark", ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.persistence.journal.leveldb.dir = \"" + dir.resolve("journal") + "\"",
+                "akka.persistence.journal.leveldb.fsync = off",
+                "akka.persistence.snapshot-store.local.dir = \"" + dir.resolve("snapshots") + "\""))
+                .withFallback(ConfigFactory.load()));
+
+        // Guests must be alive, or the recovered ledger removes them
+        final ActorRef[] guestRefs = new ActorRef[guests];
+        for (int i = 0; i < guests; i++) guestRefs[i] = system.actorOf(Props.empty());
+
+        // One snapshot right after the last guest was added, then single approval batches
+        final ActorRef writer = system.actorOf(ledgerProps(guests));
+        for (ActorRef guest : guestRefs) writer.tell(new CaffeineLedger.AddGuest(guest), ActorRef.noSender());
+        awaitStatus(writer);
+        while (!hasSnapshot()) Thread.sleep(100);
+        for (int i = 0; i < eventsAfterSnapshot; i++) {
+            writer.tell(new CoffeeHouse.ApproveCoffee(Coffee.AKKACCINO, guestRefs[i % guests]),
+                    ActorRef.noSender());
+        }
+        awaitStatus(writer);
+        stop(writer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopLedger() throws Exception {
+        stop(ledger);
+    }
+
+    @Benchmark
+    public Object recover() throws Exception {
+        ledger = system.actorOf(ledgerProps(Integer.MAX_VALUE));
+        return awaitStatus(ledger);
+    }
+
+    private Props ledgerProps(int snapshotInterval) {
+        return PersistentCaffeineLedger.props(PERSISTENCE_ID, system.deadLetters(), Integer.MAX_VALUE,
+                1, FiniteDuration.create(10, TimeUnit.MILLISECONDS), snapshotInterval);
+    }
+
+    private boolean hasSnapshot() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("snapshots"))) {
+            return files.anyMatch(path -> path.getFileName().toString().contains(PERSISTENCE_ID));
+        } catch (java.nio.file.NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static Object awaitStatus(ActorRef ledger) throws Exception {
+        return Await.result(Patterns.ask(ledger, CoffeeHouse.GetStatus.Instance, TIMEOUT.toMillis()), TIMEOUT);
+    }
+
+    private void stop(ActorRef actor) throws Exception {
+        Await.ready(Patterns.gracefulStop(actor, TIMEOUT, PoisonPill.getInstance()), TIMEOUT);
+    }
+}
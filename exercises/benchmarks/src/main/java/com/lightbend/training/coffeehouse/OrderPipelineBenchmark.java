@@ -0,0 +1,135 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end order benchmark: Guest -> Waiter -> CoffeeHouse -> Barista pool -> Waiter -> Guest.
+ *
+ * Preparation and finishing durations are zero, so the numbers reflect actor overhead only.
+ * All roles run on the default dispatcher, which {@code dispatcherThroughput} and
+ * {@code dispatcherParallelism} tune; {@link DispatcherBenchmark} compares it with the role
+ * dispatchers of {@code coffee-house.dispatchers}.
+ * Run with e.g. {@code benchmarks/jmh:run -t 4 OrderPipelineBenchmark}; the JMH thread count
+ * is the number of concurrently outstanding orders.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+public class OrderPipelineBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int guests;
+
+    @Param({"1", "4", "16"})
+    public int baristas;
+
+    /** E.g. com.lightbend.training.coffeehouse.AdaptiveBaristaPool, whose size then only starts at baristas. */
+    @Param({"round-robin-pool"})
+    public String router;
+
+    @Param({"1"})
+    public int baristaSlots;
+
+    @Param({"1"})
+    public int waiters;
+
+    @Param({"1", "5", "100"})
+    public int dispatcherThroughput;
+
+    @Param({"8"})
+    public int dispatcherParallelism;
+
+    private ActorSystem system;
+
+    private ActorRef[] guestRefs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        system = ActorSystem.create("coffee-house-benchmark", config());
+        final BlockingQueue<ActorRef> created = new LinkedBlockingQueue<>();
+        final ActorRef coffeeHouse =
+                system.actorOf(BenchmarkCoffeeHouse.props(Integer.MAX_VALUE, created), "coffee-house");
+        for (int i = 0; i < guests; i++) {
+            coffeeHouse.tell(new CoffeeHouse.CreateGuest(Coffee.AKKACCINO, Integer.MAX_VALUE),
+                    ActorRef.noSender());
+        }
+        guestRefs = new ActorRef[guests];
+        for (int i = 0; i < guests; i++) {
+            guestRefs[i] = created.poll(10, TimeUnit.SECONDS);
+            if (guestRefs[i] == null) throw new IllegalStateException("Guests were not created in time");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Coffee orders(Cursor cursor) throws Exception {
+        return order(cursor);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Coffee orderLatency(Cursor cursor) throws Exception {
+        return order(cursor);
+    }
+
+    private Coffee order(Cursor cursor) throws Exception {
+        final CompletableFuture<Coffee> served = new CompletableFuture<>();
+        guestRefs[cursor.next(guestRefs.length)].tell(new ProbeGuest.Order(served), ActorRef.noSender());
+        return served.get(10, TimeUnit.SECONDS);
+    }
+
+    private Config config() {
+        return ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.loggers = [\"akka.event.Logging$DefaultLogger\"]",
+                "akka.actor.debug.lifecycle = off",
+                "akka.actor.debug.unhandled = off",
+                "akka.actor.default-dispatcher.throughput = " + dispatcherThroughput,
+                "akka.actor.default-dispatcher.fork-join-executor.parallelism-min = " + dispatcherParallelism,
+                "akka.actor.default-dispatcher.fork-join-executor.parallelism-max = " + dispatcherParallelism,
+                "coffee-house.guest.dispatcher = akka.actor.default-dispatcher",
+                "coffee-house.waiter.dispatcher = akka.actor.default-dispatcher",
+                "coffee-house.barista.dispatcher = akka.actor.default-dispatcher",
+                "akka.actor.deployment.\"/coffee-house/barista\".router = \"" + router + "\"",
+                "akka.actor.deployment.\"/coffee-house/barista\".nr-of-instances = " + baristas,
+                "coffee-house.waiter.nr-of-instances = " + waiters,
+                "coffee-house.caffeine-limit = " + Integer.MAX_VALUE,
+                "coffee-house.barista.prepare-coffee-duration = 0 millis",
+                "coffee-house.barista.accuracy = 100",
+                "coffee-house.barista.slots = " + baristaSlots,
+                "coffee-house.guest.finish-coffee-duration = 0 millis"))
+                .withFallback(ConfigFactory.load());
+    }
+
+    /**
+     * Per-thread round robin over the guests, so threads do not contend on a shared index.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index = ThreadLocalRandom.current().nextInt(1 << 16);
+
+        int next(int bound) {
+            return Math.floorMod(index++, bound);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Guest driven by a benchmark thread: it only orders when told to and completes the
+ * order's future as soon as the waiter serves the coffee.
+ */
+public class ProbeGuest extends AbstractLoggingActor {
+
+    private final ActorRef waiter;
+    private final Coffee favoriteCoffee;
+    private final Deque<CompletableFuture<Coffee>> pendingOrders = new ArrayDeque<>();
+
+    public ProbeGuest(ActorRef waiter, Coffee favoriteCoffee) {
+        this.waiter = waiter;
+        this.favoriteCoffee = favoriteCoffee;
+    }
+
+    public static Props props(final ActorRef waiter, final Coffee favoriteCoffee) {
+        return Props.create(ProbeGuest.class, () -> new ProbeGuest(waiter, favoriteCoffee));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Order.class, order -> {
+                    pendingOrders.add(order.served);
+                    waiter.tell(new Waiter.ServeCoffee(favoriteCoffee), self());
+                })
+                .match(Waiter.CoffeeServed.class, coffeeServed ->
+                        pendingOrders.remove().complete(coffeeServed.coffee))
+                .build();
+    }
+
+    public static final class Order {
+        public final CompletableFuture<Coffee> served;
+
+        public Order(CompletableFuture<Coffee> served) {
+            checkNotNull(served, "Future cannot be null");
+            this.served = served;
+        }
+
+        @Override
+        public String toString() {
+            return "Order{" +
+                    "served=" + served +
+                    '}';
+        }
+    }
+}
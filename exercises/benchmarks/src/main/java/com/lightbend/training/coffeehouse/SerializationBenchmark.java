@@ -0,0 +1,150 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Props;
+import akka.serialization.JavaSerializer;
+import akka.serialization.Serializer;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.Option;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing and deserializing a protocol message with the {@link CoffeeHouseSerializer}
+ * and with Java serialization. Only the coffees and the terminal commands are
+ * {@link Serializable}; for the other messages Java serialization is measured on a serializable
+ * stand-in with the same fields. For the size of each message see {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+
+    @Param({"coffee", "approve-coffee", "prepare-coffee", "terminal-guest"})
+    public String message;
+
+    private ActorSystem system;
+
+    private Serializer compact;
+
+    private Serializer java;
+
+    private Object compactMessage;
+
+    private Object javaMessage;
+
+    private byte[] compactBytes;
+
+    private byte[] javaBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        system = createSystem("serialization-benchmark");
+        compact = new CoffeeHouseSerializer((ExtendedActorSystem) system);
+        java = new JavaSerializer((ExtendedActorSystem) system);
+        final ActorRef guest = system.actorOf(Props.empty(), "guest");
+        compactMessage = compactMessage(message, guest);
+        javaMessage = javaMessage(message, guest);
+        compactBytes = compact.toBinary(compactMessage);
+        javaBytes = java.toBinary(javaMessage);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Await.ready(system.terminate(), Duration.Inf());
+    }
+
+    @Benchmark
+    public byte[] compactSerialize() {
+        return compact.toBinary(compactMessage);
+    }
+
+    @Benchmark
+    public Object compactDeserialize() throws Exception {
+        return compact.fromBinary(compactBytes, Option.empty());
+    }
+
+    @Benchmark
+    public byte[] javaSerialize() {
+        return java.toBinary(javaMessage);
+    }
+
+    @Benchmark
+    public Object javaDeserialize() throws Exception {
+        return java.fromBinary(javaBytes, Option.empty());
+    }
+
+    private static Object compactMessage(String message, ActorRef guest) {
+        switch (message) {
+            case "coffee":
+                return Coffee.AKKACCINO;
+            case "approve-coffee":
+                return new CoffeeHouse.ApproveCoffee(Coffee.AKKACCINO, guest);
+            case "prepare-coffee":
+                return new Barista.PrepareCoffee(Coffee.AKKACCINO, guest);
+            case "terminal-guest":
+                return new TerminalCommand.Guest(10, Coffee.AKKACCINO, 1000);
+            default:
+                throw new IllegalArgumentException("Unknown message " + message);
+        }
+    }
+
+    private static Object javaMessage(String message, ActorRef guest) {
+        switch (message) {
+            case "approve-coffee":
+            case "prepare-coffee":
+                return new JavaOrder(Coffee.AKKACCINO, guest);
+            default:
+                return compactMessage(message, guest);
+        }
+    }
+
+    private static ActorSystem createSystem(String name) {
+        return ActorSystem.create(name, ConfigFactory.parseString(String.join("\n",
+                "akka.loglevel = WARNING",
+                "akka.actor.allow-java-serialization = on",
+                "akka.actor.warn-about-java-serializer-usage = off"))
+                .withFallback(ConfigFactory.load()));
+    }
+
+    /** Java serializable stand-in for the coffee and guest carried by an order. */
+    private static final class JavaOrder implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final Coffee coffee;
+
+        final ActorRef guest;
+
+        JavaOrder(Coffee coffee, ActorRef guest) {
+            this.coffee = coffee;
+            this.guest = guest;
+        }
+    }
+
+    /** Prints the serialized size of each benchmarked message in both formats. */
+    public static void main(String[] args) throws Exception {
+        final ActorSystem system = createSystem("serialization-size");
+        try {
+            final Serializer compact = new CoffeeHouseSerializer((ExtendedActorSystem) system);
+            final Serializer java = new JavaSerializer((ExtendedActorSystem) system);
+            final ActorRef guest = system.actorOf(Props.empty(), "guest");
+            for (String message : new String[]{"coffee", "approve-coffee", "prepare-coffee", "terminal-guest"}) {
+                System.out.printf("%-15s compact %4d bytes, java %4d bytes%n", message,
+                        compact.toBinary(compactMessage(message, guest)).length,
+                        java.toBinary(javaMessage(message, guest)).length);
+            }
+        } finally {
+            Await.ready(system.terminate(), Duration.Inf());
+        }
+    }
+}
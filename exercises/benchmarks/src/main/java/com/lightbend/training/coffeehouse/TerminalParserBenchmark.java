@@ -0,0 +1,87 @@
+package com.lightbend.training.coffeehouse;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of parsing the lines of a scripted load file: line by line with the regular
+ * expressions the terminal used to be parsed with, line by line with the {@link TerminalParser},
+ * and as one buffered chunk of bytes with the {@link TerminalParser}. Each operation parses
+ * {@link #LINES} lines.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TerminalParserBenchmark {
+
+    public static final int LINES = 10_000;
+
+    private static final String[] COMMANDS = {"g", "2 g m 1", "guest c", "10 guest A 100", "s", "5g", "foo"};
+
+    private static final Pattern createGuestPattern = Pattern.compile("(\\d+)?\\s*(?:guest|g)\\s*(A|a|M|m|C|c)?\\s*(\\d+)?");
+    private static final Pattern getStatusPattern = Pattern.compile("status|s");
+    private static final Pattern quitPattern = Pattern.compile("quit|q");
+
+    private String[] lines;
+
+    private ByteBuffer chunk;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lines = new String[LINES];
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines[i] = COMMANDS[i % COMMANDS.length];
+            text.append(lines[i]).append('\n');
+        }
+        chunk = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void regex(Blackhole blackhole) {
+        for (String line : lines) blackhole.consume(createWithRegularExpressions(line));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parser(Blackhole blackhole) {
+        for (String line : lines) blackhole.consume(TerminalParser.parse(line));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parserChunk(Blackhole blackhole) {
+        chunk.clear();
+        TerminalParser.parseLines(chunk, true, command -> {
+            blackhole.consume(command);
+            return true;
+        });
+    }
+
+    private static TerminalCommand createWithRegularExpressions(String s) {
+        final Matcher guestMatcher = createGuestPattern.matcher(s);
+        if (guestMatcher.matches()) {
+            final String countGroup = guestMatcher.group(1);
+            final int count = countGroup != null ? Integer.parseInt(countGroup) : 1;
+            final String coffeeGroup = guestMatcher.group(2);
+            final Coffee coffee = coffeeGroup != null ? Coffee.order(coffeeGroup) : Coffee.AKKACCINO;
+            final String maxCoffeeCountGroup = guestMatcher.group(3);
+            final int maxCoffeeCount =
+                maxCoffeeCountGroup != null ? Integer.parseInt(maxCoffeeCountGroup) : Integer.MAX_VALUE;
+            return new TerminalCommand.Guest(count, coffee, maxCoffeeCount);
+        }
+        if (getStatusPattern.matcher(s).matches()) return TerminalCommand.Status.Instance;
+        if (quitPattern.matcher(s).matches()) return TerminalCommand.Quit.Instance;
+        return new TerminalCommand.Unknown(s);
+    }
+}
@@ -0,0 +1,223 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorSystem;
+import akka.actor.SupervisorStrategy;
+import akka.dispatch.Dispatchers;
+import akka.routing.ActorRefRoutee;
+import akka.routing.Pool;
+import akka.routing.PoolBase;
+import akka.routing.Resizer;
+import akka.routing.Routee;
+import akka.routing.Router;
+import akka.routing.RoutingLogic;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import scala.Option;
+import scala.collection.immutable.IndexedSeq;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Barista pool that routes every order to the barista with the fewest outstanding orders per
+ * espresso machine and grows or shrinks between {@code resizer.lower-bound} and
+ * {@code resizer.upper-bound} with the measured {@link BaristaLoad}.
+ *
+ * It is configured like the built-in pools, reusing the keys of the Akka resizer:
+ * <pre>
+ * /coffee-house/barista {
+ *     router = "com.lightbend.training.coffeehouse.AdaptiveBaristaPool"
+ *     nr-of-instances = 4
+ *     resizer {
+ *         lower-bound = 2
+ *         upper-bound = 16
+ *         # Orders waiting per espresso machine before a barista counts as under pressure
+ *         pressure-threshold = 1
+ *         # Average wait for an espresso machine before a barista counts as under pressure
+ *         wait-threshold = 1 second
+ *         rampup-rate = 0.2
+ *         backoff-threshold = 0.3
+ *         backoff-rate = 0.1
+ *         messages-per-resize = 10
+ *     }
+ * }
+ * </pre>
+ * The pool grows by {@code rampup-rate} once all baristas are under pressure and shrinks by
+ * {@code backoff-rate} once less than {@code backoff-threshold} of all espresso machines are busy.
+ */
+public class AdaptiveBaristaPool extends PoolBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Config DEFAULTS = ConfigFactory.parseString(
+            "nr-of-instances = 1\n" +
+            "resizer {\n" +
+            "  lower-bound = 1\n" +
+            "  upper-bound = 10\n" +
+            "  pressure-threshold = 1\n" +
+            "  wait-threshold = 1 second\n" +
+            "  rampup-rate = 0.2\n" +
+            "  backoff-threshold = 0.3\n" +
+            "  backoff-rate = 0.1\n" +
+            "  messages-per-resize = 10\n" +
+            "}");
+
+    private final int nrOfInstances;
+
+    private final LoadResizer resizer;
+
+    public AdaptiveBaristaPool(Config config) {
+        final Config withDefaults = config.withFallback(DEFAULTS);
+        final Config resizerConfig = withDefaults.getConfig("resizer");
+        this.resizer = new LoadResizer(
+                resizerConfig.getInt("lower-bound"),
+                resizerConfig.getInt("upper-bound"),
+                resizerConfig.getDouble("pressure-threshold"),
+                resizerConfig.getDuration("wait-threshold", TimeUnit.NANOSECONDS),
+                resizerConfig.getDouble("rampup-rate"),
+                resizerConfig.getDouble("backoff-threshold"),
+                resizerConfig.getDouble("backoff-rate"),
+                resizerConfig.getInt("messages-per-resize"));
+        this.nrOfInstances = Math.max(resizer.lowerBound,
+                Math.min(resizer.upperBound, withDefaults.getInt("nr-of-instances")));
+    }
+
+    @Override
+    public int nrOfInstances(ActorSystem system) {
+        return nrOfInstances;
+    }
+
+    @Override
+    public Option<Resizer> resizer() {
+        return Option.apply(resizer);
+    }
+
+    @Override
+    public SupervisorStrategy supervisorStrategy() {
+        return Pool.defaultSupervisorStrategy();
+    }
+
+    @Override
+    public String routerDispatcher() {
+        return Dispatchers.DefaultDispatcherId();
+    }
+
+    @Override
+    public Router createRouter(ActorSystem system) {
+        final BaristaLoad load = BaristaLoad.get(system);
+        resizer.load = load;
+        return new Router(new LeastOutstandingRoutingLogic(load));
+    }
+
+    private static BaristaLoad.Load loadOf(BaristaLoad load, Routee routee) {
+        return routee instanceof ActorRefRoutee ? load.of(((ActorRefRoutee) routee).ref()) : null;
+    }
+
+    /**
+     * Picks the barista with the fewest outstanding orders per espresso machine, starting the search
+     * at a rotating index so that equally loaded baristas are used in turn.
+     */
+    static final class LeastOutstandingRoutingLogic implements RoutingLogic {
+
+        private final BaristaLoad load;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        LeastOutstandingRoutingLogic(BaristaLoad load) {
+            this.load = load;
+        }
+
+        @Override
+        public Routee select(Object message, IndexedSeq<Routee> routees) {
+            final int size = routees.size();
+            if (size == 0) return akka.routing.NoRoutee$.MODULE$;
+            final int start = Math.floorMod(next.getAndIncrement(), size);
+            Routee selected = null;
+            BaristaLoad.Load selectedLoad = null;
+            double selectedPressure = Double.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                final Routee routee = routees.apply((start + i) % size);
+                final BaristaLoad.Load routeeLoad = loadOf(load, routee);
+                final double pressure = routeeLoad == null ? 0 :
+                        (double) routeeLoad.outstanding() / routeeLoad.slots();
+                if (pressure < selectedPressure) {
+                    selected = routee;
+                    selectedLoad = routeeLoad;
+                    selectedPressure = pressure;
+                }
+            }
+            if (selectedLoad != null && message instanceof Barista.PrepareCoffee) selectedLoad.routed();
+            if (selectedLoad != null && message instanceof Barista.PrepareCoffees) {
+                selectedLoad.routed(((Barista.PrepareCoffees) message).orders.size());
+            }
+            return selected;
+        }
+    }
+
+    static final class LoadResizer implements Resizer {
+
+        final int lowerBound;
+        final int upperBound;
+        private final double pressureThreshold;
+        private final long waitThresholdNanos;
+        private final double rampupRate;
+        private final double backoffThreshold;
+        private final double backoffRate;
+        private final int messagesPerResize;
+
+        volatile BaristaLoad load;
+
+        LoadResizer(int lowerBound, int upperBound, double pressureThreshold, long waitThresholdNanos,
+                    double rampupRate, double backoffThreshold, double backoffRate, int messagesPerResize) {
+            checkArgument(lowerBound >= 1, "Lower bound must be positive");
+            checkArgument(upperBound >= lowerBound, "Upper bound cannot be below lower bound");
+            checkArgument(rampupRate >= 0, "Rampup rate cannot be negative");
+            checkArgument(backoffRate >= 0, "Backoff rate cannot be negative");
+            checkArgument(messagesPerResize > 0, "Messages per resize must be positive");
+            this.lowerBound = lowerBound;
+            this.upperBound = upperBound;
+            this.pressureThreshold = pressureThreshold;
+            this.waitThresholdNanos = waitThresholdNanos;
+            this.rampupRate = rampupRate;
+            this.backoffThreshold = backoffThreshold;
+            this.backoffRate = backoffRate;
+            this.messagesPerResize = messagesPerResize;
+        }
+
+        @Override
+        public boolean isTimeForResize(long messageCounter) {
+            return messageCounter % messagesPerResize == 0;
+        }
+
+        @Override
+        public int resize(IndexedSeq<Routee> routees) {
+            final int size = routees.size();
+            int underPressure = 0;
+            int busySlots = 0;
+            int slots = 0;
+            for (int i = 0; i < size; i++) {
+                final BaristaLoad.Load routeeLoad = load == null ? null : loadOf(load, routees.apply(i));
+                if (routeeLoad == null) continue;
+                final int outstanding = routeeLoad.outstanding();
+                final int routeeSlots = routeeLoad.slots();
+                slots += routeeSlots;
+                busySlots += Math.max(0, Math.min(outstanding, routeeSlots));
+                if (outstanding >= routeeSlots &&
+                        (outstanding - routeeSlots >= pressureThreshold * routeeSlots ||
+                                routeeLoad.waitNanos() >= waitThresholdNanos)) {
+                    underPressure++;
+                }
+            }
+            final int adjustment;
+            if (size > 0 && underPressure == size)
+                adjustment = Math.max(1, (int) Math.ceil(rampupRate * size));
+            else if (slots > 0 && backoffRate > 0 && (double) busySlots / slots < backoffThreshold)
+                adjustment = -Math.max(1, (int) Math.floor(backoffRate * size));
+            else
+                adjustment = 0;
+            return Math.max(lowerBound, Math.min(upperBound, size + adjustment)) - size;
+        }
+    }
+}
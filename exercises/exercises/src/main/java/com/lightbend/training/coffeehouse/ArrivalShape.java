@@ -0,0 +1,74 @@
+package com.lightbend.training.coffeehouse;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Shape of the guest arrivals generated by the {@link GuestIngress}: given the time passed since it
+ * was last asked, tells how many guests arrived meanwhile. Shapes keep state between calls, so
+ * each stream needs an instance of its own.
+ */
+public interface ArrivalShape {
+
+    int arrivals(long elapsedNanos);
+
+    /** Arrivals evenly spread at {@code rate} guests per second. */
+    static ArrivalShape constant(final double rate) {
+        checkArgument(rate > 0, "Rate must be positive");
+        final double perNano = rate / TimeUnit.SECONDS.toNanos(1);
+        return new ArrivalShape() {
+            private double credit;
+
+            @Override
+            public int arrivals(long elapsedNanos) {
+                credit += elapsedNanos * perNano;
+                final int arrivals = (int) Math.min(Integer.MAX_VALUE, Math.floor(credit));
+                credit -= arrivals;
+                return arrivals;
+            }
+        };
+    }
+
+    /** Independent arrivals at an average of {@code rate} guests per second, a Poisson process. */
+    static ArrivalShape poisson(final double rate, final Random random) {
+        checkArgument(rate > 0, "Rate must be positive");
+        final double perNano = rate / TimeUnit.SECONDS.toNanos(1);
+        return elapsedNanos -> samplePoisson(elapsedNanos * perNano, random);
+    }
+
+    /** Groups of {@code size} guests arriving together, at an average of {@code rate} guests per second. */
+    static ArrivalShape burst(final double rate, final int size) {
+        checkArgument(rate > 0, "Rate must be positive");
+        checkArgument(size > 0, "Burst size must be positive");
+        final long intervalNanos = Math.max(1, (long) (size * TimeUnit.SECONDS.toNanos(1) / rate));
+        return new ArrivalShape() {
+            private long sinceBurstNanos;
+
+            @Override
+            public int arrivals(long elapsedNanos) {
+                sinceBurstNanos += elapsedNanos;
+                final long bursts = sinceBurstNanos / intervalNanos;
+                sinceBurstNanos %= intervalNanos;
+                return (int) Math.min(Integer.MAX_VALUE, bursts * size);
+            }
+        };
+    }
+
+    /**
+     * Number of events of a Poisson distribution with the given mean: counted exactly for small
+     * means, approximated by the normal distribution for large ones.
+     */
+    static int samplePoisson(final double mean, final Random random) {
+        if (mean <= 0) return 0;
+        if (mean > 30) {
+            final double sample = Math.round(mean + Math.sqrt(mean) * random.nextGaussian());
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, sample));
+        }
+        final double limit = Math.exp(-mean);
+        int events = 0;
+        for (double product = random.nextDouble(); product > limit; product *= random.nextDouble()) events++;
+        return events;
+    }
+}
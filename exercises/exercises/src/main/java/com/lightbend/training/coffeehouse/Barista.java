@@ -1,77 +1,251 @@
 package com.lightbend.training.coffeehouse;
 
-import akka.actor.AbstractActorWithUnboundedStash;
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
-import akka.japi.pf.ReceiveBuilder;
+import com.google.common.collect.ImmutableList;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Objects;
-import java.util.Random;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class Barista extends AbstractActorWithUnboundedStash {
+/**
+ * Prepares up to {@code slots} coffees at a time, one per espresso machine. Orders arriving
+ * while all machines are busy wait in arrival order until a machine is free; once
+ * {@code maxWaitingOrders} are waiting, further orders are rejected with {@link BaristaOverloaded}.
+ * A barista that is stopped, e.g. when its pool shrinks, hands its unfinished orders back the
+ * same way, so the waiter sends them to the pool again. The orders of a {@link PrepareCoffees}
+ * batch are accepted the same way, one after the other.
+ */
+public class Barista extends AbstractLoggingActor {
 
     private final FiniteDuration prepareCoffeeDuration;
 
     private final int accuracy ;
 
-    public Barista(FiniteDuration prepareCoffeeDuration,int accuracy) {
+    private final Slot[] slots;
+
+    private final Slot[] idleSlots;
+
+    private int idleCount;
+
+    private final Queue<WaitingOrder> waitingOrders = new ArrayDeque<>();
+
+    private final int maxWaitingOrders;
+
+    private final LongAdder waitingOrdersGauge =
+            CoffeeHouseMetrics.get(context().system()).gauge("barista.waiting-orders");
+
+    private final LongAdder coffeesPrepared =
+            CoffeeHouseMetrics.get(context().system()).counter("barista.coffees-prepared");
+
+    private final LongAdder wrongCoffees =
+            CoffeeHouseMetrics.get(context().system()).counter("barista.wrong-coffees");
+
+    private final CoffeeHouseMetrics.Histogram queueWait =
+            CoffeeHouseMetrics.get(context().system()).histogram("barista.queue-wait");
+
+    private final LongAdder rejectedOrders =
+            CoffeeHouseMetrics.get(context().system()).counter("barista.rejected-orders");
+
+    private final LongAdder handedBackOrders =
+            CoffeeHouseMetrics.get(context().system()).counter("barista.handed-back-orders");
+
+    private final BaristaLoad.Load load = BaristaLoad.get(context().system()).of(self());
+
+    private final CoffeeClock clock = CoffeeClock.get(context().system());
+
+    public Barista(FiniteDuration prepareCoffeeDuration,int accuracy,int slots,int maxWaitingOrders) {
+        checkArgument(slots > 0, "Slots must be positive");
+        checkArgument(maxWaitingOrders >= 0, "Max waiting orders cannot be negative");
         this.prepareCoffeeDuration = prepareCoffeeDuration;
         this.accuracy = accuracy;
+        this.maxWaitingOrders = maxWaitingOrders;
+        this.slots = new Slot[slots];
+        this.idleSlots = new Slot[slots];
+        for (int i = 0; i < slots; i++) {
+            this.slots[i] = new Slot(i);
+            this.idleSlots[i] = this.slots[i];
+        }
+        this.idleCount = slots;
+        this.load.slots(slots);
+    }
+
+    public Barista(FiniteDuration prepareCoffeeDuration,int accuracy) {
+        this(prepareCoffeeDuration,accuracy,1,Integer.MAX_VALUE);
     }
 
     public static Props props(FiniteDuration prepareCoffeeDuration,int accuracy) {
-        return Props.create(Barista.class, () -> new Barista(prepareCoffeeDuration,accuracy));
+        return props(prepareCoffeeDuration,accuracy,1);
+    }
+
+    public static Props props(FiniteDuration prepareCoffeeDuration,int accuracy,int slots) {
+        return props(prepareCoffeeDuration,accuracy,slots,Integer.MAX_VALUE);
+    }
+
+    public static Props props(FiniteDuration prepareCoffeeDuration,int accuracy,int slots,int maxWaitingOrders) {
+        return Props.create(Barista.class, () ->
+                new Barista(prepareCoffeeDuration,accuracy,slots,maxWaitingOrders));
     }
 
     private Coffee pickCoffee(Coffee coffee) {
-        return new Random().nextInt(100) < accuracy ? coffee : Coffee.orderOther(coffee);
+        if (ThreadLocalRandom.current().nextInt(100) < accuracy) return coffee;
+        wrongCoffees.increment();
+        return Coffee.orderOther(coffee);
     }
 
     @Override
     public Receive createReceive() {
-        return ready();
-    }
-
-    private Receive ready() {
         return receiveBuilder()
-                .match(PrepareCoffee.class, prepareCoffee ->
-                {
-                        scheduleCoffeePrepared(prepareCoffee.coffee,prepareCoffee.guest);
-                        getContext().become(busy(sender()));
+                .match(PrepareCoffee.class, prepareCoffee -> accept(prepareCoffee,sender()))
+                .match(PrepareCoffees.class, prepareCoffees -> {
+                    for (PrepareCoffee prepareCoffee : prepareCoffees.orders) accept(prepareCoffee,sender());
+                })
+                .match(Slot.class, slot -> slots[slot.index] == slot, this::serve)
+                .match(Slot.class, slot -> {
+                    load.completed();
+                    coffeesPrepared.increment();
+                    slot.waiter.tell(slot.coffeePrepared.stamped(OrderTrace.Hop.PREPARED),self());
                 })
-                .matchAny(this::unhandled)
                 .build();
     }
 
-    private Receive busy(ActorRef waiter) {
-        return receiveBuilder()
-                .match(CoffeePrepared.class, coffeePrepared -> {
-                    waiter.tell(coffeePrepared,self());
-                    getContext().become(ready());
-                    unstashAll();
-                })
-                .matchAny( msg -> stash())
-                .build();
+    /** Prepares the order on an idle machine, lets it wait, or rejects it when too many are waiting. */
+    private void accept(PrepareCoffee prepareCoffee, ActorRef waiter) {
+        if (idleCount > 0) {
+            load.waited(0);
+            queueWait.record(0);
+            prepare(prepareCoffee.stamped(OrderTrace.Hop.BARISTA),waiter);
+        } else if (waitingOrders.size() < maxWaitingOrders) {
+            waitingOrders.add(new WaitingOrder(prepareCoffee.stamped(OrderTrace.Hop.BARISTA),waiter,System.nanoTime()));
+            waitingOrdersGauge.increment();
+        } else {
+            rejectedOrders.increment();
+            load.completed();
+            waiter.tell(new BaristaOverloaded(prepareCoffee),self());
+        }
     }
 
-    private void scheduleCoffeePrepared(Coffee coffee, ActorRef guest) {
-        context().system().scheduler().scheduleOnce(prepareCoffeeDuration,self(),
-                new CoffeePrepared(pickCoffee(coffee),guest),context().dispatcher(),self());
+    private void prepare(PrepareCoffee prepareCoffee, ActorRef waiter) {
+        final Slot slot = idleSlots[--idleCount];
+        slot.waiter = waiter;
+        slot.prepareCoffee = prepareCoffee;
+        slot.coffeePrepared = new CoffeePrepared(pickCoffee(prepareCoffee.coffee),prepareCoffee.guest,
+                OrderTrace.at(prepareCoffee.trace,OrderTrace.Hop.PREPARING));
+        clock.schedule(prepareCoffeeDuration,self(),slot,self());
+    }
+
+    private void serve(Slot slot) {
+        load.completed();
+        coffeesPrepared.increment();
+        slot.waiter.tell(slot.coffeePrepared.stamped(OrderTrace.Hop.PREPARED),self());
+        release(slot);
+        final WaitingOrder next = waitingOrders.poll();
+        if (next != null) {
+            waitingOrdersGauge.decrement();
+            final long waitedNanos = System.nanoTime() - next.arrivalNanos;
+            load.waited(waitedNanos);
+            queueWait.recordNanos(waitedNanos);
+            prepare(next.prepareCoffee,next.waiter);
+        }
+    }
+
+    private void release(Slot slot) {
+        slot.waiter = null;
+        slot.prepareCoffee = null;
+        slot.coffeePrepared = null;
+        idleSlots[idleCount++] = slot;
+    }
+
+    private void handBack(PrepareCoffee prepareCoffee, ActorRef waiter) {
+        handedBackOrders.increment();
+        load.completed();
+        waiter.tell(new BaristaOverloaded(prepareCoffee),self());
+    }
+
+    private void handBackWaitingOrders() {
+        for (WaitingOrder order = waitingOrders.poll(); order != null; order = waitingOrders.poll()) {
+            waitingOrdersGauge.decrement();
+            handBack(order.prepareCoffee,order.waiter);
+        }
+    }
+
+    /**
+     * The slots of this incarnation are still delivered to the restarted barista, so only the
+     * waiting orders are handed back.
+     */
+    @Override
+    public void preRestart(Throwable reason, Optional<Object> message) {
+        handBackWaitingOrders();
+    }
+
+    @Override
+    public void postStop() {
+        handBackWaitingOrders();
+        for (Slot slot : slots) {
+            if (slot.prepareCoffee != null) {
+                handBack(slot.prepareCoffee,slot.waiter);
+                release(slot);
+            }
+        }
+        BaristaLoad.get(context().system()).remove(self());
+    }
+
+    /**
+     * An espresso machine; the slot itself is scheduled back to the barista once the coffee is ready.
+     * Slots of a previous incarnation are still delivered after a restart, but not reused.
+     */
+    private static final class Slot {
+        final int index;
+        ActorRef waiter;
+        PrepareCoffee prepareCoffee;
+        CoffeePrepared coffeePrepared;
+
+        Slot(int index) {
+            this.index = index;
+        }
+    }
+
+    private static final class WaitingOrder {
+        final PrepareCoffee prepareCoffee;
+        final ActorRef waiter;
+        final long arrivalNanos;
+
+        WaitingOrder(PrepareCoffee prepareCoffee, ActorRef waiter, long arrivalNanos) {
+            this.prepareCoffee = prepareCoffee;
+            this.waiter = waiter;
+            this.arrivalNanos = arrivalNanos;
+        }
     }
 
     public static final class PrepareCoffee {
         public final Coffee coffee;
         public final ActorRef guest;
+        /** Trace of a sampled order, {@code null} otherwise; not part of equality. */
+        public final OrderTrace trace;
 
         public PrepareCoffee(Coffee coffee, ActorRef guest) {
+            this(coffee,guest,null);
+        }
+
+        public PrepareCoffee(Coffee coffee, ActorRef guest, OrderTrace trace) {
             checkNotNull(coffee,"Coffee cannot be Null");
             checkNotNull(guest, "Guest cannot be Null");
             this.coffee = coffee;
             this.guest = guest;
+            this.trace = trace;
+        }
+
+        PrepareCoffee stamped(OrderTrace.Hop hop) {
+            return trace == null ? this : new PrepareCoffee(coffee,guest,trace.at(hop));
         }
 
         @Override
@@ -97,16 +271,64 @@ public class Barista extends AbstractActorWithUnboundedStash {
         }
     }
 
+    /**
+     * Approved orders of any guests, accepted one after the other as if sent separately; the
+     * barista replies to each of them on its own.
+     */
+    public static final class PrepareCoffees {
+        public final List<PrepareCoffee> orders;
+
+        public PrepareCoffees(List<PrepareCoffee> orders) {
+            checkNotNull(orders, "Orders cannot be Null");
+            this.orders = ImmutableList.copyOf(orders);
+        }
+
+        /** A single order is sent as a plain {@link PrepareCoffee}. */
+        static Object of(List<PrepareCoffee> orders) {
+            return orders.size() == 1 ? orders.get(0) : new PrepareCoffees(orders);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PrepareCoffees that = (PrepareCoffees) o;
+            return Objects.equals(orders, that.orders);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orders);
+        }
+
+        @Override
+        public String toString() {
+            return "PrepareCoffees{" +
+                    "orders=" + orders +
+                    '}';
+        }
+    }
 
     public static final class CoffeePrepared {
         public final Coffee coffee;
         public final ActorRef guest;
+        /** Trace of a sampled order, {@code null} otherwise; not part of equality. */
+        public final OrderTrace trace;
 
         public CoffeePrepared(Coffee coffee, ActorRef guest) {
+            this(coffee,guest,null);
+        }
+
+        public CoffeePrepared(Coffee coffee, ActorRef guest, OrderTrace trace) {
             checkNotNull(coffee,"Coffee cannot be Null");
             checkNotNull(guest, "Guest cannot be Null");
             this.coffee = coffee;
             this.guest = guest;
+            this.trace = trace;
+        }
+
+        CoffeePrepared stamped(OrderTrace.Hop hop) {
+            return trace == null ? this : new CoffeePrepared(coffee,guest,trace.at(hop));
         }
 
         @Override
@@ -132,6 +354,35 @@ public class Barista extends AbstractActorWithUnboundedStash {
         }
     }
 
+    public static final class BaristaOverloaded {
+        public final PrepareCoffee prepareCoffee;
+
+        public BaristaOverloaded(PrepareCoffee prepareCoffee) {
+            checkNotNull(prepareCoffee, "PrepareCoffee cannot be Null");
+            this.prepareCoffee = prepareCoffee;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            BaristaOverloaded that = (BaristaOverloaded) o;
+            return Objects.equals(prepareCoffee, that.prepareCoffee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(prepareCoffee);
+        }
+
+        @Override
+        public String toString() {
+            return "BaristaOverloaded{" +
+                    "prepareCoffee=" + prepareCoffee +
+                    '}';
+        }
+    }
+
     public static void main(String[] args) {
         System.out.println(Runtime.getRuntime().availableProcessors());
     }
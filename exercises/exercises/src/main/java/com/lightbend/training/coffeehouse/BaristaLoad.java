@@ -0,0 +1,109 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionId;
+import akka.actor.ExtensionIdProvider;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load of every barista of an actor system, as seen by {@link AdaptiveBaristaPool}.
+ *
+ * The pool counts an order as outstanding when it routes it to a barista, the barista when it
+ * hands the order back, so the count includes orders still sitting in the mailbox. Baristas
+ * publish the number of espresso machines and the time orders wait for one.
+ */
+public final class BaristaLoad implements Extension {
+
+    private final ConcurrentMap<ActorRef, Load> loads = new ConcurrentHashMap<>();
+
+    public static BaristaLoad get(ActorSystem system) {
+        return Id.INSTANCE.get(system);
+    }
+
+    /**
+     * Returns the load of the given barista, creating it on first use by either the barista or
+     * the pool routing to it.
+     */
+    public Load of(ActorRef barista) {
+        return loads.computeIfAbsent(barista, b -> new Load());
+    }
+
+    void remove(ActorRef barista) {
+        loads.remove(barista);
+    }
+
+    public static final class Load {
+
+        private static final double WAIT_SMOOTHING = 0.2;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private volatile int slots = 1;
+
+        private volatile long waitNanos;
+
+        private Load() {
+        }
+
+        /** Orders routed to the barista but not yet handed back, including those in its mailbox. */
+        public int outstanding() {
+            return outstanding.get();
+        }
+
+        public int slots() {
+            return slots;
+        }
+
+        /** Exponentially weighted moving average of the time orders waited for an espresso machine. */
+        public long waitNanos() {
+            return waitNanos;
+        }
+
+        void routed() {
+            outstanding.incrementAndGet();
+        }
+
+        /** A batch of orders routed to the barista as one message. */
+        void routed(int orders) {
+            outstanding.addAndGet(orders);
+        }
+
+        void completed() {
+            outstanding.decrementAndGet();
+        }
+
+        void slots(int slots) {
+            this.slots = slots;
+        }
+
+        /** Only called by the barista itself, so the read-modify-write of the average cannot race. */
+        void waited(long nanos) {
+            waitNanos += (long) (WAIT_SMOOTHING * (nanos - waitNanos));
+        }
+    }
+
+    public static final class Id extends AbstractExtensionId<BaristaLoad> implements ExtensionIdProvider {
+
+        public static final Id INSTANCE = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public BaristaLoad createExtension(ExtendedActorSystem system) {
+            return new BaristaLoad();
+        }
+
+        @Override
+        public ExtensionId<BaristaLoad> lookup() {
+            return INSTANCE;
+        }
+    }
+}
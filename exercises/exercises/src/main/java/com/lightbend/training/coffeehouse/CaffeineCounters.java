@@ -0,0 +1,150 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caffeine counts of the guests of a {@link CoffeeHouse}, shared with its waiters so they approve
+ * orders without a hop through the coffee house; enabled by
+ * {@code coffee-house.shared-caffeine-counters.enabled}.
+ *
+ * Only the coffee house adds and removes guests; any thread may approve. Every guest has a slot
+ * in chunks of {@link AtomicLongArray}s, the chunks never move once allocated. A slot holds the
+ * tag of the guest in its high and the count in its low 32 bits, so an approval is a single
+ * compare-and-set that fails for a guest removed in the meantime: a slot reused for another guest
+ * gets a new tag. The guests are indexed by a {@link ConcurrentHashMap}, whose lookups do not lock.
+ */
+public final class CaffeineCounters {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    public enum Approval { APPROVED, LIMIT_REACHED, UNKNOWN_GUEST }
+
+    private final int caffeineLimit;
+
+    // Tag in the high and slot in the low 32 bits, per guest
+    private final ConcurrentHashMap<ActorRef, Long> handles = new ConcurrentHashMap<>();
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+    // Owned by the coffee house
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int nextSlot;
+    private int nextTag;
+
+    CaffeineCounters(int caffeineLimit) {
+        this.caffeineLimit = caffeineLimit;
+    }
+
+    int size() {
+        return handles.size();
+    }
+
+    boolean contains(ActorRef guest) {
+        return handles.containsKey(guest);
+    }
+
+    /**
+     * Returns the caffeine count of the guest, or -1 if the guest is not known.
+     */
+    int count(ActorRef guest) {
+        final Long handle = handles.get(guest);
+        if (handle == null) return -1;
+        final long cell = chunk(slot(handle)).get(offset(slot(handle)));
+        return tag(cell) == tag(handle) ? count(cell) : -1;
+    }
+
+    /**
+     * Counts the coffee if the guest is known and below the limit; safe to call from any thread.
+     */
+    Approval tryIncrement(ActorRef guest) {
+        final Long handle = handles.get(guest);
+        if (handle == null) return Approval.UNKNOWN_GUEST;
+        final AtomicLongArray chunk = chunk(slot(handle));
+        final int offset = offset(slot(handle));
+        while (true) {
+            final long cell = chunk.get(offset);
+            if (tag(cell) != tag(handle)) return Approval.UNKNOWN_GUEST;
+            if (count(cell) >= caffeineLimit) return Approval.LIMIT_REACHED;
+            if (chunk.compareAndSet(offset, cell, cell + 1)) return Approval.APPROVED;
+        }
+    }
+
+    /**
+     * Takes back a coffee counted for the guest, e.g. one the baristas were too busy to prepare;
+     * safe to call from any thread. Returns false if the guest is not known or has no coffee.
+     */
+    boolean tryDecrement(ActorRef guest) {
+        final Long handle = handles.get(guest);
+        if (handle == null) return false;
+        final AtomicLongArray chunk = chunk(slot(handle));
+        final int offset = offset(slot(handle));
+        while (true) {
+            final long cell = chunk.get(offset);
+            if (tag(cell) != tag(handle) || count(cell) == 0) return false;
+            if (chunk.compareAndSet(offset, cell, cell - 1)) return true;
+        }
+    }
+
+    /**
+     * Adds the guest with a caffeine count of zero; returns false if it was already present.
+     * Only called by the coffee house.
+     */
+    boolean add(ActorRef guest) {
+        if (handles.containsKey(guest)) return false;
+        final int slot = freeCount > 0 ? freeSlots[--freeCount] : allocateSlot();
+        // Tag 0 marks a free slot
+        nextTag = nextTag == -1 ? 1 : nextTag + 1;
+        chunk(slot).set(offset(slot), (long) nextTag << 32);
+        handles.put(guest, (long) nextTag << 32 | slot);
+        return true;
+    }
+
+    /**
+     * Removes the guest; approvals racing the removal find its slot freed. Only called by the
+     * coffee house.
+     */
+    boolean remove(ActorRef guest) {
+        final Long handle = handles.remove(guest);
+        if (handle == null) return false;
+        final int slot = slot(handle);
+        chunk(slot).set(offset(slot), 0);
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+        return true;
+    }
+
+    private int allocateSlot() {
+        if (nextSlot == chunks.length * CHUNK_SIZE) {
+            final AtomicLongArray[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new AtomicLongArray(CHUNK_SIZE);
+            chunks = grown;
+        }
+        return nextSlot++;
+    }
+
+    private AtomicLongArray chunk(int slot) {
+        return chunks[slot >>> CHUNK_BITS];
+    }
+
+    private static int offset(int slot) {
+        return slot & (CHUNK_SIZE - 1);
+    }
+
+    private static int slot(long handle) {
+        return (int) handle;
+    }
+
+    private static int tag(long handleOrCell) {
+        return (int) (handleOrCell >>> 32);
+    }
+
+    private static int count(long cell) {
+        return (int) cell;
+    }
+}
@@ -0,0 +1,304 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * One shard of the caffeine accounting of a {@link CoffeeHouse}: it approves coffees for the
+ * guests assigned to it and forwards approved orders straight to the barista.
+ *
+ * As an entity of the cluster sharded ledgers, see {@link CoffeeHouseSharding}, there is no coffee
+ * house admitting the guests: a guest is added by its first order and told itself when it reached
+ * its limit. A guest whose shard is handed off moves its count to its next incarnation; orders of
+ * the previous one still on their way are then refused rather than counted afresh.
+ */
+public class CaffeineLedger extends AbstractLoggingActor {
+
+    private final ActorRef barista;
+    private final int caffeineLimit;
+    private final boolean sharded;
+    private final GuestLedger guestBook = new GuestLedger();
+    // The previous incarnation of each moved guest, by guest id, until the guest leaves
+    private final Map<String, ActorRef> movedGuests = new HashMap<>();
+    private final LongAdder approvals =
+            CoffeeHouseMetrics.get(context().system()).counter("coffee-house.approvals");
+
+    public CaffeineLedger(ActorRef barista, int caffeineLimit) {
+        this(barista, caffeineLimit, false);
+    }
+
+    public CaffeineLedger(ActorRef barista, int caffeineLimit, boolean sharded) {
+        this.barista = barista;
+        this.caffeineLimit = caffeineLimit;
+        this.sharded = sharded;
+    }
+
+    public static Props props(ActorRef barista, int caffeineLimit) {
+        return Props.create(CaffeineLedger.class, () -> new CaffeineLedger(barista, caffeineLimit));
+    }
+
+    public static Props shardedProps(ActorRef barista, int caffeineLimit) {
+        return Props.create(CaffeineLedger.class, () -> new CaffeineLedger(barista, caffeineLimit, true));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(AddGuest.class, addGuest -> guestBook.add(addGuest.guest))
+                .match(RemoveGuest.class, removeGuest -> {
+                    guestBook.remove(removeGuest.guest);
+                    if (!movedGuests.isEmpty()) movedGuests.remove(removeGuest.guest.path().name());
+                })
+                .match(MoveGuest.class, this::moveGuest)
+                .match(RefundCoffee.class, refundCoffee -> guestBook.tryDecrement(refundCoffee.guest))
+                .match(CoffeeHouse.ApproveCoffee.class,
+                        this::tryApprove,
+                        approveCoffee -> {
+                            approvals.increment();
+                            barista.forward(approveCoffee.approved(), context());
+                        })
+                .match(CoffeeHouse.ApproveCoffee.class,
+                        approveCoffee -> guestBook.contains(approveCoffee.guest),
+                        approveCoffee -> limitReached(approveCoffee.guest))
+                .match(CoffeeHouse.ApproveCoffee.class, approveCoffee ->
+                        log().warning("Unknown guest {} asked for coffee.", approveCoffee.guest))
+                .match(CoffeeHouse.ApproveCoffees.class, this::approveAll)
+                .match(CoffeeHouse.GetStatus.class, getStatus ->
+                        sender().tell(new CoffeeHouse.Status(guestBook.size()), self()))
+                .build();
+    }
+
+    /** Approves a batch in one pass and forwards the approved orders to the barista as one batch. */
+    private void approveAll(CoffeeHouse.ApproveCoffees approveCoffees) {
+        final List<Barista.PrepareCoffee> approved = new ArrayList<>(approveCoffees.orders.size());
+        for (CoffeeHouse.ApproveCoffee approveCoffee : approveCoffees.orders) {
+            if (tryApprove(approveCoffee)) {
+                approvals.increment();
+                approved.add(approveCoffee.approved());
+            } else if (guestBook.contains(approveCoffee.guest)) {
+                limitReached(approveCoffee.guest);
+            } else {
+                log().warning("Unknown guest {} asked for coffee.", approveCoffee.guest);
+            }
+        }
+        if (!approved.isEmpty()) barista.forward(Barista.PrepareCoffees.of(approved), context());
+    }
+
+    private boolean tryApprove(CoffeeHouse.ApproveCoffee approveCoffee) {
+        if (sharded && !movedAway(approveCoffee.guest)) guestBook.add(approveCoffee.guest);
+        return guestBook.tryIncrement(approveCoffee.guest, caffeineLimit);
+    }
+
+    private void moveGuest(MoveGuest moveGuest) {
+        final int count = guestBook.count(moveGuest.previous);
+        if (count >= 0) guestBook.remove(moveGuest.previous);
+        guestBook.add(moveGuest.guest, Math.max(count, 0));
+        movedGuests.put(moveGuest.guest.path().name(), moveGuest.previous);
+        sender().tell(new GuestMoved(moveGuest.guest), self());
+    }
+
+    private boolean movedAway(ActorRef guest) {
+        return !movedGuests.isEmpty() && guest.equals(movedGuests.get(guest.path().name()));
+    }
+
+    private void limitReached(ActorRef guest) {
+        final ActorRef recipient = sharded ? guest : context().parent();
+        recipient.tell(new LimitReached(guest), self());
+    }
+
+    public static final class AddGuest {
+        public final ActorRef guest;
+
+        public AddGuest(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            AddGuest that = (AddGuest) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "AddGuest{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    public static final class RemoveGuest {
+        public final ActorRef guest;
+
+        public RemoveGuest(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RemoveGuest that = (RemoveGuest) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "RemoveGuest{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    /**
+     * Takes back the count of an approved coffee the guest never got, see {@link Waiter}.
+     */
+    public static final class RefundCoffee {
+        public final ActorRef guest;
+
+        public RefundCoffee(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            RefundCoffee that = (RefundCoffee) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "RefundCoffee{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    /**
+     * Moves the count of a sharded guest to its incarnation on the node its shard was handed off
+     * to, see {@link ShardedGuest}; confirmed to the sender with {@link GuestMoved}.
+     */
+    public static final class MoveGuest {
+        public final ActorRef previous;
+        public final ActorRef guest;
+
+        public MoveGuest(ActorRef previous, ActorRef guest) {
+            checkNotNull(previous, "Previous guest cannot be null");
+            checkNotNull(guest, "Guest cannot be null");
+            this.previous = previous;
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            MoveGuest that = (MoveGuest) o;
+            return Objects.equals(previous, that.previous) &&
+                    Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(previous, guest);
+        }
+
+        @Override
+        public String toString() {
+            return "MoveGuest{" +
+                    "previous=" + previous +
+                    ", guest=" + guest +
+                    '}';
+        }
+    }
+
+    public static final class GuestMoved {
+        public final ActorRef guest;
+
+        public GuestMoved(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            GuestMoved that = (GuestMoved) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "GuestMoved{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    public static final class LimitReached {
+        public final ActorRef guest;
+
+        public LimitReached(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LimitReached that = (LimitReached) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "LimitReached{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializerWithStringManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.UncheckedIOException;
+
+/**
+ * Binary format of the {@link PersistentCaffeineLedger} events and snapshots.
+ *
+ * Guests are stored as actor paths. Lists of guests are front coded: each path only stores the
+ * characters following the prefix it shares with the previous one, which for children of the
+ * same coffee house is most of the path.
+ */
+public final class CaffeineLedgerSerializer extends SerializerWithStringManifest {
+
+    private static final String GUEST_ADDED = "A";
+    private static final String GUEST_REMOVED = "R";
+    private static final String CAFFEINE_INCREMENTED = "I";
+    private static final String LEDGER_SNAPSHOT = "S";
+    private static final String COFFEE_REFUNDED = "D";
+
+    private final ExtendedActorSystem system;
+
+    public CaffeineLedgerSerializer(ExtendedActorSystem system) {
+        this.system = system;
+    }
+
+    @Override
+    public int identifier() {
+        return 70_011;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof PersistentCaffeineLedger.GuestAdded) return GUEST_ADDED;
+        if (o instanceof PersistentCaffeineLedger.GuestRemoved) return GUEST_REMOVED;
+        if (o instanceof PersistentCaffeineLedger.CaffeineIncremented) return CAFFEINE_INCREMENTED;
+        if (o instanceof PersistentCaffeineLedger.LedgerSnapshot) return LEDGER_SNAPSHOT;
+        if (o instanceof PersistentCaffeineLedger.CoffeeRefunded) return COFFEE_REFUNDED;
+        throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (o instanceof PersistentCaffeineLedger.GuestAdded) {
+                out.writeUTF(Serialization.serializedActorPath(((PersistentCaffeineLedger.GuestAdded) o).guest));
+            } else if (o instanceof PersistentCaffeineLedger.GuestRemoved) {
+                out.writeUTF(Serialization.serializedActorPath(((PersistentCaffeineLedger.GuestRemoved) o).guest));
+            } else if (o instanceof PersistentCaffeineLedger.CoffeeRefunded) {
+                out.writeUTF(Serialization.serializedActorPath(((PersistentCaffeineLedger.CoffeeRefunded) o).guest));
+            } else if (o instanceof PersistentCaffeineLedger.CaffeineIncremented) {
+                writeGuests(out, ((PersistentCaffeineLedger.CaffeineIncremented) o).guests);
+            } else if (o instanceof PersistentCaffeineLedger.LedgerSnapshot) {
+                final PersistentCaffeineLedger.LedgerSnapshot snapshot = (PersistentCaffeineLedger.LedgerSnapshot) o;
+                writeGuests(out, snapshot.guests);
+                for (int count : snapshot.counts) out.writeInt(count);
+            } else {
+                throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            switch (manifest) {
+                case GUEST_ADDED:
+                    return new PersistentCaffeineLedger.GuestAdded(resolve(in.readUTF()));
+                case GUEST_REMOVED:
+                    return new PersistentCaffeineLedger.GuestRemoved(resolve(in.readUTF()));
+                case COFFEE_REFUNDED:
+                    return new PersistentCaffeineLedger.CoffeeRefunded(resolve(in.readUTF()));
+                case CAFFEINE_INCREMENTED:
+                    return new PersistentCaffeineLedger.CaffeineIncremented(readGuests(in));
+                case LEDGER_SNAPSHOT:
+                    final ActorRef[] guests = readGuests(in);
+                    final int[] counts = new int[guests.length];
+                    for (int i = 0; i < counts.length; i++) counts[i] = in.readInt();
+                    return new PersistentCaffeineLedger.LedgerSnapshot(guests, counts);
+                default:
+                    throw new NotSerializableException("Unknown manifest " + manifest);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeGuests(DataOutputStream out, ActorRef[] guests) throws IOException {
+        out.writeInt(guests.length);
+        String previous = "";
+        for (ActorRef guest : guests) {
+            final String path = Serialization.serializedActorPath(guest);
+            final int shared = sharedPrefix(previous, path);
+            out.writeShort(shared);
+            out.writeUTF(path.substring(shared));
+            previous = path;
+        }
+    }
+
+    private ActorRef[] readGuests(DataInputStream in) throws IOException {
+        final ActorRef[] guests = new ActorRef[in.readInt()];
+        String previous = "";
+        for (int i = 0; i < guests.length; i++) {
+            final String path = previous.substring(0, in.readUnsignedShort()) + in.readUTF();
+            guests[i] = resolve(path);
+            previous = path;
+        }
+        return guests;
+    }
+
+    private ActorRef resolve(String path) {
+        return system.provider().resolveActorRef(path);
+    }
+
+    private static int sharedPrefix(String a, String b) {
+        final int max = Math.min(Math.min(a.length(), b.length()), 0xFFFF);
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+}
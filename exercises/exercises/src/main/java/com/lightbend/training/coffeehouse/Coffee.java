@@ -3,37 +3,101 @@
  */
 package com.lightbend.training.coffeehouse;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import java.io.Serializable;
-import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * A drink of the coffee house. Each drink has one canonical instance, e.g. {@link #AKKACCINO},
+ * numbered by its {@link #ordinal()} in the {@link Catalogue}; other instances are equal to it.
+ */
 public interface Coffee extends Serializable{
 
     long serialVersionUID = 1;
-    // NOTE return copy of static list???
-    ImmutableSet<Coffee> COFFEES = ImmutableSet.of(
-        new Akkaccino(), new CaffeJava(), new MochaPlay());
+
+    Akkaccino AKKACCINO = new Akkaccino();
+
+    CaffeJava CAFFE_JAVA = new CaffeJava();
+
+    MochaPlay MOCHA_PLAY = new MochaPlay();
+
+    ImmutableSet<Coffee> COFFEES = ImmutableSet.of(AKKACCINO, CAFFE_JAVA, MOCHA_PLAY);
+
+    /** Position of the drink in the {@link Catalogue}, from 0. */
+    int ordinal();
+
+    /** Code ordering the drink, see {@link #order(String)}. */
+    String code();
 
     static Coffee order(final String code){
-        switch (code.toLowerCase()) {
-            case Akkaccino.CODE:
-                return new Akkaccino();
-            case MochaPlay.CODE:
-                return new MochaPlay();
-            case CaffeJava.CODE:
-                return new CaffeJava();
-            default:
-                throw new IllegalArgumentException(String.format("Unknown drink code \"%s\"!", code));
-        }
+        return Catalogue.byCode(code);
     }
 
+    static Coffee byOrdinal(final int ordinal){
+        return Catalogue.byOrdinal(ordinal);
+    }
+
+    /** A random drink other than the given one, as made by a barista getting the order wrong. */
     static Coffee orderOther(final Coffee coffee){
-        Random rnd = new Random();
-        List<Coffee> filtered = COFFEES.stream().filter(c -> !c.equals(coffee)).collect(Collectors.toList());
-        return filtered.get(rnd.nextInt(filtered.size()));
+        final Coffee[] others = Catalogue.others(coffee);
+        return others[ThreadLocalRandom.current().nextInt(others.length)];
+    }
+
+    /**
+     * Canonical drinks by ordinal and by code, and for each drink the other drinks, all computed
+     * once so that ordering does not allocate.
+     */
+    final class Catalogue {
+
+        private static final Coffee[] BY_ORDINAL = COFFEES.toArray(new Coffee[0]);
+
+        private static final ImmutableMap<String, Coffee> BY_CODE;
+
+        private static final Coffee[][] OTHERS = new Coffee[BY_ORDINAL.length][];
+
+        static {
+            final ImmutableMap.Builder<String, Coffee> byCode = ImmutableMap.builder();
+            for (int ordinal = 0; ordinal < BY_ORDINAL.length; ordinal++) {
+                final Coffee coffee = BY_ORDINAL[ordinal];
+                if (coffee.ordinal() != ordinal) {
+                    throw new IllegalStateException(String.format("%s listed at %d", coffee, ordinal));
+                }
+                byCode.put(coffee.code(), coffee);
+                OTHERS[ordinal] = COFFEES.stream().filter(c -> !c.equals(coffee)).toArray(Coffee[]::new);
+            }
+            BY_CODE = byCode.build();
+        }
+
+        private Catalogue(){
+        }
+
+        public static int size(){
+            return BY_ORDINAL.length;
+        }
+
+        static Coffee byOrdinal(final int ordinal){
+            if (ordinal < 0 || ordinal >= BY_ORDINAL.length) {
+                throw new IllegalArgumentException(String.format("Unknown drink ordinal %d!", ordinal));
+            }
+            return BY_ORDINAL[ordinal];
+        }
+
+        static Coffee byCode(final String code){
+            // Codes are lower case; only other spellings pay for the conversion
+            Coffee coffee = BY_CODE.get(code);
+            if (coffee == null) coffee = BY_CODE.get(code.toLowerCase(Locale.ROOT));
+            if (coffee == null) {
+                throw new IllegalArgumentException(String.format("Unknown drink code \"%s\"!", code));
+            }
+            return coffee;
+        }
+
+        static Coffee[] others(final Coffee coffee){
+            return OTHERS[coffee.ordinal()];
+        }
     }
 
     final class Akkaccino implements Coffee{
@@ -42,6 +106,20 @@ public interface Coffee extends Serializable{
 
         public static final String CODE = "a";
 
+        @Override
+        public int ordinal(){
+            return 0;
+        }
+
+        @Override
+        public String code(){
+            return CODE;
+        }
+
+        private Object readResolve(){
+            return AKKACCINO;
+        }
+
         @Override
         public String toString(){
             return this.getClass().getSimpleName();
@@ -54,7 +132,7 @@ public interface Coffee extends Serializable{
 
         @Override
         public int hashCode(){
-            return 1;
+            return ordinal();
         }
     }
 
@@ -64,6 +142,20 @@ public interface Coffee extends Serializable{
 
         public static final String CODE = "c";
 
+        @Override
+        public int ordinal(){
+            return 1;
+        }
+
+        @Override
+        public String code(){
+            return CODE;
+        }
+
+        private Object readResolve(){
+            return CAFFE_JAVA;
+        }
+
         @Override
         public String toString(){
             return this.getClass().getSimpleName();
@@ -76,7 +168,7 @@ public interface Coffee extends Serializable{
 
         @Override
         public int hashCode(){
-            return 1;
+            return ordinal();
         }
     }
 
@@ -86,6 +178,20 @@ public interface Coffee extends Serializable{
 
         public static final String CODE = "m";
 
+        @Override
+        public int ordinal(){
+            return 2;
+        }
+
+        @Override
+        public String code(){
+            return CODE;
+        }
+
+        private Object readResolve(){
+            return MOCHA_PLAY;
+        }
+
         @Override
         public String toString(){
             return this.getClass().getSimpleName();
@@ -98,7 +204,7 @@ public interface Coffee extends Serializable{
 
         @Override
         public int hashCode(){
-            return 1;
+            return ordinal();
         }
     }
 }
@@ -0,0 +1,178 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionId;
+import akka.actor.ExtensionIdProvider;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Shared clock for the coffee house's many short-lived deadlines, e.g. a guest finishing its
+ * coffee or a barista finishing an order.
+ *
+ * Deadlines are kept in a hashed wheel of {@code coffee-house.clock.ticks-per-wheel} buckets, each
+ * covering {@code coffee-house.clock.tick-duration}, and every bucket is delivered in one batch
+ * when its tick has passed. Messages therefore arrive up to one tick late; a longer tick trades
+ * precision for fewer, larger batches. A single Akka scheduler task drives the wheel, and a
+ * deadline takes one entry in the arrays of its bucket instead of a scheduler task and a
+ * {@link Cancellable}. Deadlines cannot be cancelled: recipients must tolerate stale messages.
+ */
+public final class CoffeeClock implements Extension {
+
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+
+    private final long tickNanos;
+
+    private final long startNanos = System.nanoTime();
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    /** Last tick whose bucket has been delivered; written by the clock task only. */
+    private volatile long tick;
+
+    private CoffeeClock(ActorSystem system, FiniteDuration tickDuration, int ticksPerWheel) {
+        checkArgument(tickDuration.toNanos() > 0, "Tick duration must be positive");
+        checkArgument(ticksPerWheel > 0, "Ticks per wheel must be positive");
+        this.tickNanos = tickDuration.toNanos();
+        this.wheel = new Bucket[Integer.highestOneBit(ticksPerWheel - 1 | 1) << 1];
+        this.mask = wheel.length - 1;
+        for (int i = 0; i < wheel.length; i++) wheel[i] = new Bucket();
+        system.scheduler().scheduleWithFixedDelay(tickDuration, tickDuration, this::advance, system.dispatcher());
+    }
+
+    public static CoffeeClock get(ActorSystem system) {
+        return Id.INSTANCE.get(system);
+    }
+
+    /**
+     * Sends the message to the recipient once the delay has passed, rounded up to the next tick.
+     * Without a delay the message is sent right away.
+     */
+    public void schedule(FiniteDuration delay, ActorRef recipient, Object message, ActorRef sender) {
+        final long delayNanos = delay.toNanos();
+        if (delayNanos <= 0) {
+            recipient.tell(message, sender);
+            return;
+        }
+        final long deadline = (System.nanoTime() - startNanos + delayNanos + tickNanos - 1) / tickNanos;
+        final Bucket bucket = wheel[(int) (deadline & mask)];
+        synchronized (bucket) {
+            if (deadline > tick) {
+                bucket.add(deadline, recipient, message, sender);
+                return;
+            }
+        }
+        recipient.tell(message, sender);
+    }
+
+    /** Number of deadlines not yet delivered. */
+    public int pending() {
+        int pending = 0;
+        for (Bucket bucket : wheel) {
+            synchronized (bucket) {
+                pending += bucket.size;
+            }
+        }
+        return pending;
+    }
+
+    private void advance() {
+        final long now = (System.nanoTime() - startNanos) / tickNanos;
+        // Catch up on ticks missed while the scheduler was late, at most one round of the wheel
+        long next = Math.max(tick + 1, now - mask);
+        for (; next <= now; next++) {
+            final Bucket bucket = wheel[(int) (next & mask)];
+            synchronized (bucket) {
+                tick = next;
+                bucket.deliver(next);
+            }
+        }
+    }
+
+    /**
+     * Deadlines hashed to one slot of the wheel, including those of later rounds, stored in
+     * parallel arrays.
+     */
+    private static final class Bucket {
+        private long[] deadlines = new long[INITIAL_BUCKET_CAPACITY];
+        private ActorRef[] recipients = new ActorRef[INITIAL_BUCKET_CAPACITY];
+        private Object[] messages = new Object[INITIAL_BUCKET_CAPACITY];
+        private ActorRef[] senders = new ActorRef[INITIAL_BUCKET_CAPACITY];
+        private int size;
+
+        void add(long deadline, ActorRef recipient, Object message, ActorRef sender) {
+            if (size == deadlines.length) {
+                final int capacity = size * 2;
+                deadlines = Arrays.copyOf(deadlines, capacity);
+                recipients = Arrays.copyOf(recipients, capacity);
+                messages = Arrays.copyOf(messages, capacity);
+                senders = Arrays.copyOf(senders, capacity);
+            }
+            deadlines[size] = deadline;
+            recipients[size] = recipient;
+            messages[size] = message;
+            senders[size] = sender;
+            size++;
+        }
+
+        /** Delivers all deadlines up to the given tick and compacts the remaining ones. */
+        void deliver(long tick) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (deadlines[i] <= tick) {
+                    recipients[i].tell(messages[i], senders[i]);
+                } else {
+                    deadlines[kept] = deadlines[i];
+                    recipients[kept] = recipients[i];
+                    messages[kept] = messages[i];
+                    senders[kept] = senders[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(recipients, kept, size, null);
+            Arrays.fill(messages, kept, size, null);
+            Arrays.fill(senders, kept, size, null);
+            size = kept;
+            if (size == 0 && deadlines.length > INITIAL_BUCKET_CAPACITY) {
+                deadlines = new long[INITIAL_BUCKET_CAPACITY];
+                recipients = new ActorRef[INITIAL_BUCKET_CAPACITY];
+                messages = new Object[INITIAL_BUCKET_CAPACITY];
+                senders = new ActorRef[INITIAL_BUCKET_CAPACITY];
+            }
+        }
+    }
+
+    public static final class Id extends AbstractExtensionId<CoffeeClock> implements ExtensionIdProvider {
+
+        public static final Id INSTANCE = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public CoffeeClock createExtension(ExtendedActorSystem system) {
+            final Config config = system.settings().config();
+            return new CoffeeClock(system,
+                    FiniteDuration.create(config.getDuration("coffee-house.clock.tick-duration",
+                            TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS),
+                    config.getInt("coffee-house.clock.ticks-per-wheel"));
+        }
+
+        @Override
+        public ExtensionId<CoffeeClock> lookup() {
+            return INSTANCE;
+        }
+    }
+}
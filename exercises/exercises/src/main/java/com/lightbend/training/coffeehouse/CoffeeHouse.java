@@ -1,15 +1,24 @@
 package com.lightbend.training.coffeehouse;
 
 import akka.actor.*;
+import akka.cluster.Cluster;
+import akka.cluster.sharding.ShardRegion;
 import akka.japi.pf.DeciderBuilder;
 import akka.japi.pf.ReceiveBuilder;
+import akka.pattern.Patterns;
 import akka.routing.FromConfig;
+import com.google.common.collect.ImmutableList;
 import scala.concurrent.duration.FiniteDuration;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -26,32 +35,221 @@ public class CoffeeHouse extends AbstractLoggingActor {
                     MILLISECONDS);
     private final int baristaAccuracy =
             context().system().settings().config().getInt("coffee-house.barista.accuracy");
+    private final int baristaSlots =
+            context().system().settings().config().getInt("coffee-house.barista.slots");
+    private final int baristaMaxWaitingOrders =
+            context().system().settings().config().getInt("coffee-house.barista.max-waiting-orders");
 
 
     private final int waiterMaxComplaintCount =
             context().system().settings().config().getInt("coffee-house.waiter.max-complaint-count");
 
+    private final int waiterCount =
+            context().system().settings().config().getInt("coffee-house.waiter.nr-of-instances");
 
-    private final ActorRef barista = createBarista();
-    private final ActorRef waiter = createWaiter();
-    private final Map<ActorRef,Integer> guestBook = new HashMap<>();
+    private final FiniteDuration waiterOverloadBackoff =
+            FiniteDuration.create(context().system().settings().config().
+                            getDuration("coffee-house.waiter.overload-backoff",MILLISECONDS),
+                    MILLISECONDS);
+    private final int waiterMaxOverloadRetries =
+            context().system().settings().config().getInt("coffee-house.waiter.max-overload-retries");
+    private final int waiterBatchSize =
+            context().system().settings().config().getInt("coffee-house.waiter.batch.max-size");
+    private final FiniteDuration waiterBatchWindow =
+            FiniteDuration.create(context().system().settings().config().
+                            getDuration("coffee-house.waiter.batch.window",MILLISECONDS),
+                    MILLISECONDS);
+
+    private final int guestCreationChunkSize =
+            context().system().settings().config().getInt("coffee-house.guest.creation-chunk-size");
+
+    private final boolean guestPassivation =
+            context().system().settings().config().getBoolean("coffee-house.guest.passivation.enabled");
+    private final FiniteDuration guestWakeInterval =
+            FiniteDuration.create(context().system().settings().config().
+                            getDuration("coffee-house.guest.passivation.wake-interval",MILLISECONDS),
+                    MILLISECONDS);
+
+    private final int simulationTables =
+            context().system().settings().config().getInt("coffee-house.simulation.tables");
+    private final FiniteDuration simulationTick =
+            FiniteDuration.create(context().system().settings().config().
+                            getDuration("coffee-house.simulation.tick",MILLISECONDS),
+                    MILLISECONDS);
+    private final int simulationBatchSize =
+            context().system().settings().config().getInt("coffee-house.simulation.batch-size");
+
+    private final int ledgerShards =
+            context().system().settings().config().getInt("coffee-house.ledger-shards");
+
+    private final boolean ledgerPersistence =
+            context().system().settings().config().getBoolean("coffee-house.ledger-persistence.enabled");
+    private final int ledgerBatchSize =
+            context().system().settings().config().getInt("coffee-house.ledger-persistence.batch-size");
+    private final FiniteDuration ledgerFlushInterval =
+            FiniteDuration.create(context().system().settings().config().
+                            getDuration("coffee-house.ledger-persistence.flush-interval",MILLISECONDS),
+                    MILLISECONDS);
+    private final int ledgerSnapshotInterval =
+            context().system().settings().config().getInt("coffee-house.ledger-persistence.snapshot-interval");
+
+    private final boolean sharedCounters =
+            context().system().settings().config().getBoolean("coffee-house.shared-caffeine-counters.enabled");
+
+    private final boolean clusterEnabled =
+            context().system().settings().config().getBoolean("coffee-house.cluster.enabled");
+    private final int clusterShards =
+            context().system().settings().config().getInt("coffee-house.cluster.number-of-shards");
+    private final int clusterBaristaPools =
+            context().system().settings().config().getInt("coffee-house.cluster.max-barista-pools");
+
+    private final Duration statusTimeout =
+            context().system().settings().config().getDuration("coffee-house.status-timeout");
+
+    private final String guestDispatcher =
+            context().system().settings().config().getString("coffee-house.guest.dispatcher");
+    private final String waiterDispatcher =
+            context().system().settings().config().getString("coffee-house.waiter.dispatcher");
+    private final String baristaDispatcher =
+            context().system().settings().config().getString("coffee-house.barista.dispatcher");
+
+
+    private final LongAdder activeGuests =
+            CoffeeHouseMetrics.get(context().system()).gauge("coffee-house.guests");
+    private final LongAdder residentGuests =
+            CoffeeHouseMetrics.get(context().system()).gauge("coffee-house.resident-guests");
+    private final LongAdder idleGuestCount =
+            CoffeeHouseMetrics.get(context().system()).gauge("coffee-house.idle-guests");
+    private final LongAdder approvals =
+            CoffeeHouseMetrics.get(context().system()).counter("coffee-house.approvals");
+    private final LongAdder caffeineRejections =
+            CoffeeHouseMetrics.get(context().system()).counter("coffee-house.caffeine-rejections");
+    private final LongAdder waiterRestarts =
+            CoffeeHouseMetrics.get(context().system()).counter("coffee-house.waiter-restarts");
+
+    private final ActorRef barista = clusterEnabled
+            ? CoffeeHouseSharding.baristaRouter(getContext(),createBarista(),clusterBaristaPools)
+            : createBarista();
+    private final ActorRef[] waiters;
+    private int nextWaiter = 0;
+    private final GuestLedger guestBook = new GuestLedger();
+    // Replaces the guest book with coffee-house.shared-caffeine-counters enabled; null otherwise
+    private final CaffeineCounters counters;
     private final int caffeineLimit;
+    private final ActorRef[] ledgers;
+    // Sharded guests with coffee-house.cluster enabled, see CoffeeHouseSharding; null otherwise
+    private final ActorRef guestRegion;
+    private long arrivals = 0;
+    // Guests passivated while finishing their coffee, with coffee-house.guest.passivation enabled
+    private final boolean passivation;
+    private final GuestTable idleGuests = new GuestTable();
+
+    // Admitted guests not yet gone, resident or idle; the activeGuests gauge sums all coffee houses
+    private int guestCount;
+    private Cancellable wakeTicks;
+    // Guests simulated in tables with coffee-house.simulation.tables positive, see GuestSimulation
+    private final ActorRef[] tables;
+    private int nextTable = 0;
 
     protected ActorRef createWaiter() {
         log().warning("WARNING waiterMaxComplaintCount {}",waiterMaxComplaintCount);
-        return getContext().actorOf(Waiter.props(self(),barista,waiterMaxComplaintCount),"waiter");
+        return getContext().actorOf(waiterProps(),"waiter");
+    }
+
+    /**
+     * Creates the waiters as direct children, so a FrustratedException restarts only the waiter
+     * that failed. Each guest is bound to one waiter when it is admitted: its orders, complaints
+     * and prepared coffees are always handled by the same waiter.
+     */
+    private ActorRef[] createWaiters() {
+        if (waiterCount <= 1) return new ActorRef[]{createWaiter()};
+        final ActorRef[] waiters = new ActorRef[waiterCount];
+        for (int i = 0; i < waiterCount; i++) {
+            waiters[i] = getContext().actorOf(waiterProps(),"waiter-" + i);
+        }
+        return waiters;
+    }
+
+    private Props waiterProps() {
+        return Waiter.props(self(),barista,waiterMaxComplaintCount,waiterOverloadBackoff,waiterMaxOverloadRetries,
+                waiterBatchSize,waiterBatchWindow,counters).withDispatcher(waiterDispatcher);
+    }
+
+    protected ActorRef nextWaiter() {
+        final ActorRef waiter = waiters[nextWaiter];
+        nextWaiter = (nextWaiter + 1) % waiters.length;
+        return waiter;
     }
 
     protected ActorRef createBarista() {
         log().warning("WARNING prepareCoffeeDuration {} and baristaAccuracy {}",
                 prepareCoffeeDuration,baristaAccuracy);
         return getContext().actorOf(FromConfig.getInstance().props(
-                Barista.props(prepareCoffeeDuration,baristaAccuracy)),
+                Barista.props(prepareCoffeeDuration,baristaAccuracy,baristaSlots,
+                        baristaMaxWaitingOrders > 0 ? baristaMaxWaitingOrders : Integer.MAX_VALUE)
+                        .withDispatcher(baristaDispatcher)),
                 "barista");
     }
 
+    /**
+     * Caffeine accounting is split across ledger children when coffee-house.ledger-shards is
+     * positive; otherwise the CoffeeHouse keeps the guest book itself. With
+     * coffee-house.ledger-persistence enabled there is at least one ledger, and the ledgers are
+     * event sourced. With coffee-house.cluster enabled the only ledger is the region of the
+     * sharded ledgers, which are kept in memory.
+     */
+    protected ActorRef[] createLedgers() {
+        if (clusterEnabled) {
+            if (ledgerPersistence) log().warning("Sharded caffeine ledgers are not persisted");
+            return new ActorRef[]{
+                    CoffeeHouseSharding.startLedgers(context().system(),barista,caffeineLimit,clusterShards)};
+        }
+        final int shards = ledgerPersistence ? Math.max(1,ledgerShards) : ledgerShards;
+        final ActorRef[] ledgers = new ActorRef[shards];
+        for (int i = 0; i < shards; i++) {
+            final Props props = ledgerPersistence
+                    ? PersistentCaffeineLedger.props("caffeine-ledger-" + i,barista,caffeineLimit,
+                            ledgerBatchSize,ledgerFlushInterval,ledgerSnapshotInterval)
+                    : CaffeineLedger.props(barista,caffeineLimit);
+            ledgers[i] = getContext().actorOf(props,"ledger-" + i);
+        }
+        return ledgers;
+    }
+
+    /**
+     * Creates the guest tables of the simulation engine, each bound to a waiter; their guests
+     * replace the guest actors. Not available in cluster mode.
+     */
+    private ActorRef[] createTables() {
+        if (guestRegion != null) {
+            if (simulationTables > 0) log().warning("Guests are not simulated in cluster mode");
+            return new ActorRef[0];
+        }
+        final ActorRef[] tables = new ActorRef[simulationTables];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = getContext().actorOf(GuestSimulation.props(nextWaiter(),coffeeFinishedDuration,caffeineLimit,
+                    simulationTick,simulationBatchSize).withDispatcher(guestDispatcher),"simulation-" + i);
+        }
+        return tables;
+    }
+
     public CoffeeHouse(int caffeineLimit) {
         this.caffeineLimit = caffeineLimit;
+        this.ledgers = createLedgers();
+        this.counters = sharedCounters && ledgers.length == 0 ? new CaffeineCounters(caffeineLimit) : null;
+        if (sharedCounters && counters == null) {
+            log().warning("Caffeine counters are only shared with the guest book kept by the coffee house");
+        }
+        this.waiters = createWaiters();
+        this.guestRegion = clusterEnabled
+                ? CoffeeHouseSharding.startGuests(context().system(),waiters,coffeeFinishedDuration,ledgers[0],
+                        clusterShards)
+                : null;
+        this.tables = createTables();
+        this.passivation = guestPassivation && ledgers.length == 0 && tables.length == 0 && counters == null;
+        if (guestPassivation && !passivation) {
+            log().warning("Guests are only passivated with the guest book kept by the coffee house");
+        }
         log().debug("CoffeeHouse Open");
     }
     public static Props props(int caffeineLimit) {
@@ -59,29 +257,57 @@ public class CoffeeHouse extends AbstractLoggingActor {
                () -> new CoffeeHouse(caffeineLimit));
     }
 
+    @Override
+    public void preStart() {
+        if (passivation) {
+            wakeTicks = context().system().scheduler().scheduleWithFixedDelay(guestWakeInterval,guestWakeInterval,
+                    self(),WakeIdleGuests.Instance,context().dispatcher(),self());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        if (wakeTicks != null) wakeTicks.cancel();
+    }
+
     @Override
     public Receive createReceive() {
         return ReceiveBuilder.create().
                 match(CreateGuest.class,
-                        createGuest -> {
-                               final ActorRef guest =
-                                       createGuest(createGuest.favoriteCoffee,createGuest.guestCaffeineLimit);
-                               addToGuestBook(guest);
-                               context().watch(guest);
+                        createGuest -> admitGuest(createGuest.favoriteCoffee,createGuest.guestCaffeineLimit)).
+                match(CreateGuests.class, this::createGuests).
+                match(AdmitGuest.class, admitGuest ->
+                    admit(context().actorOf(admitGuest.guestProps.apply(nextWaiter()).withDispatcher(guestDispatcher)))).
+                match(ApproveCoffee.class, approveCoffee -> isTable(approveCoffee.guest), approveCoffee -> {
+                    // The tables keep the caffeine counts of their guests
+                    approvals.increment();
+                    barista.forward(approveCoffee.approved(),context());
                 }).
+                match(ApproveCoffee.class, approveCoffee -> ledgers.length > 0, approveCoffee ->
+                    ledgerFor(approveCoffee.guest).forward(approveCoffee,context())).
                 match(ApproveCoffee.class, this::cofeeApproval, approveCoffee ->
-                    barista.forward(new Barista.PrepareCoffee
-                            (approveCoffee.coffee,approveCoffee.guest),context())).
-                match(ApproveCoffee.class, approveCoffee -> {
-                    log().info("Sorry {}, but you have reached your limit.",approveCoffee.guest);
-                    context().stop(approveCoffee.guest);
-                }).
+                    barista.forward(approveCoffee.approved(),context())).
+                match(ApproveCoffee.class, approveCoffee -> isGuest(approveCoffee.guest), approveCoffee ->
+                    rejectGuest(approveCoffee.guest)).
+                match(ApproveCoffee.class, approveCoffee ->
+                    log().warning("Unknown guest {} asked for coffee.",approveCoffee.guest)).
+                match(ApproveCoffees.class, this::approveCoffees).
+                match(Guest.Idle.class, idle -> passivate(sender(),idle)).
+                match(WakeIdleGuests.class, wake -> wakeIdleGuests()).
                 match(Terminated.class, terminated -> {
+                    guestCount--;
+                    activeGuests.decrement();
+                    residentGuests.decrement();
                     log().info("Thanks {}, for being our guest!",terminated.actor());
                     removeGuestFromGuestBook(terminated.actor());
                 }).
+                match(CaffeineLedger.LimitReached.class, limitReached -> rejectGuest(limitReached.guest)).
+                match(CaffeineLedger.RefundCoffee.class, this::refundCoffee).
+                match(GetStatus.class, getStatus -> guestRegion != null, getStatus -> clusterStatus()).
+                match(GetStatus.class, getStatus -> tables.length > 0, getStatus -> aggregateStatus(tables)).
+                match(GetStatus.class, getStatus -> ledgers.length > 0, getStatus -> aggregateStatus(ledgers)).
                 match(GetStatus.class, getStatus -> {
-                   sender().tell(new Status(getContext().children().size() - 2),self());
+                   sender().tell(new Status(guestCount),self());
                 }).
                 build();
     }
@@ -95,35 +321,244 @@ public class CoffeeHouse extends AbstractLoggingActor {
                                 e -> (SupervisorStrategy.Directive) SupervisorStrategy.stop())
                         .match(Waiter.FrustratedException.class,
                                 (Waiter.FrustratedException e) -> {
-                                barista.tell(new Barista.PrepareCoffee(e.coffee,e.guest),sender());
+                                waiterRestarts.increment();
+                                barista.tell(new Barista.PrepareCoffee(e.coffee,e.guest,e.trace),sender());
                                 return (SupervisorStrategy.Directive)SupervisorStrategy.restart(); }
                                 ).build().
                                             orElse(super.supervisorStrategy().decider()));
     }
 
     private boolean cofeeApproval(ApproveCoffee approveCoffee) {
-        final int guestCaffeineCount = guestBook.get(approveCoffee.guest);
-        if (guestCaffeineCount < caffeineLimit) {
-            guestBook.put(approveCoffee.guest,guestCaffeineCount+1);
+        final boolean approved = counters != null
+                ? counters.tryIncrement(approveCoffee.guest) == CaffeineCounters.Approval.APPROVED
+                : guestBook.tryIncrement(approveCoffee.guest,caffeineLimit);
+        if (approved) {
             log().info("Guest caffeine count incremented.",approveCoffee.guest);
+            approvals.increment();
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * Approves a batch in one pass over the guest book and hands the approved orders to the
+     * barista as one batch. With ledger shards each in-memory ledger approves its part of the
+     * batch; persistent and sharded ledgers are sent the orders one by one.
+     */
+    private void approveCoffees(ApproveCoffees approveCoffees) {
+        final List<Barista.PrepareCoffee> approved = new ArrayList<>(approveCoffees.orders.size());
+        final List<List<ApproveCoffee>> ledgerBatches = new ArrayList<>(ledgers.length);
+        for (int i = 0; i < ledgers.length; i++) ledgerBatches.add(new ArrayList<>());
+        for (ApproveCoffee approveCoffee : approveCoffees.orders) {
+            if (isTable(approveCoffee.guest)) {
+                approvals.increment();
+                approved.add(approveCoffee.approved());
+            } else if (ledgers.length > 0) {
+                ledgerBatches.get(ledgerIndex(approveCoffee.guest)).add(approveCoffee);
+            } else if (cofeeApproval(approveCoffee)) {
+                approved.add(approveCoffee.approved());
+            } else if (isGuest(approveCoffee.guest)) {
+                rejectGuest(approveCoffee.guest);
+            } else {
+                log().warning("Unknown guest {} asked for coffee.",approveCoffee.guest);
+            }
+        }
+        if (!approved.isEmpty()) barista.forward(Barista.PrepareCoffees.of(approved),context());
+        for (int i = 0; i < ledgers.length; i++) {
+            final List<ApproveCoffee> batch = ledgerBatches.get(i);
+            if (batch.isEmpty()) continue;
+            if (clusterEnabled || ledgerPersistence) {
+                for (ApproveCoffee approveCoffee : batch) ledgers[i].forward(approveCoffee,context());
+            } else {
+                ledgers[i].forward(ApproveCoffees.of(batch),context());
+            }
+        }
+    }
+
+    /** The tables take back the coffees of their guests themselves. */
+    private void refundCoffee(CaffeineLedger.RefundCoffee refundCoffee) {
+        if (isTable(refundCoffee.guest)) return;
+        if (ledgers.length > 0) {
+            ledgerFor(refundCoffee.guest).forward(refundCoffee,context());
+        } else if (counters != null) {
+            counters.tryDecrement(refundCoffee.guest);
+        } else {
+            guestBook.tryDecrement(refundCoffee.guest);
+        }
+    }
+
+    private boolean isGuest(ActorRef guest) {
+        return counters != null ? counters.contains(guest) : guestBook.contains(guest);
+    }
+
+    private void rejectGuest(ActorRef guest) {
+        log().info("Sorry {}, but you have reached your limit.",guest);
+        caffeineRejections.increment();
+        context().stop(guest);
+    }
+
+    private ActorRef ledgerFor(ActorRef guest) {
+        return ledgers[ledgerIndex(guest)];
+    }
+
+    private int ledgerIndex(ActorRef guest) {
+        return Math.floorMod(guest.hashCode(),ledgers.length);
+    }
+
+    private boolean isTable(ActorRef guest) {
+        for (ActorRef table : tables) {
+            if (table.equals(guest)) return true;
+        }
+        return false;
+    }
+
+    /** Sums the guest counts of the ledgers or tables. */
+    private void aggregateStatus(ActorRef[] shards) {
+        final List<CompletableFuture<Object>> shardStatuses = new ArrayList<>(shards.length);
+        for (ActorRef shard : shards) {
+            shardStatuses.add(Patterns.ask(shard,GetStatus.Instance,statusTimeout).toCompletableFuture());
+        }
+        final CompletableFuture<Status> status =
+                CompletableFuture.allOf(shardStatuses.toArray(new CompletableFuture<?>[0]))
+                        .thenApply(done -> new Status(shardStatuses.stream()
+                                .mapToInt(shardStatus -> ((Status) shardStatus.join()).guestCount)
+                                .sum()));
+        Patterns.pipe(status,context().dispatcher()).to(sender());
+    }
+
+    /** Counts the sharded guests of all nodes. */
+    private void clusterStatus() {
+        final CompletableFuture<Status> status = Patterns.ask(guestRegion,
+                new ShardRegion.GetClusterShardingStats(FiniteDuration.create(statusTimeout.toMillis(),MILLISECONDS)),
+                statusTimeout)
+                .thenApply(stats -> new Status(((ShardRegion.ClusterShardingStats) stats).getRegions().values().stream()
+                        .flatMap(region -> region.getStats().values().stream())
+                        .mapToInt(entities -> (Integer) entities)
+                        .sum()))
+                .toCompletableFuture();
+        Patterns.pipe(status,context().dispatcher()).to(sender());
+    }
+
+    private void admitGuest(Coffee favoriteCoffee, int guestCaffeineLimit) {
+        if (tables.length > 0) {
+            seatSimulatedGuests(1,favoriteCoffee,guestCaffeineLimit);
+        } else if (guestRegion != null) {
+            guestRegion.tell(new ShardedGuest.Arrive(nextGuestId(),favoriteCoffee,guestCaffeineLimit),self());
+        } else {
+            admit(createGuest(favoriteCoffee,guestCaffeineLimit));
+        }
+    }
+
+    /** Unique across the cluster, as this node's incarnation prefixes the arrivals counted here. */
+    private String nextGuestId() {
+        return Long.toHexString(Cluster.get(context().system()).selfUniqueAddress().longUid()) + "-" + ++arrivals;
+    }
+
+    private void admit(ActorRef guest) {
+        addToGuestBook(guest);
+        context().watch(guest);
+        guestCount++;
+        activeGuests.increment();
+        residentGuests.increment();
+    }
+
+    /** Keeps the guest that stopped to finish its coffee as a record, with its caffeine count. */
+    private void passivate(ActorRef guest, Guest.Idle idle) {
+        context().unwatch(guest);
+        residentGuests.decrement();
+        final int caffeineCount = guestBook.count(guest);
+        if (caffeineCount < 0) {
+            guestCount--;
+            activeGuests.decrement();
+            log().warning("Unknown guest {} went idle.",guest);
+            return;
+        }
+        guestBook.remove(guest);
+        idleGuests.add(idle.favoriteCoffee,idle.coffeeCount,idle.caffeineLimit,caffeineCount,
+                System.nanoTime() + coffeeFinishedDuration.toNanos());
+        idleGuestCount.increment();
+    }
+
+    /** Restores the guests whose coffee is finished, which then order again. */
+    private void wakeIdleGuests() {
+        final long now = System.nanoTime();
+        while (idleGuests.isDue(now)) {
+            final ActorRef guest = context().actorOf(Guest.restoredProps(nextWaiter(),idleGuests.favoriteCoffee(),
+                    coffeeFinishedDuration,idleGuests.caffeineLimit(),idleGuests.coffeeCount())
+                    .withDispatcher(guestDispatcher));
+            guestBook.add(guest,idleGuests.caffeineCount());
+            context().watch(guest);
+            residentGuests.increment();
+            idleGuestCount.decrement();
+            idleGuests.remove();
+            guest.tell(Guest.CoffeeFinished.Instance,self());
+        }
+    }
+
+    /**
+     * Creates one chunk of guests and re-enqueues the rest, so messages already waiting in
+     * the mailbox are handled between chunks instead of after the whole batch.
+     */
+    private void createGuests(CreateGuests createGuests) {
+        final int chunk = Math.min(guestCreationChunkSize, createGuests.remaining());
+        if (tables.length > 0) {
+            seatSimulatedGuests(chunk,createGuests.favoriteCoffee,createGuests.guestCaffeineLimit);
+        } else {
+            for (int i = 0; i < chunk; i++) {
+                admitGuest(createGuests.favoriteCoffee,createGuests.guestCaffeineLimit);
+            }
+        }
+        final CreateGuests rest = createGuests.advance(chunk);
+        log().info("Created {} of {} guests",rest.created,rest.count);
+        if (!sender().equals(context().system().deadLetters())) {
+            sender().tell(new GuestsCreated(rest.created,rest.count),self());
+        }
+        if (rest.remaining() > 0) {
+            self().tell(rest,sender());
+        }
+    }
+
+    /** Spreads the guests evenly over the tables, one message per table. */
+    private void seatSimulatedGuests(int count, Coffee favoriteCoffee, int guestCaffeineLimit) {
+        for (int i = 0; i < tables.length && i < count; i++) {
+            final int share = count / tables.length + (i < count % tables.length ? 1 : 0);
+            tables[nextTable].tell(new GuestSimulation.AddGuests(share,favoriteCoffee,guestCaffeineLimit),self());
+            nextTable = (nextTable + 1) % tables.length;
+        }
+    }
+
     private void addToGuestBook(ActorRef guest) {
-        guestBook.put(guest,0);
+        if (ledgers.length > 0) {
+            ledgerFor(guest).tell(new CaffeineLedger.AddGuest(guest),self());
+        } else if (counters != null) {
+            counters.add(guest);
+        } else {
+            guestBook.add(guest);
+        }
         log().debug("Guest {} add to book", guest);
     }
 
     private void removeGuestFromGuestBook(ActorRef guest) {
-        guestBook.remove(guest);
+        if (ledgers.length > 0) {
+            ledgerFor(guest).tell(new CaffeineLedger.RemoveGuest(guest),self());
+        } else if (counters != null) {
+            counters.remove(guest);
+        } else {
+            guestBook.remove(guest);
+        }
         log().debug("Removed guest {} from bookkeeper",guest);
     }
 
     protected ActorRef createGuest(Coffee coffee,int guestCaffeineLimit) {
-        return context().actorOf(Guest.props(waiter,coffee,coffeeFinishedDuration,guestCaffeineLimit));
+        final Props props = passivation
+                ? Guest.passivatingProps(nextWaiter(),coffee,coffeeFinishedDuration,guestCaffeineLimit)
+                : Guest.props(nextWaiter(),coffee,coffeeFinishedDuration,guestCaffeineLimit);
+        return context().actorOf(props.withDispatcher(guestDispatcher));
+    }
+
+    private static final class WakeIdleGuests {
+        static final WakeIdleGuests Instance = new WakeIdleGuests();
     }
 
     public static final class CreateGuest {
@@ -160,15 +595,133 @@ public class CoffeeHouse extends AbstractLoggingActor {
         }
     }
 
+    public static final class CreateGuests {
+        public final int count;
+        public final Coffee favoriteCoffee;
+        public final int guestCaffeineLimit;
+        public final int created;
+
+        public CreateGuests(int count, Coffee favoriteCoffee, int guestCaffeineLimit) {
+            this(count, favoriteCoffee, guestCaffeineLimit, 0);
+        }
+
+        private CreateGuests(int count, Coffee favoriteCoffee, int guestCaffeineLimit, int created) {
+            checkNotNull(favoriteCoffee,"Favorite coffee cannot be null");
+            checkArgument(count >= 0, "Count cannot be negative");
+            this.count = count;
+            this.favoriteCoffee = favoriteCoffee;
+            this.guestCaffeineLimit = guestCaffeineLimit;
+            this.created = created;
+        }
+
+        public int remaining() {
+            return count - created;
+        }
+
+        CreateGuests advance(int chunk) {
+            return new CreateGuests(count, favoriteCoffee, guestCaffeineLimit, created + chunk);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CreateGuests that = (CreateGuests) o;
+            return count == that.count &&
+                    guestCaffeineLimit == that.guestCaffeineLimit &&
+                    created == that.created &&
+                    Objects.equals(favoriteCoffee, that.favoriteCoffee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(count, favoriteCoffee, guestCaffeineLimit, created);
+        }
+
+        @Override
+        public String toString() {
+            return "CreateGuests{" +
+                    "count=" + count +
+                    ", favoriteCoffee=" + favoriteCoffee +
+                    ", guestCaffeineLimit=" + guestCaffeineLimit +
+                    ", created=" + created +
+                    '}';
+        }
+    }
+
+    /**
+     * Admits a guest behaving other than {@link Guest}, e.g. the guests of the {@link LoadGenerator}:
+     * the props are given the waiter the guest is bound to. Local only, as props are not serialized.
+     */
+    public static final class AdmitGuest {
+        public final Function<ActorRef, Props> guestProps;
+
+        public AdmitGuest(Function<ActorRef, Props> guestProps) {
+            checkNotNull(guestProps, "Guest props cannot be null");
+            this.guestProps = guestProps;
+        }
+
+        @Override
+        public String toString() {
+            return "AdmitGuest{" +
+                    "guestProps=" + guestProps +
+                    '}';
+        }
+    }
+
+    public static final class GuestsCreated {
+        public final int created;
+        public final int count;
+
+        public GuestsCreated(int created, int count) {
+            this.created = created;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            GuestsCreated that = (GuestsCreated) o;
+            return created == that.created &&
+                    count == that.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(created, count);
+        }
+
+        @Override
+        public String toString() {
+            return "GuestsCreated{" +
+                    "created=" + created +
+                    ", count=" + count +
+                    '}';
+        }
+    }
+
     public static final class ApproveCoffee {
         public final Coffee coffee;
         public final ActorRef guest;
+        /** Trace of a sampled order, {@code null} otherwise; not part of equality. */
+        public final OrderTrace trace;
 
         public ApproveCoffee(Coffee coffee, ActorRef guest) {
+            this(coffee, guest, null);
+        }
+
+        public ApproveCoffee(Coffee coffee, ActorRef guest, OrderTrace trace) {
             checkNotNull(coffee,"Coffee cannot be null");
             checkNotNull(guest, "Guest cannot be null");
             this.coffee = coffee;
             this.guest = guest;
+            this.trace = trace;
+        }
+
+        /** The order to prepare once approved. */
+        public Barista.PrepareCoffee approved() {
+            return new Barista.PrepareCoffee(coffee, guest, OrderTrace.at(trace, OrderTrace.Hop.APPROVED));
         }
 
         @Override
@@ -197,6 +750,41 @@ public class CoffeeHouse extends AbstractLoggingActor {
 
 
 
+    /** Orders of any guests approved together, see {@link Waiter}; each guest is named by its order. */
+    public static final class ApproveCoffees {
+        public final List<ApproveCoffee> orders;
+
+        public ApproveCoffees(List<ApproveCoffee> orders) {
+            checkNotNull(orders, "Orders cannot be null");
+            this.orders = ImmutableList.copyOf(orders);
+        }
+
+        /** A single order is sent as a plain {@link ApproveCoffee}. */
+        static Object of(List<ApproveCoffee> orders) {
+            return orders.size() == 1 ? orders.get(0) : new ApproveCoffees(orders);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ApproveCoffees that = (ApproveCoffees) o;
+            return Objects.equals(orders, that.orders);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orders);
+        }
+
+        @Override
+        public String toString() {
+            return "ApproveCoffees{" +
+                    "orders=" + orders +
+                    '}';
+        }
+    }
+
     public static final class GetStatus {
         public static final GetStatus Instance = new GetStatus();
     }
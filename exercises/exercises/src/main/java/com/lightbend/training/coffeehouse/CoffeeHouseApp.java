@@ -6,46 +6,63 @@ package com.lightbend.training.coffeehouse;
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.japi.function.Creator;
 import akka.japi.pf.ReceiveBuilder;
-import akka.util.Timeout;
+import akka.stream.Materializer;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import com.typesafe.config.Config;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.HTTPServer;
 import scala.concurrent.Await;
 import scala.concurrent.duration.Duration;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static akka.pattern.PatternsCS.ask;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class CoffeeHouseApp implements Terminal{
 
     public static final Pattern optPattern = Pattern.compile("(\\S+)=(\\S+)");
 
+    /** Initial size of the buffer commands are read into, grown for longer lines. */
+    private static final int COMMAND_BUFFER_SIZE = 64 * 1024;
+
     private final ActorSystem system;
 
     private final LoggingAdapter log;
 
-    private final Timeout statusTimeout;
-
     @SuppressWarnings("unused")
     private final ActorRef coffeeHouse;
 
-    public CoffeeHouseApp(final ActorSystem system,Timeout statusTimeout){
+    private final Materializer materializer;
+
+    private final SourceQueueWithComplete<CoffeeHouse.CreateGuests> ingress;
+
+    public CoffeeHouseApp(final ActorSystem system){
         this.system = system;
-        this.statusTimeout = statusTimeout;
         log = Logging.getLogger(system, getClass().getName());
         coffeeHouse = createCoffeeHouse();
+        materializer = Materializer.matFromSystem(system);
+        ingress = createIngress();
+        startMetricsServer();
     }
 
     private Props printerProps(ActorRef coffeeHouse) {
@@ -74,12 +91,18 @@ public class CoffeeHouseApp implements Terminal{
         final String name = opts.getOrDefault("name", "coffee-house");
 
         final ActorSystem system = ActorSystem.create(String.format("%s-system", name));
-        final Timeout statusTimeout = new Timeout(Duration.create(
-                system.settings().config().getDuration("coffee-house.status-timeout",MILLISECONDS),MILLISECONDS));
+        final CoffeeHouseApp coffeeHouseApp = new CoffeeHouseApp(system);
 
-        final CoffeeHouseApp coffeeHouseApp = new CoffeeHouseApp(system,statusTimeout);
-
-        coffeeHouseApp.run();
+        if (opts.containsKey("arrivals")) {
+            coffeeHouseApp.startArrivals(opts.get("arrivals"));
+        }
+        if (opts.containsKey("replay")) {
+            coffeeHouseApp.replay(Paths.get(opts.get("replay")));
+        } else if (opts.containsKey("loadgen")) {
+            coffeeHouseApp.loadgen(Double.parseDouble(opts.get("loadgen")));
+        } else {
+            coffeeHouseApp.run();
+        }
     }
 
     public static Map<String, String> argsToOpts(final List<String> args){
@@ -106,53 +129,151 @@ public class CoffeeHouseApp implements Terminal{
         Await.ready(system.whenTerminated(), Duration.Inf());
     }
 
+    private void replay(Path file) throws IOException, InterruptedException, TimeoutException {
+        final Config config = system.settings().config();
+        final CommandReplay replay = new CommandReplay(system, coffeeHouse,
+                config.getDouble("coffee-house.replay.rate"),
+                config.getInt("coffee-house.replay.max-in-flight"),
+                (int) Math.min(Integer.MAX_VALUE, config.getBytes("coffee-house.replay.window-size")),
+                config.getDuration("coffee-house.replay.admission-timeout"),
+                this::getStatus);
+        log.warning("{} replaying {}", getClass().getSimpleName(), file);
+        final CommandReplay.Throughput throughput = replay.replay(file);
+        log.warning("Replayed {}", throughput);
+        system.terminate();
+        Await.ready(system.whenTerminated(), Duration.Inf());
+    }
+
+    private void loadgen(double rate) throws Exception {
+        final Config config = system.settings().config().getConfig("coffee-house.loadgen");
+        final CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+        system.actorOf(LoadGenerator.props(coffeeHouse, Coffee.order(config.getString("coffee")), rate,
+                config.getDuration("duration"), config.getDuration("warmup"), config.getInt("guests"),
+                system.settings().config().getInt("coffee-house.caffeine-limit"), config.getDuration("tick"),
+                config.getDuration("drain-timeout"), report), "load-generator");
+        log.warning("{} ordering {} coffees per second", getClass().getSimpleName(), rate);
+        try {
+            final LoadGenerator.Report result = report.get();
+            final Path histogramFile = Paths.get(config.getString("histogram-file"));
+            result.writeTo(histogramFile);
+            System.out.print(result.percentiles());
+            log.warning("Generated {}, latency distribution written to {}", result, histogramFile);
+        } finally {
+            system.terminate();
+            Await.ready(system.whenTerminated(), Duration.Inf());
+        }
+    }
+
     protected ActorRef createCoffeeHouse(){
         final int caffeineLimit =
                 system.settings().config().getInt("coffee-house.caffeine-limit");
-        return system.actorOf(CoffeeHouse.props(caffeineLimit),"coffee-house");
+        final String dispatcher =
+                system.settings().config().getString("coffee-house.dispatcher");
+        return system.actorOf(CoffeeHouse.props(caffeineLimit).withDispatcher(dispatcher),"coffee-house");
     }
 
     private void commandLoop() throws IOException{
-        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        final ReadableByteChannel in = Channels.newChannel(System.in);
+        ByteBuffer buffer = ByteBuffer.allocate(COMMAND_BUFFER_SIZE);
         while (true) {
-            String line = in.readLine();
-            if (line == null) {
+            final boolean endOfInput = in.read(buffer) < 0;
+            buffer.flip();
+            if (!TerminalParser.parseLines(buffer, endOfInput, this::execute) || endOfInput) {
                 system.terminate();
                 break;
+            }
+            if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                // A line longer than the buffer
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
             } else {
-                TerminalCommand tc = Terminal.create(line);
-                if (tc instanceof TerminalCommand.Guest) {
-                    TerminalCommand.Guest tcg = (TerminalCommand.Guest) tc;
-                    createGuest(tcg.count, tcg.coffee, tcg.maxCoffeeCount);
-                } else if (tc == TerminalCommand.Status.Instance) {
-                    getStatus();
-                } else if (tc == TerminalCommand.Quit.Instance) {
-                    system.terminate();
-                    break;
-                } else {
-                    TerminalCommand.Unknown u = (TerminalCommand.Unknown) tc;
-                    log.warning("Unknown terminal command {}!", u.command);
-                }
+                buffer.compact();
             }
         }
     }
 
-    protected void createGuest(int count, Coffee coffee, int maxCoffeeCount){
-        for (int i = 0 ; i<count ;++i) {
-            coffeeHouse.tell(new CoffeeHouse.CreateGuest(coffee,maxCoffeeCount),ActorRef.noSender());
+    /** Executes the command and tells whether to read further commands. */
+    private boolean execute(TerminalCommand tc){
+        if (tc instanceof TerminalCommand.Guest) {
+            TerminalCommand.Guest tcg = (TerminalCommand.Guest) tc;
+            createGuest(tcg.count, tcg.coffee, tcg.maxCoffeeCount);
+        } else if (tc == TerminalCommand.Status.Instance) {
+            getStatus();
+        } else if (tc == TerminalCommand.Quit.Instance) {
+            return false;
+        } else {
+            TerminalCommand.Unknown u = (TerminalCommand.Unknown) tc;
+            log.warning("Unknown terminal command {}!", u.command);
         }
+        return true;
     }
 
-    protected void getStatus(){
-        ask(coffeeHouse,CoffeeHouse.GetStatus.Instance,statusTimeout).
-                    thenApply(CoffeeHouse.Status.class::cast).
-                    whenComplete( (( status, failure) -> {
-                        if (failure == null) {
-                            log.info("Status: guest count = {}",status.guestCount);
-                        } else {
-                            log.error("Can't get status");
-                        }
-                    }));
+    /**
+     * Serves the Prometheus default registry, and so the {@link CoffeeHouseMetrics}, when run
+     * without the Cinnamon agent, whose exporter serves it on port 9001 otherwise.
+     */
+    private void startMetricsServer(){
+        final int port = system.settings().config().getInt("coffee-house.metrics.http-port");
+        if (port <= 0) return;
+        try {
+            final HTTPServer server = new HTTPServer(new InetSocketAddress(port), CollectorRegistry.defaultRegistry, true);
+            system.registerOnTermination(server::stop);
+            log.info("Serving metrics on port {}", port);
+        } catch (IOException e) {
+            log.error(e, "Can't serve metrics on port {}", port);
+        }
+    }
+
+    private SourceQueueWithComplete<CoffeeHouse.CreateGuests> createIngress(){
+        final Config config = system.settings().config();
+        return GuestIngress.start(
+                GuestIngress.admissions(coffeeHouse,
+                        config.getInt("coffee-house.ingress.max-in-flight"),
+                        config.getInt("coffee-house.guest.creation-chunk-size"),
+                        config.getDuration("coffee-house.ingress.admission-timeout"),
+                        log),
+                config.getInt("coffee-house.ingress.buffer-size"),
+                materializer);
+    }
 
+    /** Generates guests arriving in the given shape: constant, poisson or burst. */
+    protected Cancellable startArrivals(String shape){
+        final Config config = system.settings().config().getConfig("coffee-house.ingress.arrivals");
+        final double rate = config.getDouble("rate");
+        final Creator<ArrivalShape> arrivalShape;
+        switch (shape) {
+            case "constant":
+                arrivalShape = () -> ArrivalShape.constant(rate);
+                break;
+            case "poisson":
+                arrivalShape = () -> ArrivalShape.poisson(rate, new Random());
+                break;
+            case "burst":
+                final int burstSize = config.getInt("burst-size");
+                arrivalShape = () -> ArrivalShape.burst(rate, burstSize);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown arrival shape \"%s\"!", shape));
+        }
+        log.info("Guests arriving {} at {} per second", shape, rate);
+        return GuestIngress.feed(
+                GuestIngress.arrivals(arrivalShape, config.getDuration("tick"),
+                        Coffee.order(config.getString("favorite-coffee")), config.getInt("guest-caffeine-limit")),
+                ingress, materializer);
+    }
+
+    /** Admits the guests through the ingress, waiting while its buffer is full. */
+    protected void createGuest(int count, Coffee coffee, int maxCoffeeCount){
+        ingress.offer(new CoffeeHouse.CreateGuests(count,coffee,maxCoffeeCount)).toCompletableFuture().join();
+    }
+
+    /**
+     * Logs the cached {@link CoffeeHouseStatus} snapshot instead of asking the coffee house, so the
+     * status neither waits behind the orders in its mailbox nor adds to them.
+     */
+    protected void getStatus(){
+        final CoffeeHouseStatus.Snapshot status = CoffeeHouseStatus.get(system).snapshot();
+        log.info("Status: guest count = {}, coffees served = {} {}, caffeine rejections = {}",
+                status.guestCount,status.coffeesServed,status.coffeesServedByCoffee,status.caffeineRejections);
+        log.debug("Metrics: {}",CoffeeHouseMetrics.get(system).snapshot());
     }
 }
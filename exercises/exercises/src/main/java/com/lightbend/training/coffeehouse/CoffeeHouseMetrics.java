@@ -0,0 +1,214 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionId;
+import akka.actor.ExtensionIdProvider;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Coffee house counters, gauges and histograms shared by all actors of an actor system.
+ *
+ * Actors look their metrics up once when they are created and then only update the returned
+ * {@link LongAdder}s and {@link Histogram}s, which neither lock nor allocate. The metrics of all
+ * actor systems are exported to the Prometheus default registry, labelled by system, and so served
+ * by the exporter of {@code telemetry.conf}; a metric {@code waiter.orders} becomes
+ * {@code coffee_house_waiter_orders_total}.
+ */
+public final class CoffeeHouseMetrics implements Extension {
+
+    /** Bucket bounds in seconds for latencies from sub-millisecond approvals to slow preparations. */
+    public static final double[] LATENCY_BOUNDS = {0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30};
+
+    private final String system;
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongAdder> gauges = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public CoffeeHouseMetrics(String system) {
+        this.system = system;
+    }
+
+    public static CoffeeHouseMetrics get(ActorSystem system) {
+        return Id.INSTANCE.get(system);
+    }
+
+    /** Returns the counter with the given name, creating it on first use; counters only increase. */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Returns the gauge with the given name, creating it on first use. Gauges track a current
+     * level, e.g. a queue depth, and are incremented and decremented.
+     */
+    public LongAdder gauge(String name) {
+        return gauges.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /** Returns the histogram of seconds with the given name, creating it with the latency bounds on first use. */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram(LATENCY_BOUNDS));
+    }
+
+    public SortedMap<String, Long> snapshot() {
+        final SortedMap<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.sum()));
+        histograms.forEach((name, histogram) -> snapshot.put(name + ".count", histogram.count()));
+        return snapshot;
+    }
+
+    /**
+     * Counts of values in buckets of fixed upper bounds, one {@link LongAdder} per bucket, so
+     * concurrent recording neither locks nor allocates.
+     */
+    public static final class Histogram {
+
+        private final double[] bounds;
+
+        // One more bucket than bounds, for the values above the last bound
+        private final LongAdder[] buckets;
+
+        private final DoubleAdder sum = new DoubleAdder();
+
+        public Histogram(double[] bounds) {
+            checkArgument(bounds.length > 0, "Bounds cannot be empty");
+            for (int i = 1; i < bounds.length; i++) {
+                checkArgument(bounds[i - 1] < bounds[i], "Bounds must be increasing");
+            }
+            this.bounds = bounds.clone();
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        public void record(double value) {
+            final int index = Arrays.binarySearch(bounds, value);
+            buckets[index >= 0 ? index : -index - 1].increment();
+            sum.add(value);
+        }
+
+        public void recordNanos(long nanos) {
+            record(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) count += bucket.sum();
+            return count;
+        }
+
+        public double sum() {
+            return sum.sum();
+        }
+
+        /** Values up to each bound, and all values last. */
+        public long[] cumulativeCounts() {
+            final long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                count += buckets[i].sum();
+                counts[i] = count;
+            }
+            return counts;
+        }
+    }
+
+    /** Collects the metrics of the actor systems alive for the Prometheus default registry. */
+    static final class Exporter extends Collector {
+
+        static final Exporter INSTANCE = new Exporter().register();
+
+        private final Set<CoffeeHouseMetrics> systems = ConcurrentHashMap.newKeySet();
+
+        private static final List<String> LABELS = Collections.singletonList("system");
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            final Map<String, MetricFamilySamples> families = new LinkedHashMap<>();
+            for (CoffeeHouseMetrics metrics : systems) {
+                final List<String> labelValues = Collections.singletonList(metrics.system);
+                metrics.counters.forEach((name, counter) -> ((CounterMetricFamily) families.computeIfAbsent(
+                        metricName(name) + "_total",
+                        n -> new CounterMetricFamily(n, "Coffee house counter " + name, LABELS)))
+                        .addMetric(labelValues, counter.sum()));
+                metrics.gauges.forEach((name, gauge) -> ((GaugeMetricFamily) families.computeIfAbsent(
+                        metricName(name),
+                        n -> new GaugeMetricFamily(n, "Coffee house gauge " + name, LABELS)))
+                        .addMetric(labelValues, gauge.sum()));
+                metrics.histograms.forEach((name, histogram) -> families.computeIfAbsent(
+                        metricName(name) + "_seconds",
+                        n -> new MetricFamilySamples(n, Type.HISTOGRAM, "Coffee house histogram " + name,
+                                new ArrayList<>()))
+                        .samples.addAll(samples(metricName(name) + "_seconds", metrics.system, histogram)));
+            }
+            return new ArrayList<>(families.values());
+        }
+
+        private static List<MetricFamilySamples.Sample> samples(String name, String system, Histogram histogram) {
+            final List<MetricFamilySamples.Sample> samples = new ArrayList<>(histogram.buckets.length + 2);
+            final List<String> bucketLabels = Arrays.asList("system", "le");
+            final long[] counts = histogram.cumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                final String bound = i < histogram.bounds.length ? doubleToGoString(histogram.bounds[i]) : "+Inf";
+                samples.add(new MetricFamilySamples.Sample(name + "_bucket", bucketLabels,
+                        Arrays.asList(system, bound), counts[i]));
+            }
+            samples.add(new MetricFamilySamples.Sample(name + "_count", LABELS, Collections.singletonList(system),
+                    counts[counts.length - 1]));
+            samples.add(new MetricFamilySamples.Sample(name + "_sum", LABELS, Collections.singletonList(system),
+                    histogram.sum()));
+            return samples;
+        }
+
+        static String metricName(String name) {
+            final String metricName = name.replace('.', '_').replace('-', '_');
+            return metricName.startsWith("coffee_house_") ? metricName : "coffee_house_" + metricName;
+        }
+    }
+
+    public static final class Id extends AbstractExtensionId<CoffeeHouseMetrics> implements ExtensionIdProvider {
+
+        public static final Id INSTANCE = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public CoffeeHouseMetrics createExtension(ExtendedActorSystem system) {
+            final CoffeeHouseMetrics metrics = new CoffeeHouseMetrics(system.name());
+            Exporter.INSTANCE.systems.add(metrics);
+            system.registerOnTermination(() -> Exporter.INSTANCE.systems.remove(metrics));
+            return metrics;
+        }
+
+        @Override
+        public ExtensionId<CoffeeHouseMetrics> lookup() {
+            return INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.JSerializer;
+import akka.serialization.Serialization;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary format of the coffee house protocol: the messages exchanged by guests, waiters, baristas,
+ * the coffee house and its caffeine ledgers, the arrivals of sharded guests, the coffees and the
+ * terminal commands.
+ *
+ * Every message starts with a one-byte tag, so no class manifest is sent. Coffees are written as
+ * their {@link Coffee#ordinal()}, one byte for the first 128 drinks, counts as unsigned varints and
+ * actor refs as varint-length UTF-8 actor paths. Batches are a varint count followed by their orders. Actor paths are interned in both directions, so
+ * a guest seen before is neither formatted nor resolved again;
+ * {@code coffee-house.serialization.interned-paths} bounds both tables.
+ */
+public final class CoffeeHouseSerializer extends JSerializer {
+
+    private static final byte COFFEE = 0;
+    private static final byte SERVE_COFFEE = 1;
+    private static final byte COFFEE_SERVED = 2;
+    private static final byte COMPLAINT = 3;
+    private static final byte COFFEE_UNAVAILABLE = 4;
+    private static final byte PREPARE_COFFEE = 5;
+    private static final byte COFFEE_PREPARED = 6;
+    private static final byte BARISTA_OVERLOADED = 7;
+    private static final byte CREATE_GUEST = 8;
+    private static final byte CREATE_GUESTS = 9;
+    private static final byte GUESTS_CREATED = 10;
+    private static final byte APPROVE_COFFEE = 11;
+    private static final byte GET_STATUS = 12;
+    private static final byte STATUS = 13;
+    private static final byte ADD_GUEST = 14;
+    private static final byte REMOVE_GUEST = 15;
+    private static final byte LIMIT_REACHED = 16;
+    private static final byte COFFEE_FINISHED = 17;
+    private static final byte TERMINAL_GUEST = 18;
+    private static final byte TERMINAL_STATUS = 19;
+    private static final byte TERMINAL_QUIT = 20;
+    private static final byte TERMINAL_UNKNOWN = 21;
+    private static final byte ARRIVE = 22;
+    private static final byte SERVE_COFFEES = 23;
+    private static final byte APPROVE_COFFEES = 24;
+    private static final byte PREPARE_COFFEES = 25;
+    private static final byte REFUND_COFFEE = 26;
+    private static final byte MOVE_GUEST = 27;
+    private static final byte GUEST_MOVED = 28;
+    private static final byte ARRIVE_MOVED = 29;
+
+    private final ExtendedActorSystem system;
+
+    private final Cache<ActorRef, byte[]> paths;
+
+    private final Cache<String, ActorRef> refs;
+
+    public CoffeeHouseSerializer(ExtendedActorSystem system) {
+        this.system = system;
+        final long internedPaths = system.settings().config().getLong("coffee-house.serialization.interned-paths");
+        this.paths = CacheBuilder.newBuilder().maximumSize(internedPaths).build();
+        this.refs = CacheBuilder.newBuilder().maximumSize(internedPaths).build();
+    }
+
+    @Override
+    public int identifier() {
+        return 70_012;
+    }
+
+    @Override
+    public boolean includeManifest() {
+        return false;
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        final Writer out = new Writer();
+        if (o instanceof Coffee) {
+            out.writeByte(COFFEE);
+            out.writeCoffee((Coffee) o);
+        } else if (o instanceof Waiter.ServeCoffee) {
+            out.writeByte(SERVE_COFFEE);
+            out.writeCoffee(((Waiter.ServeCoffee) o).coffee);
+        } else if (o instanceof Waiter.ServeCoffees) {
+            final List<Waiter.ServeCoffee> orders = ((Waiter.ServeCoffees) o).orders;
+            out.writeByte(SERVE_COFFEES);
+            out.writeVarint(orders.size());
+            for (Waiter.ServeCoffee serveCoffee : orders) out.writeCoffee(serveCoffee.coffee);
+        } else if (o instanceof Waiter.CoffeeServed) {
+            out.writeByte(COFFEE_SERVED);
+            out.writeCoffee(((Waiter.CoffeeServed) o).coffee);
+        } else if (o instanceof Waiter.Complaint) {
+            out.writeByte(COMPLAINT);
+            out.writeCoffee(((Waiter.Complaint) o).coffee);
+        } else if (o instanceof Waiter.CoffeeUnavailable) {
+            out.writeByte(COFFEE_UNAVAILABLE);
+            out.writeCoffee(((Waiter.CoffeeUnavailable) o).coffee);
+        } else if (o instanceof Barista.PrepareCoffee) {
+            out.writeByte(PREPARE_COFFEE);
+            writePrepareCoffee(out, (Barista.PrepareCoffee) o);
+        } else if (o instanceof Barista.PrepareCoffees) {
+            final List<Barista.PrepareCoffee> orders = ((Barista.PrepareCoffees) o).orders;
+            out.writeByte(PREPARE_COFFEES);
+            out.writeVarint(orders.size());
+            for (Barista.PrepareCoffee prepareCoffee : orders) writePrepareCoffee(out, prepareCoffee);
+        } else if (o instanceof Barista.CoffeePrepared) {
+            final Barista.CoffeePrepared coffeePrepared = (Barista.CoffeePrepared) o;
+            out.writeByte(COFFEE_PREPARED);
+            out.writeCoffee(coffeePrepared.coffee);
+            out.writeBytes(path(coffeePrepared.guest));
+        } else if (o instanceof Barista.BaristaOverloaded) {
+            out.writeByte(BARISTA_OVERLOADED);
+            writePrepareCoffee(out, ((Barista.BaristaOverloaded) o).prepareCoffee);
+        } else if (o instanceof CoffeeHouse.CreateGuest) {
+            final CoffeeHouse.CreateGuest createGuest = (CoffeeHouse.CreateGuest) o;
+            out.writeByte(CREATE_GUEST);
+            out.writeCoffee(createGuest.favoriteCoffee);
+            out.writeVarint(createGuest.guestCaffeineLimit);
+        } else if (o instanceof CoffeeHouse.CreateGuests) {
+            final CoffeeHouse.CreateGuests createGuests = (CoffeeHouse.CreateGuests) o;
+            out.writeByte(CREATE_GUESTS);
+            out.writeVarint(createGuests.count);
+            out.writeCoffee(createGuests.favoriteCoffee);
+            out.writeVarint(createGuests.guestCaffeineLimit);
+            out.writeVarint(createGuests.created);
+        } else if (o instanceof CoffeeHouse.GuestsCreated) {
+            final CoffeeHouse.GuestsCreated guestsCreated = (CoffeeHouse.GuestsCreated) o;
+            out.writeByte(GUESTS_CREATED);
+            out.writeVarint(guestsCreated.created);
+            out.writeVarint(guestsCreated.count);
+        } else if (o instanceof CoffeeHouse.ApproveCoffee) {
+            final CoffeeHouse.ApproveCoffee approveCoffee = (CoffeeHouse.ApproveCoffee) o;
+            out.writeByte(APPROVE_COFFEE);
+            out.writeCoffee(approveCoffee.coffee);
+            out.writeBytes(path(approveCoffee.guest));
+        } else if (o instanceof CoffeeHouse.ApproveCoffees) {
+            final List<CoffeeHouse.ApproveCoffee> orders = ((CoffeeHouse.ApproveCoffees) o).orders;
+            out.writeByte(APPROVE_COFFEES);
+            out.writeVarint(orders.size());
+            for (CoffeeHouse.ApproveCoffee approveCoffee : orders) {
+                out.writeCoffee(approveCoffee.coffee);
+                out.writeBytes(path(approveCoffee.guest));
+            }
+        } else if (o instanceof CoffeeHouse.GetStatus) {
+            out.writeByte(GET_STATUS);
+        } else if (o instanceof CoffeeHouse.Status) {
+            out.writeByte(STATUS);
+            out.writeVarint(((CoffeeHouse.Status) o).guestCount);
+        } else if (o instanceof CaffeineLedger.AddGuest) {
+            out.writeByte(ADD_GUEST);
+            out.writeBytes(path(((CaffeineLedger.AddGuest) o).guest));
+        } else if (o instanceof CaffeineLedger.RemoveGuest) {
+            out.writeByte(REMOVE_GUEST);
+            out.writeBytes(path(((CaffeineLedger.RemoveGuest) o).guest));
+        } else if (o instanceof CaffeineLedger.RefundCoffee) {
+            out.writeByte(REFUND_COFFEE);
+            out.writeBytes(path(((CaffeineLedger.RefundCoffee) o).guest));
+        } else if (o instanceof CaffeineLedger.MoveGuest) {
+            out.writeByte(MOVE_GUEST);
+            out.writeBytes(path(((CaffeineLedger.MoveGuest) o).previous));
+            out.writeBytes(path(((CaffeineLedger.MoveGuest) o).guest));
+        } else if (o instanceof CaffeineLedger.GuestMoved) {
+            out.writeByte(GUEST_MOVED);
+            out.writeBytes(path(((CaffeineLedger.GuestMoved) o).guest));
+        } else if (o instanceof CaffeineLedger.LimitReached) {
+            out.writeByte(LIMIT_REACHED);
+            out.writeBytes(path(((CaffeineLedger.LimitReached) o).guest));
+        } else if (o instanceof Guest.CoffeeFinished) {
+            out.writeByte(COFFEE_FINISHED);
+        } else if (o instanceof ShardedGuest.Arrive) {
+            final ShardedGuest.Arrive arrive = (ShardedGuest.Arrive) o;
+            out.writeByte(arrive.previous == null ? ARRIVE : ARRIVE_MOVED);
+            out.writeCoffee(arrive.favoriteCoffee);
+            out.writeVarint(arrive.guestCaffeineLimit);
+            if (arrive.previous != null) {
+                out.writeVarint(arrive.coffeeCount);
+                out.writeBytes(path(arrive.previous));
+            }
+            out.writeBytes(arrive.guestId.getBytes(StandardCharsets.UTF_8));
+        } else if (o instanceof TerminalCommand.Guest) {
+            final TerminalCommand.Guest guest = (TerminalCommand.Guest) o;
+            out.writeByte(TERMINAL_GUEST);
+            out.writeVarint(guest.count);
+            out.writeCoffee(guest.coffee);
+            out.writeVarint(guest.maxCoffeeCount);
+        } else if (o instanceof TerminalCommand.Status) {
+            out.writeByte(TERMINAL_STATUS);
+        } else if (o instanceof TerminalCommand.Quit) {
+            out.writeByte(TERMINAL_QUIT);
+        } else if (o instanceof TerminalCommand.Unknown) {
+            out.writeByte(TERMINAL_UNKNOWN);
+            out.writeBytes(((TerminalCommand.Unknown) o).command.getBytes(StandardCharsets.UTF_8));
+        } else {
+            throw new IllegalArgumentException("Cannot serialize " + o.getClass());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object fromBinaryJava(byte[] bytes, Class<?> manifest) {
+        final Reader in = new Reader(bytes);
+        final byte tag = in.readByte();
+        switch (tag) {
+            case COFFEE:
+                return in.readCoffee();
+            case SERVE_COFFEE:
+                return new Waiter.ServeCoffee(in.readCoffee());
+            case COFFEE_SERVED:
+                return new Waiter.CoffeeServed(in.readCoffee());
+            case COMPLAINT:
+                return new Waiter.Complaint(in.readCoffee());
+            case COFFEE_UNAVAILABLE:
+                return new Waiter.CoffeeUnavailable(in.readCoffee());
+            case PREPARE_COFFEE:
+                return readPrepareCoffee(in);
+            case COFFEE_PREPARED:
+                return new Barista.CoffeePrepared(in.readCoffee(), ref(in.readString()));
+            case BARISTA_OVERLOADED:
+                return new Barista.BaristaOverloaded(readPrepareCoffee(in));
+            case CREATE_GUEST:
+                return new CoffeeHouse.CreateGuest(in.readCoffee(), in.readVarint());
+            case CREATE_GUESTS:
+                final int count = in.readVarint();
+                final Coffee favoriteCoffee = in.readCoffee();
+                final int guestCaffeineLimit = in.readVarint();
+                return new CoffeeHouse.CreateGuests(count, favoriteCoffee, guestCaffeineLimit).advance(in.readVarint());
+            case GUESTS_CREATED:
+                return new CoffeeHouse.GuestsCreated(in.readVarint(), in.readVarint());
+            case APPROVE_COFFEE:
+                return new CoffeeHouse.ApproveCoffee(in.readCoffee(), ref(in.readString()));
+            case GET_STATUS:
+                return CoffeeHouse.GetStatus.Instance;
+            case STATUS:
+                return new CoffeeHouse.Status(in.readVarint());
+            case ADD_GUEST:
+                return new CaffeineLedger.AddGuest(ref(in.readString()));
+            case REMOVE_GUEST:
+                return new CaffeineLedger.RemoveGuest(ref(in.readString()));
+            case LIMIT_REACHED:
+                return new CaffeineLedger.LimitReached(ref(in.readString()));
+            case REFUND_COFFEE:
+                return new CaffeineLedger.RefundCoffee(ref(in.readString()));
+            case MOVE_GUEST:
+                return new CaffeineLedger.MoveGuest(ref(in.readString()), ref(in.readString()));
+            case GUEST_MOVED:
+                return new CaffeineLedger.GuestMoved(ref(in.readString()));
+            case COFFEE_FINISHED:
+                return Guest.CoffeeFinished.Instance;
+            case ARRIVE: {
+                final Coffee coffee = in.readCoffee();
+                final int limit = in.readVarint();
+                return new ShardedGuest.Arrive(in.readString(), coffee, limit);
+            }
+            case ARRIVE_MOVED: {
+                final Coffee coffee = in.readCoffee();
+                final int limit = in.readVarint();
+                final int coffeeCount = in.readVarint();
+                final ActorRef previous = ref(in.readString());
+                return new ShardedGuest.Arrive(in.readString(), coffee, limit, coffeeCount, previous);
+            }
+            case SERVE_COFFEES: {
+                final int size = in.readVarint();
+                final List<Waiter.ServeCoffee> orders = new ArrayList<>(Math.min(size, bytes.length));
+                for (int i = 0; i < size; i++) orders.add(new Waiter.ServeCoffee(in.readCoffee()));
+                return new Waiter.ServeCoffees(orders);
+            }
+            case APPROVE_COFFEES: {
+                final int size = in.readVarint();
+                final List<CoffeeHouse.ApproveCoffee> orders = new ArrayList<>(Math.min(size, bytes.length));
+                for (int i = 0; i < size; i++) {
+                    orders.add(new CoffeeHouse.ApproveCoffee(in.readCoffee(), ref(in.readString())));
+                }
+                return new CoffeeHouse.ApproveCoffees(orders);
+            }
+            case PREPARE_COFFEES: {
+                final int size = in.readVarint();
+                final List<Barista.PrepareCoffee> orders = new ArrayList<>(Math.min(size, bytes.length));
+                for (int i = 0; i < size; i++) orders.add(readPrepareCoffee(in));
+                return new Barista.PrepareCoffees(orders);
+            }
+            case TERMINAL_GUEST:
+                return new TerminalCommand.Guest(in.readVarint(), in.readCoffee(), in.readVarint());
+            case TERMINAL_STATUS:
+                return TerminalCommand.Status.Instance;
+            case TERMINAL_QUIT:
+                return TerminalCommand.Quit.Instance;
+            case TERMINAL_UNKNOWN:
+                return new TerminalCommand.Unknown(in.readString());
+            default:
+                throw new IllegalArgumentException("Unknown message tag " + tag);
+        }
+    }
+
+    private void writePrepareCoffee(Writer out, Barista.PrepareCoffee prepareCoffee) {
+        out.writeCoffee(prepareCoffee.coffee);
+        out.writeBytes(path(prepareCoffee.guest));
+    }
+
+    private Barista.PrepareCoffee readPrepareCoffee(Reader in) {
+        return new Barista.PrepareCoffee(in.readCoffee(), ref(in.readString()));
+    }
+
+    private byte[] path(ActorRef ref) {
+        byte[] path = paths.getIfPresent(ref);
+        if (path == null) {
+            path = Serialization.serializedActorPath(ref).getBytes(StandardCharsets.UTF_8);
+            paths.put(ref, path);
+        }
+        return path;
+    }
+
+    private ActorRef ref(String path) {
+        ActorRef ref = refs.getIfPresent(path);
+        if (ref == null) {
+            ref = system.provider().resolveActorRef(path);
+            refs.put(path, ref);
+        }
+        return ref;
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[32];
+        private int size;
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) b;
+        }
+
+        void writeCoffee(Coffee coffee) {
+            writeVarint(coffee.ordinal());
+        }
+
+        /** Unsigned LEB128: seven bits per byte, the high bit set on all but the last byte. */
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        /** Length prefixed bytes. */
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        byte readByte() {
+            if (position >= buffer.length) throw new IllegalArgumentException("Truncated message");
+            return buffer[position++];
+        }
+
+        Coffee readCoffee() {
+            return Coffee.byOrdinal(readVarint());
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                final byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            final int length = readVarint();
+            if (length < 0 || length > buffer.length - position) {
+                throw new IllegalArgumentException("Truncated message");
+            }
+            final String string = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return string;
+        }
+    }
+}
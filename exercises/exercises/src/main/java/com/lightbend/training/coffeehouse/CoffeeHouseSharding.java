@@ -0,0 +1,150 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorContext;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.cluster.routing.ClusterRouterGroup;
+import akka.cluster.routing.ClusterRouterGroupSettings;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardCoordinator;
+import akka.cluster.sharding.ShardRegion;
+import akka.routing.RoundRobinGroup;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The cluster mode of the {@link CoffeeHouse}, enabled by {@code coffee-house.cluster.enabled}:
+ * the guests and the caffeine ledgers are sharded across the nodes and the orders are prepared
+ * by the baristas of all nodes.
+ *
+ * Guests are {@link ShardedGuest} entities keyed by a guest id, ordering through the waiters of
+ * the node they live on. The ledgers are {@link CaffeineLedger} entities, one per guest shard:
+ * the ledger of a guest has the id of the guest's shard, so guests and their caffeine counts are
+ * partitioned alike. Every node keeps its local barista pool, and a cluster aware group router
+ * spreads the approved orders over the pools of all nodes.
+ *
+ * Guest shards are rebalanced as nodes join; a guest handed off arrives again on the new node with
+ * its coffees, see {@link ShardedGuest.HandOff}. Ledgers are kept in memory, so they are neither
+ * rebalanced nor passivated: a ledger stays on the node it was first allocated to, and only loses
+ * its counts with that node.
+ */
+public final class CoffeeHouseSharding {
+
+    static final String GUEST_TYPE_NAME = "Guest";
+
+    static final String LEDGER_TYPE_NAME = "CaffeineLedger";
+
+    private CoffeeHouseSharding() {
+    }
+
+    /** Routes to the local barista pool at the same path on every node, this one included. */
+    public static ActorRef baristaRouter(ActorContext context, ActorRef localBarista, int totalInstances) {
+        final List<String> paths = Collections.singletonList(localBarista.path().toStringWithoutAddress());
+        return context.actorOf(new ClusterRouterGroup(new RoundRobinGroup(paths),
+                new ClusterRouterGroupSettings(totalInstances, paths, true, Collections.emptySet())).props(),
+                "cluster-barista");
+    }
+
+    public static ActorRef startGuests(ActorSystem system, ActorRef[] waiters,
+                                       FiniteDuration coffeeFinishedDuration, ActorRef ledgers, int numberOfShards) {
+        final ClusterShardingSettings settings = ClusterShardingSettings.create(system);
+        return ClusterSharding.get(system).start(GUEST_TYPE_NAME,
+                ShardedGuest.props(waiters, coffeeFinishedDuration, ledgers),
+                settings,
+                new GuestExtractor(numberOfShards),
+                ClusterSharding.get(system).defaultShardAllocationStrategy(settings),
+                ShardedGuest.HandOff.Instance);
+    }
+
+    public static ActorRef startLedgers(ActorSystem system, ActorRef barista, int caffeineLimit, int numberOfShards) {
+        return ClusterSharding.get(system).start(LEDGER_TYPE_NAME,
+                CaffeineLedger.shardedProps(barista, caffeineLimit),
+                ClusterShardingSettings.create(system).withPassivateIdleAfter(FiniteDuration.Zero()),
+                new LedgerExtractor(numberOfShards),
+                // Allocates to the region with the fewest shards, and never rebalances
+                new ShardCoordinator.LeastShardAllocationStrategy(1, 0),
+                PoisonPill.getInstance());
+    }
+
+    static String shardId(String guestId, int numberOfShards) {
+        return Integer.toString(Math.floorMod(guestId.hashCode(), numberOfShards));
+    }
+
+    /** Sharded guests are only addressed by id to arrive; afterwards they are told directly. */
+    static final class GuestExtractor implements ShardRegion.MessageExtractor {
+
+        private final int numberOfShards;
+
+        GuestExtractor(int numberOfShards) {
+            this.numberOfShards = numberOfShards;
+        }
+
+        @Override
+        public String entityId(Object message) {
+            return message instanceof ShardedGuest.Arrive ? ((ShardedGuest.Arrive) message).guestId : null;
+        }
+
+        @Override
+        public Object entityMessage(Object message) {
+            return message;
+        }
+
+        @Override
+        public String shardId(Object message) {
+            // Also asked for the ShardRegion.StartEntity of remembered entities
+            final String entityId = message instanceof ShardRegion.StartEntity
+                    ? ((ShardRegion.StartEntity) message).entityId()
+                    : entityId(message);
+            return entityId == null ? null : CoffeeHouseSharding.shardId(entityId, numberOfShards);
+        }
+    }
+
+    /**
+     * Ledger messages are routed by their guest, whose actor name is its guest id; ledger and
+     * shard ids are both the shard id of the guest.
+     */
+    static final class LedgerExtractor implements ShardRegion.MessageExtractor {
+
+        private final int numberOfShards;
+
+        LedgerExtractor(int numberOfShards) {
+            this.numberOfShards = numberOfShards;
+        }
+
+        @Override
+        public String entityId(Object message) {
+            final ActorRef guest;
+            if (message instanceof CoffeeHouse.ApproveCoffee) {
+                guest = ((CoffeeHouse.ApproveCoffee) message).guest;
+            } else if (message instanceof CaffeineLedger.AddGuest) {
+                guest = ((CaffeineLedger.AddGuest) message).guest;
+            } else if (message instanceof CaffeineLedger.RemoveGuest) {
+                guest = ((CaffeineLedger.RemoveGuest) message).guest;
+            } else if (message instanceof CaffeineLedger.RefundCoffee) {
+                guest = ((CaffeineLedger.RefundCoffee) message).guest;
+            } else if (message instanceof CaffeineLedger.MoveGuest) {
+                // The incarnations of a guest share its guest id, and so its ledger
+                guest = ((CaffeineLedger.MoveGuest) message).guest;
+            } else {
+                return null;
+            }
+            return CoffeeHouseSharding.shardId(guest.path().name(), numberOfShards);
+        }
+
+        @Override
+        public Object entityMessage(Object message) {
+            return message;
+        }
+
+        @Override
+        public String shardId(Object message) {
+            return message instanceof ShardRegion.StartEntity
+                    ? ((ShardRegion.StartEntity) message).entityId()
+                    : entityId(message);
+        }
+    }
+}
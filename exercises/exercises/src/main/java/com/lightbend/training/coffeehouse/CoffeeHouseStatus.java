@@ -0,0 +1,141 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionId;
+import akka.actor.ExtensionIdProvider;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Status of the coffee house of an actor system, read without a message to the coffee house, so
+ * monitoring neither waits for nor delays the orders in its mailbox.
+ *
+ * The aggregates are updated where things happen: the guests, approvals, coffees served and
+ * rejections are the {@link CoffeeHouseMetrics} counted by guests, waiters and the coffee house,
+ * the coffees served per coffee are counted here by the waiters. {@link #snapshot()} sums them up
+ * into an immutable {@link Snapshot}, kept in a volatile field and handed out again until it is
+ * {@code coffee-house.status-max-age} old. In cluster mode the snapshot covers this node only.
+ */
+public final class CoffeeHouseStatus implements Extension {
+
+    private final long maxAgeNanos;
+
+    private final LongAdder guests;
+    private final LongAdder approvals;
+    private final LongAdder coffeesServed;
+    private final LongAdder caffeineRejections;
+    private final LongAdder[] coffeesServedByCoffee = new LongAdder[Coffee.Catalogue.size()];
+
+    private volatile Snapshot snapshot;
+
+    public CoffeeHouseStatus(ActorSystem system) {
+        final CoffeeHouseMetrics metrics = CoffeeHouseMetrics.get(system);
+        this.maxAgeNanos = system.settings().config().getDuration("coffee-house.status-max-age", TimeUnit.NANOSECONDS);
+        this.guests = metrics.gauge("coffee-house.guests");
+        this.approvals = metrics.counter("coffee-house.approvals");
+        this.coffeesServed = metrics.counter("waiter.coffees-served");
+        this.caffeineRejections = metrics.counter("coffee-house.caffeine-rejections");
+        for (int i = 0; i < coffeesServedByCoffee.length; i++) coffeesServedByCoffee[i] = new LongAdder();
+    }
+
+    public static CoffeeHouseStatus get(ActorSystem system) {
+        return Id.INSTANCE.get(system);
+    }
+
+    /** Counts a coffee served by a waiter; the total is the {@code waiter.coffees-served} counter. */
+    void served(Coffee coffee) {
+        coffeesServedByCoffee[coffee.ordinal()].increment();
+    }
+
+    /**
+     * Returns the latest snapshot, taking a new one once it is older than the maximum age. Threads
+     * asking at the same time may each take one; they are equally recent.
+     */
+    public Snapshot snapshot() {
+        final long now = System.nanoTime();
+        final Snapshot latest = snapshot;
+        if (latest != null && now - latest.takenNanos < maxAgeNanos) return latest;
+        final ImmutableMap.Builder<Coffee, Long> byCoffee = ImmutableMap.builder();
+        for (int i = 0; i < coffeesServedByCoffee.length; i++) {
+            byCoffee.put(Coffee.byOrdinal(i), coffeesServedByCoffee[i].sum());
+        }
+        final Snapshot taken = new Snapshot(guests.sum(), approvals.sum(), coffeesServed.sum(), byCoffee.build(),
+                caffeineRejections.sum(), now);
+        snapshot = taken;
+        return taken;
+    }
+
+    public static final class Snapshot {
+        public final long guestCount;
+        public final long approvals;
+        public final long coffeesServed;
+        /** In catalogue order; not reset by a waiter restart. */
+        public final Map<Coffee, Long> coffeesServedByCoffee;
+        public final long caffeineRejections;
+        /** {@link System#nanoTime()} the snapshot was taken at; not part of equality. */
+        public final long takenNanos;
+
+        Snapshot(long guestCount, long approvals, long coffeesServed, Map<Coffee, Long> coffeesServedByCoffee,
+                 long caffeineRejections, long takenNanos) {
+            this.guestCount = guestCount;
+            this.approvals = approvals;
+            this.coffeesServed = coffeesServed;
+            this.coffeesServedByCoffee = coffeesServedByCoffee;
+            this.caffeineRejections = caffeineRejections;
+            this.takenNanos = takenNanos;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Snapshot that = (Snapshot) o;
+            return guestCount == that.guestCount &&
+                    approvals == that.approvals &&
+                    coffeesServed == that.coffeesServed &&
+                    caffeineRejections == that.caffeineRejections &&
+                    Objects.equals(coffeesServedByCoffee, that.coffeesServedByCoffee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guestCount, approvals, coffeesServed, coffeesServedByCoffee, caffeineRejections);
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "guestCount=" + guestCount +
+                    ", approvals=" + approvals +
+                    ", coffeesServed=" + coffeesServed +
+                    ", coffeesServedByCoffee=" + coffeesServedByCoffee +
+                    ", caffeineRejections=" + caffeineRejections +
+                    '}';
+        }
+    }
+
+    public static final class Id extends AbstractExtensionId<CoffeeHouseStatus> implements ExtensionIdProvider {
+
+        public static final Id INSTANCE = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public CoffeeHouseStatus createExtension(ExtendedActorSystem system) {
+            return new CoffeeHouseStatus(system);
+        }
+
+        @Override
+        public ExtensionId<CoffeeHouseStatus> lookup() {
+            return INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Replays a file of terminal commands, e.g. recorded traffic for a capacity test, into the coffee
+ * house. The file is memory mapped in windows of {@code windowSize} bytes, so it may be far larger
+ * than the heap, and each window is parsed in bulk by the {@link TerminalParser}.
+ *
+ * Commands are fed at {@code rate} commands per second, or as fast as possible with a rate of 0.
+ * Either way at most {@code maxInFlight} guest commands are admitted at a time: the next one waits
+ * until the coffee house has created all guests of an earlier one, so the replay slows down to what
+ * the coffee house can take instead of filling its mailbox. A quit command ends the replay.
+ *
+ * An admission not returned within {@code admissionTimeout}, e.g. as the reply was lost in a restart
+ * of the coffee house, is written off: the next command goes ahead, and the command is reported as
+ * unconfirmed instead of blocking the replay.
+ */
+public final class CommandReplay {
+
+    private final ActorSystem system;
+
+    private final ActorRef coffeeHouse;
+
+    private final long nanosPerCommand;
+
+    private final int maxInFlight;
+
+    private final int windowSize;
+
+    private final Duration admissionTimeout;
+
+    private final Runnable getStatus;
+
+    private final Semaphore admissions;
+
+    // Admissions given up on, whose late replies must not return them a second time
+    private final AtomicInteger writtenOff = new AtomicInteger();
+
+    private long startNanos;
+
+    private long commands;
+
+    private long guests;
+
+    private long unknownCommands;
+
+    private long unconfirmedCommands;
+
+    public CommandReplay(ActorSystem system, ActorRef coffeeHouse, double rate, int maxInFlight, int windowSize,
+                         Duration admissionTimeout, Runnable getStatus) {
+        checkNotNull(system, "System cannot be null");
+        checkNotNull(coffeeHouse, "Coffee house cannot be null");
+        checkArgument(rate >= 0, "Rate cannot be negative");
+        checkArgument(maxInFlight > 0, "Max in flight must be positive");
+        checkArgument(windowSize > 0, "Window size must be positive");
+        checkNotNull(admissionTimeout, "Admission timeout cannot be null");
+        this.system = system;
+        this.coffeeHouse = coffeeHouse;
+        this.nanosPerCommand = rate > 0 ? Math.max(1, (long) (1_000_000_000 / rate)) : 0;
+        this.maxInFlight = maxInFlight;
+        this.windowSize = windowSize;
+        this.admissionTimeout = admissionTimeout;
+        this.getStatus = getStatus;
+        this.admissions = new Semaphore(maxInFlight);
+    }
+
+    /** Replays the file and returns once the coffee house has created all replayed guests. */
+    public Throughput replay(Path file) throws IOException, InterruptedException {
+        final ActorRef acknowledger = system.actorOf(Acknowledger.props(admissions, writtenOff));
+        commands = 0;
+        guests = 0;
+        unknownCommands = 0;
+        unconfirmedCommands = 0;
+        startNanos = System.nanoTime();
+        long offset = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            boolean more = true;
+            while (more && offset < size) {
+                final long length = Math.min(windowSize, size - offset);
+                final boolean last = offset + length == size;
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                more = TerminalParser.parseLines(window, last, command -> execute(command, acknowledger));
+                if (window.position() == 0 && more && !last) {
+                    throw new IOException(String.format("Line at %d longer than the replay window", offset));
+                }
+                offset += window.position();
+            }
+            // All admissions are back once the coffee house has created all guests
+            if (admissions.tryAcquire(maxInFlight, admissionTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                admissions.release(maxInFlight);
+            } else {
+                unconfirmedCommands += maxInFlight - admissions.availablePermits();
+            }
+        } finally {
+            acknowledger.tell(PoisonPill.getInstance(), ActorRef.noSender());
+        }
+        return new Throughput(commands, guests, unknownCommands, unconfirmedCommands, offset,
+                System.nanoTime() - startNanos);
+    }
+
+    private boolean execute(TerminalCommand command, ActorRef acknowledger) {
+        if (command instanceof TerminalCommand.Unknown) {
+            unknownCommands++;
+            return true;
+        }
+        if (command == TerminalCommand.Quit.Instance) return false;
+        pace();
+        commands++;
+        if (command instanceof TerminalCommand.Guest) {
+            final TerminalCommand.Guest guest = (TerminalCommand.Guest) command;
+            try {
+                admit(new CoffeeHouse.CreateGuests(guest.count, guest.coffee, guest.maxCoffeeCount), acknowledger);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            guests += guest.count;
+        } else if (command == TerminalCommand.Status.Instance) {
+            getStatus.run();
+        }
+        return true;
+    }
+
+    private void pace() {
+        if (nanosPerCommand == 0) return;
+        final long due = startNanos + commands * nanosPerCommand;
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void admit(CoffeeHouse.CreateGuests createGuests, ActorRef acknowledger) throws InterruptedException {
+        if (!admissions.tryAcquire(admissionTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            writtenOff.incrementAndGet();
+            unconfirmedCommands++;
+            system.log().warning("No guests reported created within {}, replaying on", admissionTimeout);
+        }
+        coffeeHouse.tell(createGuests, acknowledger);
+    }
+
+    /** Returns an admission once the coffee house reports all guests of a command created. */
+    private static final class Acknowledger extends AbstractActor {
+
+        private final Semaphore admissions;
+
+        private final AtomicInteger writtenOff;
+
+        private Acknowledger(Semaphore admissions, AtomicInteger writtenOff) {
+            this.admissions = admissions;
+            this.writtenOff = writtenOff;
+        }
+
+        static Props props(Semaphore admissions, AtomicInteger writtenOff) {
+            return Props.create(Acknowledger.class, () -> new Acknowledger(admissions, writtenOff));
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(CoffeeHouse.GuestsCreated.class, guestsCreated -> {
+                        if (guestsCreated.created == guestsCreated.count && !takeWrittenOff()) {
+                            admissions.release();
+                        }
+                    })
+                    .build();
+        }
+
+        /** A late reply settles an admission written off instead of returning one more. */
+        private boolean takeWrittenOff() {
+            for (int count = writtenOff.get(); count > 0; count = writtenOff.get()) {
+                if (writtenOff.compareAndSet(count, count - 1)) return true;
+            }
+            return false;
+        }
+    }
+
+    public static final class Throughput {
+        public final long commands;
+        public final long guests;
+        public final long unknownCommands;
+        /** Guest commands whose guests were not reported created within the admission timeout. */
+        public final long unconfirmedCommands;
+        public final long bytes;
+        public final long elapsedNanos;
+
+        public Throughput(long commands, long guests, long unknownCommands, long unconfirmedCommands, long bytes,
+                          long elapsedNanos) {
+            this.commands = commands;
+            this.guests = guests;
+            this.unknownCommands = unknownCommands;
+            this.unconfirmedCommands = unconfirmedCommands;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double commandsPerSecond() {
+            return perSecond(commands);
+        }
+
+        public double guestsPerSecond() {
+            return perSecond(guests);
+        }
+
+        public double bytesPerSecond() {
+            return perSecond(bytes);
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos > 0 ? count * 1e9 / elapsedNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d commands, %d unknown lines, %d unconfirmed, creating %d guests from %d bytes "
+                            + "in %.3f s: %.0f commands/s, %.0f guests/s, %.1f MB/s",
+                    commands, unknownCommands, unconfirmedCommands, guests, bytes, elapsedNanos / 1e9,
+                    commandsPerSecond(), guestsPerSecond(), bytesPerSecond() / 1e6);
+        }
+    }
+}
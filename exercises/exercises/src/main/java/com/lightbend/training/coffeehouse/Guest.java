@@ -1,19 +1,79 @@
 package com.lightbend.training.coffeehouse;
 
+import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import scala.concurrent.duration.FiniteDuration;
 
-public class Guest extends AbstractLoggingActorWithTimers {
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 
-    private final ActorRef waiter;
-    private final Coffee favoriteCoffee;
-    private final FiniteDuration coffeeFinishedDuration;
-    private final int caffeineLimit;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+public class Guest extends AbstractLoggingActor {
+
+    private ActorRef waiter;
+    private Coffee favoriteCoffee;
+    private FiniteDuration coffeeFinishedDuration;
+    private int caffeineLimit;
 
     private  int coffeeCount = 0;
+
+    // Passivated into the coffee house's GuestTable while finishing a coffee, see Idle
+    private boolean passivating = false;
+    private boolean idle = false;
+
+    private final OrderTracing tracing = OrderTracing.get(context().system());
+
+    private final LongAdder orders =
+            CoffeeHouseMetrics.get(context().system()).counter("guest.orders");
+
+    private final LongAdder caffeineExceptions =
+            CoffeeHouseMetrics.get(context().system()).counter("guest.caffeine-exceptions");
+
+    private final CoffeeHouseMetrics.Histogram orderLatency =
+            CoffeeHouseMetrics.get(context().system()).histogram("guest.order-latency");
+
+    private long orderedNanos;
+
     public Guest(ActorRef waiter, Coffee favoriteCoffee,
                  FiniteDuration coffeeFinishedDuration, int caffeineLimit) {
+        seat(waiter, favoriteCoffee, coffeeFinishedDuration, caffeineLimit);
+    }
+
+    /**
+     * A passivating guest: it leaves an {@link Idle} record with the coffee house instead of
+     * waiting for its coffee to be finished, and is restored from it with the coffees it had.
+     * Restored, it orders again on {@link CoffeeFinished}.
+     */
+    Guest(ActorRef waiter, Coffee favoriteCoffee, FiniteDuration coffeeFinishedDuration, int caffeineLimit,
+          int coffeeCount, boolean restored) {
+        this.passivating = true;
+        this.coffeeCount = coffeeCount;
+        if (restored) {
+            this.waiter = waiter;
+            this.favoriteCoffee = favoriteCoffee;
+            this.coffeeFinishedDuration = coffeeFinishedDuration;
+            this.caffeineLimit = caffeineLimit;
+        } else {
+            seat(waiter, favoriteCoffee, coffeeFinishedDuration, caffeineLimit);
+        }
+    }
+
+    /** For guests seated by a later message, see {@link ShardedGuest}. */
+    protected Guest() {
+    }
+
+    /** Binds the guest to its waiter and places the first order. */
+    protected final void seat(ActorRef waiter, Coffee favoriteCoffee,
+                              FiniteDuration coffeeFinishedDuration, int caffeineLimit) {
+        seat(waiter, favoriteCoffee, coffeeFinishedDuration, caffeineLimit, coffeeCount);
+    }
+
+    /** Seats a guest that already had the given coffees elsewhere, see {@link ShardedGuest}. */
+    protected final void seat(ActorRef waiter, Coffee favoriteCoffee,
+                              FiniteDuration coffeeFinishedDuration, int caffeineLimit, int coffeeCount) {
+        this.coffeeCount = coffeeCount;
         this.waiter = waiter;
         this.favoriteCoffee = favoriteCoffee;
         this.coffeeFinishedDuration = coffeeFinishedDuration;
@@ -27,30 +87,50 @@ public class Guest extends AbstractLoggingActorWithTimers {
                 .match(Waiter.CoffeeServed.class,
                     coffeeServed -> coffeeServed.coffee.equals(favoriteCoffee),
                         coffeeServed -> {
+                    tracing.served(coffeeServed.trace);
+                    orderLatency.recordNanos(System.nanoTime() - orderedNanos);
                     coffeeCount++;
                     log().info("Enjoying my {} yummy {} ",coffeeCount,coffeeServed.coffee);
                     scheduleCoffeeFinished();
                 })
                 .match(Waiter.CoffeeServed.class,coffeeServed -> {
                     log().info("Expected a {} but got served a {}",favoriteCoffee,coffeeServed.coffee);
-                    waiter.tell(new Waiter.Complaint(favoriteCoffee),self());
+                    waiter.tell(new Waiter.Complaint(favoriteCoffee,coffeeServed.trace),self());
+                })
+                .match(Waiter.CoffeeUnavailable.class, coffeeUnavailable -> {
+                    log().info("No {} for now, I will order again later",coffeeUnavailable.coffee);
+                    scheduleCoffeeFinished();
                 })
                 .match(CoffeeFinished.class, this::CaffeineLimitCheck,
-                        coffeeFinished -> { throw new CaffeineException();} )
+                        coffeeFinished -> {
+                    caffeineExceptions.increment();
+                    caffeineLimitReached();
+                })
                 .match(CoffeeFinished.class, coffeeFinished ->orderFavoriteCoffee()).build();
     }
 
+    protected final int coffeeCount() {
+        return coffeeCount;
+    }
+
     private boolean CaffeineLimitCheck(CoffeeFinished coffeeFinished) {
         return this.coffeeCount > this.caffeineLimit;
     }
 
+    /** Fails the guest, so its supervisor, the coffee house, stops it. */
+    protected void caffeineLimitReached() {
+        throw new CaffeineException();
+    }
+
     @Override
     public void postStop(){
-        log().info("Goodbye!");
+        if (!idle) log().info("Goodbye!");
     }
 
     private void orderFavoriteCoffee() {
-        this.waiter.tell(new Waiter.ServeCoffee(this.favoriteCoffee),self());
+        orders.increment();
+        orderedNanos = System.nanoTime();
+        this.waiter.tell(new Waiter.ServeCoffee(this.favoriteCoffee,tracing.start()),self());
     }
 
 
@@ -60,8 +140,28 @@ public class Guest extends AbstractLoggingActorWithTimers {
                 new Guest(waiter,favoriteCoffee,coffeeFinsihedDuration,caffeineLimit));
     }
 
+    public static Props passivatingProps(final ActorRef waiter, final Coffee favoriteCoffee,
+                                         final FiniteDuration coffeeFinishedDuration, int caffeineLimit) {
+        return Props.create(Guest.class, () ->
+                new Guest(waiter,favoriteCoffee,coffeeFinishedDuration,caffeineLimit,0,false));
+    }
+
+    /** A passivating guest restored from its {@link Idle} record, waiting for {@link CoffeeFinished}. */
+    public static Props restoredProps(final ActorRef waiter, final Coffee favoriteCoffee,
+                                      final FiniteDuration coffeeFinishedDuration, int caffeineLimit,
+                                      int coffeeCount) {
+        return Props.create(Guest.class, () ->
+                new Guest(waiter,favoriteCoffee,coffeeFinishedDuration,caffeineLimit,coffeeCount,true));
+    }
+
     private void scheduleCoffeeFinished() {
-        getTimers().startSingleTimer("coffee-finished",CoffeeFinished.Instance,coffeeFinishedDuration);
+        if (passivating) {
+            idle = true;
+            context().parent().tell(new Idle(favoriteCoffee,coffeeCount,caffeineLimit),self());
+            context().stop(self());
+            return;
+        }
+        CoffeeClock.get(context().system()).schedule(coffeeFinishedDuration,self(),CoffeeFinished.Instance,self());
     }
 
     public static final class CaffeineException extends IllegalStateException {
@@ -72,6 +172,44 @@ public class Guest extends AbstractLoggingActorWithTimers {
         }
     }
 
+    /** Sent by a passivating guest to its parent as it stops to finish its coffee. */
+    public static final class Idle {
+        public final Coffee favoriteCoffee;
+        public final int coffeeCount;
+        public final int caffeineLimit;
+
+        public Idle(Coffee favoriteCoffee, int coffeeCount, int caffeineLimit) {
+            checkNotNull(favoriteCoffee, "Favorite coffee cannot be null");
+            this.favoriteCoffee = favoriteCoffee;
+            this.coffeeCount = coffeeCount;
+            this.caffeineLimit = caffeineLimit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Idle idle = (Idle) o;
+            return coffeeCount == idle.coffeeCount &&
+                    caffeineLimit == idle.caffeineLimit &&
+                    Objects.equals(favoriteCoffee, idle.favoriteCoffee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(favoriteCoffee, coffeeCount, caffeineLimit);
+        }
+
+        @Override
+        public String toString() {
+            return "Idle{" +
+                    "favoriteCoffee=" + favoriteCoffee +
+                    ", coffeeCount=" + coffeeCount +
+                    ", caffeineLimit=" + caffeineLimit +
+                    '}';
+        }
+    }
+
     public static final class CoffeeFinished {
         public static final CoffeeFinished Instance = new CoffeeFinished();
         private CoffeeFinished() {}
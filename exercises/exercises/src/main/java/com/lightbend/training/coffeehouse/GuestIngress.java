@@ -0,0 +1,122 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.event.LoggingAdapter;
+import akka.japi.function.Creator;
+import akka.pattern.Patterns;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Backpressured admission of arriving guests into the coffee house.
+ *
+ * Arrivals are {@link CoffeeHouse.CreateGuests} requests, from the terminal or generated with an
+ * {@link ArrivalShape}. The {@link #admissions admission stage} splits them into chunks the coffee
+ * house creates at once and asks the coffee house for each, with at most {@code maxInFlight}
+ * chunks asked at a time. Once that many are outstanding the stage stops pulling, so arrivals wait
+ * in the stream instead of the coffee house's mailbox, and generated arrivals fall behind.
+ */
+public final class GuestIngress {
+
+    private GuestIngress() {
+    }
+
+    /**
+     * Guests arriving in the given shape, checked every {@code tick}. Arrivals of ticks missed while
+     * the stream was backpressured are added to the next tick, so they arrive late but not lost.
+     */
+    public static Source<CoffeeHouse.CreateGuests, Cancellable> arrivals(Creator<ArrivalShape> shape, Duration tick,
+                                                                         Coffee favoriteCoffee, int guestCaffeineLimit) {
+        return Source.tick(tick, tick, NotUsed.getInstance())
+                .statefulMapConcat(() -> {
+                    final ArrivalShape arrivalShape = shape.create();
+                    final long[] lastNanos = {System.nanoTime()};
+                    return ignored -> {
+                        final long now = System.nanoTime();
+                        final int arrivals = arrivalShape.arrivals(now - lastNanos[0]);
+                        lastNanos[0] = now;
+                        return arrivals > 0
+                                ? Collections.singletonList(
+                                        new CoffeeHouse.CreateGuests(arrivals, favoriteCoffee, guestCaffeineLimit))
+                                : Collections.emptyList();
+                    };
+                });
+    }
+
+    /**
+     * Asks the coffee house to create the arriving guests in chunks of at most {@code chunkSize}
+     * guests, each answered by a single {@link CoffeeHouse.GuestsCreated}. A chunk not answered
+     * within the timeout is logged and skipped.
+     */
+    public static Flow<CoffeeHouse.CreateGuests, CoffeeHouse.GuestsCreated, NotUsed> admissions(
+            ActorRef coffeeHouse, int maxInFlight, int chunkSize, Duration timeout, LoggingAdapter log) {
+        checkArgument(maxInFlight > 0, "Max in flight must be positive");
+        checkArgument(chunkSize > 0, "Chunk size must be positive");
+        return Flow.of(CoffeeHouse.CreateGuests.class)
+                .mapConcat(createGuests -> chunks(createGuests, chunkSize))
+                .mapAsyncUnordered(maxInFlight, chunk -> admit(coffeeHouse, chunk, timeout, log));
+    }
+
+    /**
+     * Runs the admission stage, fed by the returned queue. Offers complete once there is room in a
+     * buffer of {@code bufferSize} arrivals.
+     */
+    public static SourceQueueWithComplete<CoffeeHouse.CreateGuests> start(
+            Flow<CoffeeHouse.CreateGuests, CoffeeHouse.GuestsCreated, NotUsed> admissions, int bufferSize,
+            Materializer materializer) {
+        return Source.<CoffeeHouse.CreateGuests>queue(bufferSize, OverflowStrategy.backpressure())
+                .via(admissions)
+                .to(Sink.ignore())
+                .run(materializer);
+    }
+
+    /** Feeds the arrivals into the queue, one offer at a time, until cancelled. */
+    public static Cancellable feed(Source<CoffeeHouse.CreateGuests, Cancellable> arrivals,
+                                   SourceQueueWithComplete<CoffeeHouse.CreateGuests> queue, Materializer materializer) {
+        return arrivals
+                .mapAsync(1, queue::offer)
+                .toMat(Sink.ignore(), Keep.<Cancellable, CompletionStage<Done>>left())
+                .run(materializer);
+    }
+
+    private static CompletionStage<CoffeeHouse.GuestsCreated> admit(ActorRef coffeeHouse,
+                                                                   CoffeeHouse.CreateGuests chunk,
+                                                                   Duration timeout, LoggingAdapter log) {
+        return Patterns.ask(coffeeHouse, chunk, timeout).handle((reply, failure) -> {
+            if (failure != null) {
+                log.warning("Admission of {} guests failed: {}", chunk.count, failure.toString());
+                // A null element is dropped by the stream
+                return null;
+            }
+            return (CoffeeHouse.GuestsCreated) reply;
+        });
+    }
+
+    private static List<CoffeeHouse.CreateGuests> chunks(CoffeeHouse.CreateGuests createGuests, int chunkSize) {
+        if (createGuests.remaining() <= chunkSize) {
+            return createGuests.remaining() > 0 ? Collections.singletonList(createGuests) : Collections.emptyList();
+        }
+        final List<CoffeeHouse.CreateGuests> chunks = new ArrayList<>(createGuests.remaining() / chunkSize + 1);
+        for (int remaining = createGuests.remaining(); remaining > 0; remaining -= chunkSize) {
+            chunks.add(new CoffeeHouse.CreateGuests(Math.min(chunkSize, remaining), createGuests.favoriteCoffee,
+                    createGuests.guestCaffeineLimit));
+        }
+        return chunks;
+    }
+}
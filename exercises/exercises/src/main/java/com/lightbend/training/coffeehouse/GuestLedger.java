@@ -0,0 +1,158 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Caffeine counts per guest, kept in an open addressing table with primitive counters.
+ *
+ * Guests are keyed by the uid of their actor path; the ref is only kept to tell apart guests
+ * whose uids collide. Lookups and increments never allocate, and removal uses backward shift
+ * deletion so the table does not fill up with tombstones as guests come and go.
+ */
+final class GuestLedger {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] uids;
+    private int[] counts;
+    private ActorRef[] guests;
+    private int mask;
+    private int size;
+
+    GuestLedger() {
+        this(MIN_CAPACITY);
+    }
+
+    GuestLedger(int expectedGuests) {
+        allocate(capacityFor(expectedGuests));
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(ActorRef guest) {
+        return indexOf(guest) >= 0;
+    }
+
+    /**
+     * Returns the caffeine count of the guest, or -1 if the guest is not in the ledger.
+     */
+    int count(ActorRef guest) {
+        final int index = indexOf(guest);
+        return index < 0 ? -1 : counts[index];
+    }
+
+    /**
+     * Adds the guest with a caffeine count of zero; returns false if it was already present.
+     */
+    boolean add(ActorRef guest) {
+        return add(guest, 0);
+    }
+
+    /**
+     * Adds the guest with the given caffeine count; returns false if it was already present.
+     */
+    boolean add(ActorRef guest, int count) {
+        if (indexOf(guest) >= 0) return false;
+        if ((size + 1) * 4L > (mask + 1) * 3L) {
+            rehash((mask + 1) * 2);
+        }
+        insert(guest.path().uid(), count, guest);
+        size++;
+        return true;
+    }
+
+    /**
+     * Increments the count of the guest if it is known and below the limit.
+     */
+    boolean tryIncrement(ActorRef guest, int limit) {
+        final int index = indexOf(guest);
+        if (index < 0 || counts[index] >= limit) return false;
+        counts[index]++;
+        return true;
+    }
+
+    /**
+     * Takes back a coffee counted for the guest; false if the guest is unknown or has none.
+     */
+    boolean tryDecrement(ActorRef guest) {
+        final int index = indexOf(guest);
+        if (index < 0 || counts[index] == 0) return false;
+        counts[index]--;
+        return true;
+    }
+
+    boolean remove(ActorRef guest) {
+        final int index = indexOf(guest);
+        if (index < 0) return false;
+        int gap = index;
+        for (int i = (index + 1) & mask; guests[i] != null; i = (i + 1) & mask) {
+            // An entry may move back into the gap only if the gap lies between its home slot and i.
+            if (((i - slot(uids[i])) & mask) >= ((i - gap) & mask)) {
+                uids[gap] = uids[i];
+                counts[gap] = counts[i];
+                guests[gap] = guests[i];
+                gap = i;
+            }
+        }
+        uids[gap] = 0;
+        counts[gap] = 0;
+        guests[gap] = null;
+        size--;
+        return true;
+    }
+
+    void forEach(ObjIntConsumer<ActorRef> action) {
+        for (int i = 0; i < guests.length; i++) {
+            if (guests[i] != null) action.accept(guests[i], counts[i]);
+        }
+    }
+
+    private int indexOf(ActorRef guest) {
+        final int uid = guest.path().uid();
+        for (int i = slot(uid); guests[i] != null; i = (i + 1) & mask) {
+            if (uids[i] == uid && (guests[i] == guest || guests[i].equals(guest))) return i;
+        }
+        return -1;
+    }
+
+    private void insert(int uid, int count, ActorRef guest) {
+        int i = slot(uid);
+        while (guests[i] != null) {
+            i = (i + 1) & mask;
+        }
+        uids[i] = uid;
+        counts[i] = count;
+        guests[i] = guest;
+    }
+
+    private int slot(int uid) {
+        final int h = uid * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        final int[] oldUids = uids;
+        final int[] oldCounts = counts;
+        final ActorRef[] oldGuests = guests;
+        allocate(capacity);
+        for (int i = 0; i < oldGuests.length; i++) {
+            if (oldGuests[i] != null) insert(oldUids[i], oldCounts[i], oldGuests[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        uids = new int[capacity];
+        counts = new int[capacity];
+        guests = new ActorRef[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedGuests) {
+        final long required = Math.max(MIN_CAPACITY, expectedGuests * 4L / 3 + 1);
+        return (int) Math.min(1 << 30, Long.highestOneBit(required - 1) << 1);
+    }
+}
@@ -0,0 +1,232 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Simulates many guests as rows of {@link GuestTable}s instead of one {@link Guest} actor each.
+ *
+ * The guests finishing their coffee are kept in one table in the order their coffee is finished,
+ * the guests waiting for a coffee in one table per coffee in the order they ordered. Every tick
+ * the guests whose coffee is finished are advanced in batches of at most {@code batchSize}: they
+ * leave at their caffeine limit like a {@link Guest}, or order again from the waiter, all with
+ * this actor as sender and the orders of a batch in one {@link Waiter.ServeCoffees}. A coffee served goes to the guest waiting longest for it; a wrong coffee
+ * is complained about on behalf of a guest waiting for another one.
+ *
+ * The coffee house knows the table as a single guest, so the table also keeps the coffee house's
+ * caffeine count of each guest: a guest at the coffee house's limit is rejected here instead of
+ * by the coffee house, without placing its last order.
+ */
+public class GuestSimulation extends AbstractLoggingActor {
+
+    private final ActorRef waiter;
+    private final FiniteDuration coffeeFinishedDuration;
+    private final int caffeineLimit;
+    private final FiniteDuration tick;
+    private final int batchSize;
+
+    private final GuestTable finishing = new GuestTable();
+    private final GuestTable[] waiting = new GuestTable[Coffee.Catalogue.size()];
+    private int nextComplaint = 0;
+    // Orders of one batch of guests, placed with the waiter as one ServeCoffees
+    private final List<Waiter.ServeCoffee> orderBatch = new ArrayList<>();
+
+    private Cancellable ticks;
+
+    private final OrderTracing tracing = OrderTracing.get(context().system());
+    private final LongAdder guests =
+            CoffeeHouseMetrics.get(context().system()).gauge("coffee-house.guests");
+    private final LongAdder orders =
+            CoffeeHouseMetrics.get(context().system()).counter("guest.orders");
+    private final LongAdder caffeineExceptions =
+            CoffeeHouseMetrics.get(context().system()).counter("guest.caffeine-exceptions");
+    private final LongAdder caffeineRejections =
+            CoffeeHouseMetrics.get(context().system()).counter("coffee-house.caffeine-rejections");
+    private final CoffeeHouseMetrics.Histogram orderLatency =
+            CoffeeHouseMetrics.get(context().system()).histogram("guest.order-latency");
+
+    public GuestSimulation(ActorRef waiter, FiniteDuration coffeeFinishedDuration, int caffeineLimit,
+                           FiniteDuration tick, int batchSize) {
+        checkArgument(batchSize > 0, "Batch size must be positive");
+        this.waiter = waiter;
+        this.coffeeFinishedDuration = coffeeFinishedDuration;
+        this.caffeineLimit = caffeineLimit;
+        this.tick = tick;
+        this.batchSize = batchSize;
+        for (int i = 0; i < waiting.length; i++) waiting[i] = new GuestTable();
+    }
+
+    public static Props props(ActorRef waiter, FiniteDuration coffeeFinishedDuration, int caffeineLimit,
+                              FiniteDuration tick, int batchSize) {
+        return Props.create(GuestSimulation.class,
+                () -> new GuestSimulation(waiter, coffeeFinishedDuration, caffeineLimit, tick, batchSize));
+    }
+
+    @Override
+    public void preStart() {
+        ticks = context().system().scheduler().scheduleWithFixedDelay(tick, tick, self(), Advance.Instance,
+                context().dispatcher(), self());
+    }
+
+    @Override
+    public void postStop() {
+        if (ticks != null) ticks.cancel();
+        guests.add(-size());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(AddGuests.class, addGuests -> {
+                    guests.add(addGuests.count);
+                    for (int i = 0; i < addGuests.count; i++) {
+                        order(addGuests.favoriteCoffee, 0, addGuests.guestCaffeineLimit, 0, System.nanoTime());
+                    }
+                    placeOrders();
+                })
+                .match(Advance.class, advance -> advance())
+                .match(Waiter.CoffeeServed.class, coffeeServed -> waitingFor(coffeeServed.coffee).size() > 0,
+                        coffeeServed -> {
+                    tracing.served(coffeeServed.trace);
+                    final GuestTable guest = waitingFor(coffeeServed.coffee);
+                    final long now = System.nanoTime();
+                    orderLatency.recordNanos(now - guest.due());
+                    finish(guest, guest.coffeeCount() + 1, guest.caffeineCount(), now);
+                })
+                .match(Waiter.CoffeeServed.class, this::complain)
+                .match(Waiter.CoffeeUnavailable.class, coffeeUnavailable ->
+                        waitingFor(coffeeUnavailable.coffee).size() > 0, coffeeUnavailable -> {
+                    // The coffee was counted against the guest's limit when it was ordered
+                    final GuestTable guest = waitingFor(coffeeUnavailable.coffee);
+                    finish(guest, guest.coffeeCount(), guest.caffeineCount() - 1, System.nanoTime());
+                })
+                .match(CoffeeHouse.GetStatus.class, getStatus ->
+                        sender().tell(new CoffeeHouse.Status(size()), self()))
+                .build();
+    }
+
+    /** Orders again for the guests whose coffee is finished, at most a batch before the next message. */
+    private void advance() {
+        final long now = System.nanoTime();
+        int advanced = 0;
+        while (advanced < batchSize && finishing.isDue(now)) {
+            final Coffee favoriteCoffee = finishing.favoriteCoffee();
+            final int coffeeCount = finishing.coffeeCount();
+            final int guestCaffeineLimit = finishing.caffeineLimit();
+            final int caffeineCount = finishing.caffeineCount();
+            finishing.remove();
+            if (coffeeCount > guestCaffeineLimit) {
+                caffeineExceptions.increment();
+                guests.decrement();
+            } else {
+                order(favoriteCoffee, coffeeCount, guestCaffeineLimit, caffeineCount, now);
+            }
+            advanced++;
+        }
+        placeOrders();
+        if (finishing.isDue(now)) self().tell(Advance.Instance, self());
+    }
+
+    private void order(Coffee favoriteCoffee, int coffeeCount, int guestCaffeineLimit, int caffeineCount,
+                       long now) {
+        orders.increment();
+        if (caffeineCount >= caffeineLimit) {
+            caffeineRejections.increment();
+            guests.decrement();
+            return;
+        }
+        waitingFor(favoriteCoffee).add(favoriteCoffee, coffeeCount, guestCaffeineLimit, caffeineCount + 1, now);
+        orderBatch.add(new Waiter.ServeCoffee(favoriteCoffee, tracing.start()));
+    }
+
+    private void placeOrders() {
+        if (orderBatch.isEmpty()) return;
+        waiter.tell(Waiter.ServeCoffees.of(orderBatch), self());
+        orderBatch.clear();
+    }
+
+    /** Moves the guest waiting longest in the given table to the guests finishing their coffee. */
+    private void finish(GuestTable waitingGuests, int coffeeCount, int caffeineCount, long now) {
+        finishing.add(waitingGuests.favoriteCoffee(), coffeeCount, waitingGuests.caffeineLimit(),
+                caffeineCount, now + coffeeFinishedDuration.toNanos());
+        waitingGuests.remove();
+    }
+
+    private void complain(Waiter.CoffeeServed served) {
+        for (int i = 0; i < waiting.length; i++) {
+            final int ordinal = (nextComplaint + i) % waiting.length;
+            if (waiting[ordinal].size() > 0) {
+                nextComplaint = (ordinal + 1) % waiting.length;
+                final Coffee favoriteCoffee = waiting[ordinal].favoriteCoffee();
+                log().debug("Expected a {} but got served a {}", favoriteCoffee, served.coffee);
+                waiter.tell(new Waiter.Complaint(favoriteCoffee, served.trace), self());
+                return;
+            }
+        }
+        log().warning("Served a {} nobody waits for", served.coffee);
+    }
+
+    private GuestTable waitingFor(Coffee coffee) {
+        return waiting[coffee.ordinal()];
+    }
+
+    private int size() {
+        int size = finishing.size();
+        for (GuestTable guests : waiting) size += guests.size();
+        return size;
+    }
+
+    /** Seats that many guests, who order right away. */
+    public static final class AddGuests {
+        public final int count;
+        public final Coffee favoriteCoffee;
+        public final int guestCaffeineLimit;
+
+        public AddGuests(int count, Coffee favoriteCoffee, int guestCaffeineLimit) {
+            checkArgument(count >= 0, "Count cannot be negative");
+            checkNotNull(favoriteCoffee, "Favorite coffee cannot be null");
+            this.count = count;
+            this.favoriteCoffee = favoriteCoffee;
+            this.guestCaffeineLimit = guestCaffeineLimit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            AddGuests that = (AddGuests) o;
+            return count == that.count &&
+                    guestCaffeineLimit == that.guestCaffeineLimit &&
+                    Objects.equals(favoriteCoffee, that.favoriteCoffee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(count, favoriteCoffee, guestCaffeineLimit);
+        }
+
+        @Override
+        public String toString() {
+            return "AddGuests{" +
+                    "count=" + count +
+                    ", favoriteCoffee=" + favoriteCoffee +
+                    ", guestCaffeineLimit=" + guestCaffeineLimit +
+                    '}';
+        }
+    }
+
+    private static final class Advance {
+        static final Advance Instance = new Advance();
+    }
+}
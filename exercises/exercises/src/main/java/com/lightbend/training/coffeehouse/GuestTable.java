@@ -0,0 +1,123 @@
+package com.lightbend.training.coffeehouse;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Guests passivated while finishing their coffee, each a compact record instead of an actor.
+ *
+ * A record holds the favorite coffee, the coffees the guest had and its own caffeine limit, the
+ * caffeine count of the coffee house and the time the coffee is finished: 21 bytes in primitive
+ * arrays, where a resident {@link Guest} takes its mailbox, its fields and its share of the
+ * dispatcher. All guests take equally long to finish their coffee, so records are added in the
+ * order they are due and the table is a ring buffer, its head due first.
+ *
+ * The {@link GuestSimulation} also queues the guests waiting for a coffee in such tables, due at
+ * the time they ordered.
+ */
+final class GuestTable {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private byte[] coffees;
+    private int[] coffeeCounts;
+    private int[] caffeineLimits;
+    private int[] caffeineCounts;
+    private long[] dueNanos;
+    private int head;
+    private int size;
+
+    GuestTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Adds a guest due at the given {@link System#nanoTime()}, which must not precede the last one. */
+    void add(Coffee favoriteCoffee, int coffeeCount, int caffeineLimit, int caffeineCount, long due) {
+        checkArgument(favoriteCoffee.ordinal() < 256, "Coffee %s has no byte ordinal", favoriteCoffee);
+        checkArgument(size == 0 || due - dueNanos[index(size - 1)] >= 0, "Guests must be added in due order");
+        if (size == coffees.length) grow();
+        final int index = index(size);
+        coffees[index] = (byte) favoriteCoffee.ordinal();
+        coffeeCounts[index] = coffeeCount;
+        caffeineLimits[index] = caffeineLimit;
+        caffeineCounts[index] = caffeineCount;
+        dueNanos[index] = due;
+        size++;
+    }
+
+    /** Whether the first guest is due at the given {@link System#nanoTime()}. */
+    boolean isDue(long now) {
+        return size > 0 && now - dueNanos[head] >= 0;
+    }
+
+    Coffee favoriteCoffee() {
+        checkState(size > 0, "No guest in the table");
+        return Coffee.byOrdinal(coffees[head] & 0xFF);
+    }
+
+    int coffeeCount() {
+        checkState(size > 0, "No guest in the table");
+        return coffeeCounts[head];
+    }
+
+    int caffeineLimit() {
+        checkState(size > 0, "No guest in the table");
+        return caffeineLimits[head];
+    }
+
+    int caffeineCount() {
+        checkState(size > 0, "No guest in the table");
+        return caffeineCounts[head];
+    }
+
+    /** The {@link System#nanoTime()} the first guest is due at. */
+    long due() {
+        checkState(size > 0, "No guest in the table");
+        return dueNanos[head];
+    }
+
+    /** Removes the first guest, read through the accessors above. */
+    void remove() {
+        checkState(size > 0, "No guest in the table");
+        head = index(1);
+        size--;
+    }
+
+    private int index(int offset) {
+        return (head + offset) & (coffees.length - 1);
+    }
+
+    private void grow() {
+        final byte[] oldCoffees = coffees;
+        final int[] oldCoffeeCounts = coffeeCounts;
+        final int[] oldCaffeineLimits = caffeineLimits;
+        final int[] oldCaffeineCounts = caffeineCounts;
+        final long[] oldDueNanos = dueNanos;
+        // The records wrap around the end of the arrays: copy them to the start, in order
+        final int first = oldCoffees.length - head;
+        allocate(oldCoffees.length * 2);
+        System.arraycopy(oldCoffees, head, coffees, 0, first);
+        System.arraycopy(oldCoffees, 0, coffees, first, head);
+        System.arraycopy(oldCoffeeCounts, head, coffeeCounts, 0, first);
+        System.arraycopy(oldCoffeeCounts, 0, coffeeCounts, first, head);
+        System.arraycopy(oldCaffeineLimits, head, caffeineLimits, 0, first);
+        System.arraycopy(oldCaffeineLimits, 0, caffeineLimits, first, head);
+        System.arraycopy(oldCaffeineCounts, head, caffeineCounts, 0, first);
+        System.arraycopy(oldCaffeineCounts, 0, caffeineCounts, first, head);
+        System.arraycopy(oldDueNanos, head, dueNanos, 0, first);
+        System.arraycopy(oldDueNanos, 0, dueNanos, first, head);
+        head = 0;
+    }
+
+    private void allocate(int capacity) {
+        coffees = new byte[capacity];
+        coffeeCounts = new int[capacity];
+        caffeineLimits = new int[capacity];
+        caffeineCounts = new int[capacity];
+        dueNanos = new long[capacity];
+    }
+}
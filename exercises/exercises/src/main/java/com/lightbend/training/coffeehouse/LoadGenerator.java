@@ -0,0 +1,418 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import org.HdrHistogram.Histogram;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Orders coffee at a fixed rate through the waiters and records the latency of each order up to
+ * its {@link Waiter.CoffeeServed}, e.g. to find the rate the coffee house sustains within a latency
+ * goal.
+ *
+ * The orders are placed by guests admitted into the coffee house with {@link CoffeeHouse.AdmitGuest},
+ * so they are approved and bound to waiters like any guest, in turn. The coffee house stops a guest
+ * at its caffeine limit, so at least as many guests are admitted as it takes to place all orders
+ * within the limit; a guest leaving anyway fails the run rather than truncating it. Order {@code n} is due
+ * {@code n / rate} seconds after the start and its latency is taken from that time rather than from
+ * when it was sent: an order held back by a stalled generator counts the stall, so the histogram is
+ * corrected for coordinated omission. The latency from sending is recorded as well, for comparison.
+ * Orders due during the warmup are placed but not recorded. Orders not served within the drain
+ * timeout after the last one are recorded with the latency they had by then.
+ */
+public class LoadGenerator extends AbstractLoggingActor {
+
+    private final ActorRef coffeeHouse;
+
+    private final Coffee coffee;
+
+    private final double nanosPerOrder;
+
+    private final int orders;
+
+    private final int warmupOrders;
+
+    private final int guestCount;
+
+    private final FiniteDuration tick;
+
+    private final FiniteDuration drainTimeout;
+
+    private final CompletableFuture<Report> report;
+
+    private final List<ActorRef> guests = new ArrayList<>();
+
+    private final BitSet pending = new BitSet();
+
+    private final Histogram latency = new Histogram(3);
+
+    private final Histogram uncorrectedLatency = new Histogram(3);
+
+    private Cancellable ticks;
+
+    private long startNanos;
+
+    private int sent;
+
+    private int served;
+
+    private int unavailable;
+
+    public LoadGenerator(ActorRef coffeeHouse, Coffee coffee, double rate, Duration duration, Duration warmup,
+                         int guestCount, int caffeineLimit, Duration tick, Duration drainTimeout,
+                         CompletableFuture<Report> report) {
+        checkNotNull(coffeeHouse, "Coffee house cannot be null");
+        checkNotNull(coffee, "Coffee cannot be null");
+        checkArgument(rate > 0, "Rate must be positive");
+        checkArgument(guestCount > 0, "Guest count must be positive");
+        checkArgument(caffeineLimit > 0, "Caffeine limit must be positive");
+        checkArgument(rate * (warmup.getSeconds() + duration.getSeconds() + 1) < Integer.MAX_VALUE,
+                "Too many orders");
+        this.coffeeHouse = coffeeHouse;
+        this.coffee = coffee;
+        this.nanosPerOrder = TimeUnit.SECONDS.toNanos(1) / rate;
+        this.warmupOrders = (int) (warmup.toNanos() / nanosPerOrder);
+        this.orders = warmupOrders + (int) (duration.toNanos() / nanosPerOrder);
+        // Orders go to the guests in turn, so each places at most caffeineLimit of them
+        this.guestCount = Math.max(guestCount, (int) ((orders + (long) caffeineLimit - 1) / caffeineLimit));
+        this.tick = FiniteDuration.create(tick.toNanos(), TimeUnit.NANOSECONDS);
+        this.drainTimeout = FiniteDuration.create(drainTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        this.report = report;
+    }
+
+    public static Props props(ActorRef coffeeHouse, Coffee coffee, double rate, Duration duration, Duration warmup,
+                              int guestCount, int caffeineLimit, Duration tick, Duration drainTimeout,
+                              CompletableFuture<Report> report) {
+        return Props.create(LoadGenerator.class, () -> new LoadGenerator(coffeeHouse, coffee, rate, duration,
+                warmup, guestCount, caffeineLimit, tick, drainTimeout, report));
+    }
+
+    @Override
+    public void preStart() {
+        final ActorRef generator = self();
+        for (int i = 0; i < guestCount; i++) {
+            coffeeHouse.tell(new CoffeeHouse.AdmitGuest(waiter -> LoadGuest.props(waiter, generator, coffee)), self());
+        }
+    }
+
+    @Override
+    public void postStop() {
+        if (ticks != null) ticks.cancel();
+        guests.forEach(guest -> guest.tell(PoisonPill.getInstance(), self()));
+        report.completeExceptionally(new IllegalStateException("Load generator stopped"));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(GuestReady.class, guestReady -> {
+                    guests.add(context().watch(sender()));
+                    if (guests.size() == guestCount) start();
+                })
+                .match(Terminated.class, terminated -> context().stop(self()))
+                .build();
+    }
+
+    private Receive generating() {
+        return receiveBuilder()
+                .match(Tick.class, tick -> placeDueOrders())
+                .match(Served.class, this::served)
+                .match(Terminated.class, this::guestLeft)
+                .build();
+    }
+
+    private Receive draining() {
+        return receiveBuilder()
+                .match(Served.class, served -> {
+                    served(served);
+                    if (pending.isEmpty()) finish();
+                })
+                .match(DrainTimeout.class, drainTimeout -> finish())
+                .match(Terminated.class, this::guestLeft)
+                .build();
+    }
+
+    private void start() {
+        log().info("Placing {} orders, {} of them during warmup, with {} guests", orders, warmupOrders, guestCount);
+        startNanos = System.nanoTime();
+        ticks = context().system().scheduler().scheduleWithFixedDelay(FiniteDuration.Zero(), tick, self(),
+                Tick.Instance, context().dispatcher(), self());
+        getContext().become(generating());
+    }
+
+    private void placeDueOrders() {
+        final long now = System.nanoTime();
+        while (sent < orders && dueNanos(sent) <= now) {
+            guests.get(sent % guests.size()).tell(new Order(sent, now), self());
+            pending.set(sent);
+            sent++;
+        }
+        if (sent == orders) {
+            ticks.cancel();
+            log().info("Placed {} orders, waiting for {} of them", sent, pending.cardinality());
+            context().system().scheduler().scheduleOnce(drainTimeout, self(), DrainTimeout.Instance,
+                    context().dispatcher(), self());
+            getContext().become(draining());
+            if (pending.isEmpty()) finish();
+        }
+    }
+
+    private void served(Served served) {
+        if (!pending.get(served.order)) return;
+        pending.clear(served.order);
+        if (!served.served) {
+            unavailable++;
+            return;
+        }
+        this.served++;
+        if (served.order >= warmupOrders) {
+            latency.recordValue(micros(served.servedNanos - dueNanos(served.order)));
+            uncorrectedLatency.recordValue(micros(served.servedNanos - served.sentNanos));
+        }
+    }
+
+    /** The open orders of the guest would never be served, so the run is failed instead of reported. */
+    private void guestLeft(Terminated terminated) {
+        final String failure = String.format("Load guest %s left after %d of %d orders, %d of them open",
+                terminated.actor(), sent, orders, pending.cardinality());
+        log().error(failure);
+        report.completeExceptionally(new IllegalStateException(failure));
+        context().stop(self());
+    }
+
+    private void finish() {
+        final long now = System.nanoTime();
+        final int unfinished = pending.cardinality();
+        for (int order = pending.nextSetBit(warmupOrders); order >= 0; order = pending.nextSetBit(order + 1)) {
+            latency.recordValue(micros(now - dueNanos(order)));
+        }
+        report.complete(new Report(sent, served, unavailable, unfinished, now - startNanos,
+                latency.copy(), uncorrectedLatency.copy()));
+        context().stop(self());
+    }
+
+    private long dueNanos(int order) {
+        return startNanos + (long) (order * nanosPerOrder);
+    }
+
+    private static long micros(long nanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /** Places the orders of the load generator with its waiter, one coffee per order. */
+    private static final class LoadGuest extends AbstractActor {
+
+        private final ActorRef waiter;
+
+        private final ActorRef generator;
+
+        private final OrderTracing tracing = OrderTracing.get(context().system());
+
+        private final Coffee coffee;
+
+        // Coffees are served in the order they were ordered, unless a complaint gets in between
+        private final Queue<Order> orders = new ArrayDeque<>();
+
+        private LoadGuest(ActorRef waiter, ActorRef generator, Coffee coffee) {
+            this.waiter = waiter;
+            this.generator = generator;
+            this.coffee = coffee;
+        }
+
+        static Props props(ActorRef waiter, ActorRef generator, Coffee coffee) {
+            return Props.create(LoadGuest.class, () -> new LoadGuest(waiter, generator, coffee));
+        }
+
+        @Override
+        public void preStart() {
+            generator.tell(GuestReady.Instance, self());
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder()
+                    .match(Order.class, order -> {
+                        orders.add(order);
+                        waiter.tell(new Waiter.ServeCoffee(coffee, tracing.start()), self());
+                    })
+                    .match(Waiter.CoffeeServed.class, coffeeServed -> coffeeServed.coffee.equals(coffee),
+                            coffeeServed -> {
+                                tracing.served(coffeeServed.trace);
+                                completed(true);
+                            })
+                    .match(Waiter.CoffeeServed.class, coffeeServed ->
+                            waiter.tell(new Waiter.Complaint(coffee, coffeeServed.trace), self()))
+                    .match(Waiter.CoffeeUnavailable.class, coffeeUnavailable -> completed(false))
+                    .build();
+        }
+
+        private void completed(boolean served) {
+            final Order order = orders.poll();
+            if (order != null) {
+                generator.tell(new Served(order.number, order.sentNanos, System.nanoTime(), served), self());
+            }
+        }
+    }
+
+    /** Outcome of a load run; latencies are in microseconds. */
+    public static final class Report {
+        private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99, 100};
+
+        public final int orders;
+        public final int served;
+        public final int unavailable;
+        public final int unfinished;
+        public final long elapsedNanos;
+        public final Histogram latency;
+        public final Histogram uncorrectedLatency;
+
+        public Report(int orders, int served, int unavailable, int unfinished, long elapsedNanos,
+                      Histogram latency, Histogram uncorrectedLatency) {
+            this.orders = orders;
+            this.served = served;
+            this.unavailable = unavailable;
+            this.unfinished = unfinished;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.uncorrectedLatency = uncorrectedLatency;
+        }
+
+        public double servedPerSecond() {
+            return elapsedNanos > 0 ? served * 1e9 / elapsedNanos : 0;
+        }
+
+        /** The latency percentiles in milliseconds, corrected and uncorrected side by side. */
+        public String percentiles() {
+            final StringBuilder table = new StringBuilder(String.format("%10s %15s %15s%n",
+                    "percentile", "latency ms", "uncorrected ms"));
+            for (double percentile : PERCENTILES) {
+                table.append(String.format("%10s %15.3f %15.3f%n",
+                        percentile == 100 ? "max" : String.valueOf(percentile),
+                        latency.getValueAtPercentile(percentile) / 1000.0,
+                        uncorrectedLatency.getValueAtPercentile(percentile) / 1000.0));
+            }
+            return table.toString();
+        }
+
+        /** Writes the corrected latency distribution in milliseconds as an HdrHistogram .hgrm file. */
+        public void writeTo(Path file) throws IOException {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+                latency.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d orders in %.3f s: %d served, %.0f served/s, %d unavailable, %d unfinished",
+                    orders, elapsedNanos / 1e9, served, servedPerSecond(), unavailable, unfinished);
+        }
+    }
+
+    public static final class Order {
+        public final int number;
+        public final long sentNanos;
+
+        public Order(int number, long sentNanos) {
+            this.number = number;
+            this.sentNanos = sentNanos;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Order order = (Order) o;
+            return number == order.number &&
+                    sentNanos == order.sentNanos;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(number, sentNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Order{" +
+                    "number=" + number +
+                    ", sentNanos=" + sentNanos +
+                    '}';
+        }
+    }
+
+    public static final class Served {
+        public final int order;
+        public final long sentNanos;
+        public final long servedNanos;
+        public final boolean served;
+
+        public Served(int order, long sentNanos, long servedNanos, boolean served) {
+            this.order = order;
+            this.sentNanos = sentNanos;
+            this.servedNanos = servedNanos;
+            this.served = served;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Served that = (Served) o;
+            return order == that.order &&
+                    sentNanos == that.sentNanos &&
+                    servedNanos == that.servedNanos &&
+                    served == that.served;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(order, sentNanos, servedNanos, served);
+        }
+
+        @Override
+        public String toString() {
+            return "Served{" +
+                    "order=" + order +
+                    ", sentNanos=" + sentNanos +
+                    ", servedNanos=" + servedNanos +
+                    ", served=" + served +
+                    '}';
+        }
+    }
+
+    public static final class GuestReady {
+        public static final GuestReady Instance = new GuestReady();
+        private GuestReady() {}
+    }
+
+    private static final class Tick {
+        static final Tick Instance = new Tick();
+    }
+
+    private static final class DrainTimeout {
+        static final DrainTimeout Instance = new DrainTimeout();
+    }
+}
@@ -0,0 +1,94 @@
+package com.lightbend.training.coffeehouse;
+
+import java.util.Arrays;
+
+/**
+ * Trace of a sampled order, carried from {@link Waiter.ServeCoffee} to {@link Waiter.CoffeeServed}:
+ * the {@link System#nanoTime} at which the order passed each {@link Hop}. Traces are immutable,
+ * each hop stamps a copy, and only compare within one JVM, so they are not serialized.
+ *
+ * Orders which are not sampled carry no trace, and {@link #at(OrderTrace, Hop)} leaves them so.
+ */
+public final class OrderTrace {
+
+    /** Where an order is stamped; the stage ending at a hop is the time since the previous one stamped. */
+    public enum Hop {
+        /** The guest orders. */
+        ORDERED("ordered"),
+        /** The waiter asks the coffee house to approve the order: time in the waiter's mailbox. */
+        WAITER("waiter"),
+        /** The coffee house or its ledger approves the order: time in their mailboxes and journal. */
+        APPROVED("approval"),
+        /** The barista receives the order: time in the router, including overload retries. */
+        BARISTA("barista-mailbox"),
+        /** A slot is free to prepare the order: time waiting for an espresso machine. */
+        PREPARING("barista-queue"),
+        /** The coffee is prepared: prepare-coffee-duration, delivered on the next clock tick. */
+        PREPARED("preparation"),
+        /** The waiter serves the coffee: time in the waiter's mailbox again. */
+        SERVING("waiter-serving"),
+        /** The guest is served. */
+        SERVED("serving");
+
+        public final String stage;
+
+        Hop(String stage) {
+            this.stage = stage;
+        }
+    }
+
+    private static final Hop[] HOPS = Hop.values();
+
+    private final long[] nanos;
+
+    private OrderTrace(long[] nanos) {
+        this.nanos = nanos;
+    }
+
+    public static OrderTrace start() {
+        return new OrderTrace(new long[HOPS.length]).at(Hop.ORDERED);
+    }
+
+    /** The trace stamped at the hop, or {@code null} for an order without trace. */
+    public static OrderTrace at(OrderTrace trace, Hop hop) {
+        return trace == null ? null : trace.at(hop);
+    }
+
+    /** A copy stamped now at the hop; a hop passed again, e.g. on a retry, is stamped anew. */
+    public OrderTrace at(Hop hop) {
+        final long[] stamped = Arrays.copyOf(nanos, nanos.length);
+        stamped[hop.ordinal()] = System.nanoTime();
+        return new OrderTrace(stamped);
+    }
+
+    public boolean passed(Hop hop) {
+        return nanos[hop.ordinal()] != 0;
+    }
+
+    /** Time since the previous hop stamped, or -1 if the hop or no earlier one was stamped. */
+    public long stageNanos(Hop hop) {
+        if (!passed(hop)) return -1;
+        for (int previous = hop.ordinal() - 1; previous >= 0; previous--) {
+            if (nanos[previous] != 0) return nanos[hop.ordinal()] - nanos[previous];
+        }
+        return -1;
+    }
+
+    /** Time from the order to the last hop stamped. */
+    public long totalNanos() {
+        for (int last = HOPS.length - 1; last > 0; last--) {
+            if (nanos[last] != 0) return nanos[last] - nanos[0];
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("OrderTrace{");
+        for (Hop hop : HOPS) {
+            final long stage = stageNanos(hop);
+            if (stage >= 0) builder.append(hop.stage).append('=').append(stage / 1000).append("us, ");
+        }
+        return builder.append("total=").append(totalNanos() / 1000).append("us}").toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionId;
+import akka.actor.ExtensionIdProvider;
+import io.prometheus.client.Histogram;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Samples orders for an {@link OrderTrace} and records the stages of the traced orders served.
+ *
+ * A fraction of {@code coffee-house.tracing.sample-rate} orders is traced; at 0, the default, no
+ * order carries a trace and each hop costs a null check. The stage latencies are Prometheus
+ * histograms in the default registry, which the Cinnamon exporter of {@code telemetry.conf} serves.
+ */
+public final class OrderTracing implements Extension {
+
+    static final Histogram STAGE_LATENCY = Histogram.build()
+            .name("coffee_house_order_stage_seconds")
+            .help("Time sampled orders spent in each stage up to being served")
+            .labelNames("stage")
+            .buckets(CoffeeHouseMetrics.LATENCY_BOUNDS)
+            .register();
+
+    private static final OrderTrace.Hop[] HOPS = OrderTrace.Hop.values();
+
+    private static final Histogram.Child[] STAGES = new Histogram.Child[HOPS.length];
+
+    private static final Histogram.Child TOTAL = STAGE_LATENCY.labels("total");
+
+    static {
+        // No stage ends at the first hop
+        for (int i = 1; i < HOPS.length; i++) STAGES[i] = STAGE_LATENCY.labels(HOPS[i].stage);
+    }
+
+    private final double sampleRate;
+
+    public OrderTracing(double sampleRate) {
+        checkArgument(sampleRate >= 0 && sampleRate <= 1, "Sample rate must be between 0 and 1");
+        this.sampleRate = sampleRate;
+    }
+
+    public static OrderTracing get(ActorSystem system) {
+        return Id.INSTANCE.get(system);
+    }
+
+    /** A trace for a sampled order, {@code null} for the others. */
+    public OrderTrace start() {
+        if (sampleRate == 0) return null;
+        return sampleRate == 1 || ThreadLocalRandom.current().nextDouble() < sampleRate ? OrderTrace.start() : null;
+    }
+
+    /** Stamps the order served and records its stages; orders without trace are ignored. */
+    public void served(OrderTrace trace) {
+        if (trace == null) return;
+        final OrderTrace served = trace.at(OrderTrace.Hop.SERVED);
+        for (OrderTrace.Hop hop : HOPS) {
+            final long stageNanos = served.stageNanos(hop);
+            if (stageNanos >= 0) STAGES[hop.ordinal()].observe(stageNanos / 1e9);
+        }
+        TOTAL.observe(served.totalNanos() / 1e9);
+    }
+
+    public static final class Id extends AbstractExtensionId<OrderTracing> implements ExtensionIdProvider {
+
+        public static final Id INSTANCE = new Id();
+
+        private Id() {
+        }
+
+        @Override
+        public OrderTracing createExtension(ExtendedActorSystem system) {
+            return new OrderTracing(system.settings().config().getDouble("coffee-house.tracing.sample-rate"));
+        }
+
+        @Override
+        public ExtensionId<OrderTracing> lookup() {
+            return INSTANCE;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.persistence.AbstractPersistentActorWithTimers;
+import akka.persistence.DeleteMessagesFailure;
+import akka.persistence.DeleteMessagesSuccess;
+import akka.persistence.DeleteSnapshotsFailure;
+import akka.persistence.DeleteSnapshotsSuccess;
+import akka.persistence.RecoveryCompleted;
+import akka.persistence.SaveSnapshotFailure;
+import akka.persistence.SaveSnapshotSuccess;
+import akka.persistence.SnapshotOffer;
+import akka.persistence.SnapshotSelectionCriteria;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Event-sourced variant of {@link CaffeineLedger}, so caffeine counts survive a restart of the
+ * ledger.
+ *
+ * An approved coffee is only passed on to the barista once its {@link CaffeineIncremented} event
+ * is written. Approvals are collected into one event per {@code batchSize} approvals or per
+ * {@code flushInterval}, whichever comes first. Every {@code snapshotInterval} events the whole
+ * counter table is saved as a {@link LedgerSnapshot} and older events and snapshots are deleted,
+ * so recovery reads one snapshot and at most {@code snapshotInterval} events.
+ *
+ * Events are written asynchronously, so the guest book runs ahead of the journal. Snapshots are
+ * therefore taken from a second table holding only the written events, in the order written.
+ */
+public class PersistentCaffeineLedger extends AbstractPersistentActorWithTimers {
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+    private final String persistenceId;
+    private final ActorRef barista;
+    private final int caffeineLimit;
+    private final int batchSize;
+    private final FiniteDuration flushInterval;
+    private final int snapshotInterval;
+
+    private GuestLedger guestBook = new GuestLedger();
+    // The guest book as of the last event written, which is what a snapshot stands for
+    private GuestLedger written = new GuestLedger();
+
+    private final LongAdder approvals =
+            CoffeeHouseMetrics.get(getContext().getSystem()).counter("coffee-house.approvals");
+
+    /** Approvals counted in the guest book but not yet written. */
+    private List<CoffeeHouse.ApproveCoffee> pendingApprovals = new ArrayList<>();
+    private List<ActorRef> pendingSenders = new ArrayList<>();
+
+    private int eventsSinceSnapshot;
+
+    public PersistentCaffeineLedger(String persistenceId, ActorRef barista, int caffeineLimit,
+                                    int batchSize, FiniteDuration flushInterval, int snapshotInterval) {
+        checkArgument(batchSize > 0, "Batch size must be positive");
+        checkArgument(snapshotInterval > 0, "Snapshot interval must be positive");
+        this.persistenceId = persistenceId;
+        this.barista = barista;
+        this.caffeineLimit = caffeineLimit;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public static Props props(String persistenceId, ActorRef barista, int caffeineLimit,
+                              int batchSize, FiniteDuration flushInterval, int snapshotInterval) {
+        return Props.create(PersistentCaffeineLedger.class, () -> new PersistentCaffeineLedger(
+                persistenceId, barista, caffeineLimit, batchSize, flushInterval, snapshotInterval));
+    }
+
+    @Override
+    public String persistenceId() {
+        return persistenceId;
+    }
+
+    @Override
+    public Receive createReceiveRecover() {
+        return receiveBuilder()
+                .match(SnapshotOffer.class, offer -> {
+                    final LedgerSnapshot snapshot = (LedgerSnapshot) offer.snapshot();
+                    guestBook = restore(snapshot);
+                    written = restore(snapshot);
+                })
+                .match(Event.class, event -> {
+                    apply(guestBook, event);
+                    apply(written, event);
+                })
+                .match(RecoveryCompleted.class, completed -> {
+                    log.debug("Recovered {} guests", guestBook.size());
+                    final ActorRef[] recovered = new ActorRef[guestBook.size()];
+                    final int[] index = {0};
+                    guestBook.forEach((guest, count) -> recovered[index[0]++] = guest);
+                    self().tell(new WatchRecovered(recovered, 0), self());
+                })
+                .build();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(CaffeineLedger.AddGuest.class, addGuest -> {
+                    if (guestBook.add(addGuest.guest)) persistAsync(new GuestAdded(addGuest.guest), this::written);
+                })
+                .match(CaffeineLedger.RemoveGuest.class, removeGuest -> removeGuest(removeGuest.guest))
+                .match(Terminated.class, terminated -> removeGuest(terminated.getActor()))
+                .match(CaffeineLedger.RefundCoffee.class, refundCoffee -> {
+                    if (guestBook.tryDecrement(refundCoffee.guest)) {
+                        persistAsync(new CoffeeRefunded(refundCoffee.guest), this::written);
+                    }
+                })
+                .match(CoffeeHouse.ApproveCoffee.class,
+                        approveCoffee -> guestBook.tryIncrement(approveCoffee.guest, caffeineLimit),
+                        this::addPendingApproval)
+                .match(CoffeeHouse.ApproveCoffee.class,
+                        approveCoffee -> guestBook.contains(approveCoffee.guest),
+                        approveCoffee -> context().parent().tell(
+                                new CaffeineLedger.LimitReached(approveCoffee.guest), self()))
+                .match(CoffeeHouse.ApproveCoffee.class, approveCoffee ->
+                        log.warning("Unknown guest {} asked for coffee.", approveCoffee.guest))
+                .match(Flush.class, flush -> flush())
+                .match(WatchRecovered.class, this::watchRecovered)
+                .match(CoffeeHouse.GetStatus.class, getStatus ->
+                        sender().tell(new CoffeeHouse.Status(guestBook.size()), self()))
+                .match(SaveSnapshotSuccess.class, success -> {
+                    final long sequenceNr = success.metadata().sequenceNr();
+                    deleteMessages(sequenceNr);
+                    deleteSnapshots(SnapshotSelectionCriteria.create(sequenceNr - 1, Long.MAX_VALUE));
+                })
+                .match(SaveSnapshotFailure.class, failure ->
+                        log.warning("Saving snapshot failed: {}", failure.cause().getMessage()))
+                .match(DeleteMessagesFailure.class, failure ->
+                        log.warning("Deleting events failed: {}", failure.cause().getMessage()))
+                .match(DeleteSnapshotsFailure.class, failure ->
+                        log.warning("Deleting snapshots failed: {}", failure.cause().getMessage()))
+                .match(DeleteMessagesSuccess.class, success -> {
+                })
+                .match(DeleteSnapshotsSuccess.class, success -> {
+                })
+                .build();
+    }
+
+    private void removeGuest(ActorRef guest) {
+        if (guestBook.remove(guest)) persistAsync(new GuestRemoved(guest), this::written);
+    }
+
+    /**
+     * Guests that stopped while the ledger was down are removed on Terminated. Watching a large
+     * guest book takes a while, so it is done in chunks between regular messages.
+     */
+    private void watchRecovered(WatchRecovered watchRecovered) {
+        final int end = Math.min(watchRecovered.guests.length, watchRecovered.from + WatchRecovered.CHUNK_SIZE);
+        for (int i = watchRecovered.from; i < end; i++) context().watch(watchRecovered.guests[i]);
+        if (end < watchRecovered.guests.length) self().tell(new WatchRecovered(watchRecovered.guests, end), self());
+    }
+
+    private void addPendingApproval(CoffeeHouse.ApproveCoffee approveCoffee) {
+        pendingApprovals.add(approveCoffee);
+        pendingSenders.add(sender());
+        if (pendingApprovals.size() >= batchSize) {
+            flush();
+        } else if (pendingApprovals.size() == 1) {
+            timers().startSingleTimer(Flush.class, Flush.Instance, flushInterval);
+        }
+    }
+
+    private void flush() {
+        timers().cancel(Flush.class);
+        if (pendingApprovals.isEmpty()) return;
+        final List<CoffeeHouse.ApproveCoffee> approvals = pendingApprovals;
+        final List<ActorRef> senders = pendingSenders;
+        pendingApprovals = new ArrayList<>();
+        pendingSenders = new ArrayList<>();
+        final ActorRef[] guests = new ActorRef[approvals.size()];
+        for (int i = 0; i < guests.length; i++) guests[i] = approvals.get(i).guest;
+        persistAsync(new CaffeineIncremented(guests), incremented -> {
+            for (int i = 0; i < approvals.size(); i++) {
+                barista.tell(approvals.get(i).approved(), senders.get(i));
+            }
+            this.approvals.add(approvals.size());
+            written(incremented);
+        });
+    }
+
+    private static GuestLedger restore(LedgerSnapshot snapshot) {
+        final GuestLedger restored = new GuestLedger(snapshot.guests.length);
+        for (int i = 0; i < snapshot.guests.length; i++) restored.add(snapshot.guests[i], snapshot.counts[i]);
+        return restored;
+    }
+
+    private static void apply(GuestLedger ledger, Event event) {
+        if (event instanceof GuestAdded) {
+            ledger.add(((GuestAdded) event).guest);
+        } else if (event instanceof GuestRemoved) {
+            ledger.remove(((GuestRemoved) event).guest);
+        } else if (event instanceof CoffeeRefunded) {
+            ledger.tryDecrement(((CoffeeRefunded) event).guest);
+        } else if (event instanceof CaffeineIncremented) {
+            for (ActorRef guest : ((CaffeineIncremented) event).guests) ledger.tryIncrement(guest, Integer.MAX_VALUE);
+        }
+    }
+
+    private void written(Event event) {
+        apply(written, event);
+        if (++eventsSinceSnapshot >= snapshotInterval) {
+            eventsSinceSnapshot = 0;
+            saveSnapshot(snapshot());
+        }
+    }
+
+    /** The counts of all events up to {@code lastSequenceNr}, the last one written. */
+    private LedgerSnapshot snapshot() {
+        final ActorRef[] guests = new ActorRef[written.size()];
+        final int[] counts = new int[guests.length];
+        final int[] index = {0};
+        written.forEach((guest, count) -> {
+            guests[index[0]] = guest;
+            counts[index[0]] = count;
+            index[0]++;
+        });
+        return new LedgerSnapshot(guests, counts);
+    }
+
+    private static final class WatchRecovered {
+        static final int CHUNK_SIZE = 10_000;
+
+        final ActorRef[] guests;
+        final int from;
+
+        WatchRecovered(ActorRef[] guests, int from) {
+            this.guests = guests;
+            this.from = from;
+        }
+    }
+
+    private static final class Flush {
+        static final Flush Instance = new Flush();
+
+        private Flush() {
+        }
+    }
+
+    /**
+     * Marker for the events and snapshot of the ledger, bound to {@link CaffeineLedgerSerializer}.
+     */
+    public interface Event {
+    }
+
+    public static final class GuestAdded implements Event {
+        public final ActorRef guest;
+
+        public GuestAdded(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            GuestAdded that = (GuestAdded) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "GuestAdded{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    public static final class GuestRemoved implements Event {
+        public final ActorRef guest;
+
+        public GuestRemoved(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            GuestRemoved that = (GuestRemoved) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "GuestRemoved{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    /**
+     * One coffee more for each of the guests; a guest appears once per approved coffee.
+     */
+    public static final class CaffeineIncremented implements Event {
+        public final ActorRef[] guests;
+
+        public CaffeineIncremented(ActorRef[] guests) {
+            checkNotNull(guests, "Guests cannot be null");
+            this.guests = guests;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CaffeineIncremented that = (CaffeineIncremented) o;
+            return Arrays.equals(guests, that.guests);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(guests);
+        }
+
+        @Override
+        public String toString() {
+            return "CaffeineIncremented{" +
+                    "guests=" + Arrays.toString(guests) +
+                    '}';
+        }
+    }
+
+    /**
+     * One coffee less for the guest, whose approved coffee was not prepared.
+     */
+    public static final class CoffeeRefunded implements Event {
+        public final ActorRef guest;
+
+        public CoffeeRefunded(ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guest = guest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CoffeeRefunded that = (CoffeeRefunded) o;
+            return Objects.equals(guest, that.guest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guest);
+        }
+
+        @Override
+        public String toString() {
+            return "CoffeeRefunded{" +
+                    "guest=" + guest +
+                    '}';
+        }
+    }
+
+    public static final class LedgerSnapshot implements Event {
+        public final ActorRef[] guests;
+        public final int[] counts;
+
+        public LedgerSnapshot(ActorRef[] guests, int[] counts) {
+            checkNotNull(guests, "Guests cannot be null");
+            checkNotNull(counts, "Counts cannot be null");
+            checkArgument(guests.length == counts.length, "Every guest needs a count");
+            this.guests = guests;
+            this.counts = counts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LedgerSnapshot that = (LedgerSnapshot) o;
+            return Arrays.equals(guests, that.guests) &&
+                    Arrays.equals(counts, that.counts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(guests) + Arrays.hashCode(counts);
+        }
+
+        @Override
+        public String toString() {
+            return "LedgerSnapshot{" +
+                    "guests=" + guests.length +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ShardRegion;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link Guest} as an entity of the cluster sharded guests, see {@link CoffeeHouseSharding}.
+ *
+ * Sharding starts the entity on whichever node owns its shard, so it is seated by its
+ * {@link Arrive} message: it is bound to a waiter of that node and orders through it. When the
+ * guest or its caffeine ledger finds the limit reached, the guest leaves by passivating itself.
+ *
+ * When its shard is handed off to another node, the guest is stopped with {@link HandOff} and
+ * arrives again there with the coffees it had. Its ledger counts by actor ref, so the new
+ * incarnation first moves the count of the previous one with {@link CaffeineLedger.MoveGuest}
+ * and only orders once the ledger confirmed it.
+ */
+public class ShardedGuest extends Guest {
+
+    private final ActorRef[] waiters;
+    private final FiniteDuration coffeeFinishedDuration;
+    private final ActorRef ledgers;
+
+    private Arrive arrival;
+    private boolean handingOff = false;
+
+    private final LongAdder residentGuests =
+            CoffeeHouseMetrics.get(context().system()).gauge("coffee-house.guests");
+
+    public ShardedGuest(ActorRef[] waiters, FiniteDuration coffeeFinishedDuration, ActorRef ledgers) {
+        checkArgument(waiters.length > 0, "Waiters cannot be empty");
+        this.waiters = waiters;
+        this.coffeeFinishedDuration = coffeeFinishedDuration;
+        this.ledgers = ledgers;
+    }
+
+    public static Props props(ActorRef[] waiters, FiniteDuration coffeeFinishedDuration, ActorRef ledgers) {
+        return Props.create(ShardedGuest.class, () -> new ShardedGuest(waiters, coffeeFinishedDuration, ledgers));
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Arrive.class, arrive -> {
+                    arrival = arrive;
+                    if (arrive.previous == null) {
+                        seat();
+                    } else {
+                        ledgers.tell(new CaffeineLedger.MoveGuest(arrive.previous, self()), self());
+                        getContext().become(moving());
+                    }
+                })
+                .build();
+    }
+
+    private Receive moving() {
+        return receiveBuilder()
+                .match(CaffeineLedger.GuestMoved.class, guestMoved -> {
+                    if (handingOff) {
+                        arriveElsewhere(arrival.coffeeCount);
+                    } else {
+                        seat();
+                    }
+                })
+                .match(HandOff.class, handOff -> handingOff = true)
+                .match(Arrive.class, arrive -> log().debug("Already arriving, ignoring {}", arrive))
+                .build();
+    }
+
+    private Receive seated() {
+        return receiveBuilder()
+                .match(CaffeineLedger.LimitReached.class, limitReached -> {
+                    log().info("Sorry, I have reached my limit.");
+                    leave();
+                })
+                .match(HandOff.class, handOff -> arriveElsewhere(coffeeCount()))
+                .match(Arrive.class, arrive -> log().debug("Already seated, ignoring {}", arrive))
+                .build()
+                .orElse(super.createReceive());
+    }
+
+    private void seat() {
+        seat(waiters[Math.floorMod(arrival.guestId.hashCode(), waiters.length)],
+                arrival.favoriteCoffee, coffeeFinishedDuration, arrival.guestCaffeineLimit, arrival.coffeeCount);
+        getContext().become(seated());
+    }
+
+    /**
+     * Stops for the hand-off of the shard; the region buffers the arrival until the shard is
+     * started on its new node, and the ledger keeps the count under this incarnation till then.
+     */
+    private void arriveElsewhere(int coffeeCount) {
+        log().debug("Handed off after {} coffees", coffeeCount);
+        ClusterSharding.get(context().system()).shardRegion(CoffeeHouseSharding.GUEST_TYPE_NAME).tell(
+                new Arrive(arrival.guestId, arrival.favoriteCoffee, arrival.guestCaffeineLimit, coffeeCount, self()),
+                self());
+        context().stop(self());
+    }
+
+    @Override
+    protected void caffeineLimitReached() {
+        leave();
+    }
+
+    private void leave() {
+        ledgers.tell(new CaffeineLedger.RemoveGuest(self()), self());
+        getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), self());
+    }
+
+    @Override
+    public void preStart() {
+        residentGuests.increment();
+    }
+
+    @Override
+    public void postStop() {
+        residentGuests.decrement();
+        super.postStop();
+    }
+
+    /**
+     * Starts the guest entity of the given id; the id must be URL safe, as it names the actor. A
+     * guest arriving from a handed off shard has its coffees and the incarnation it replaces.
+     */
+    public static final class Arrive {
+        public final String guestId;
+        public final Coffee favoriteCoffee;
+        public final int guestCaffeineLimit;
+        public final int coffeeCount;
+        /** The incarnation on the node the shard was handed off from, {@code null} on first arrival. */
+        public final ActorRef previous;
+
+        public Arrive(String guestId, Coffee favoriteCoffee, int guestCaffeineLimit) {
+            this(guestId, favoriteCoffee, guestCaffeineLimit, 0, null);
+        }
+
+        public Arrive(String guestId, Coffee favoriteCoffee, int guestCaffeineLimit, int coffeeCount,
+                      ActorRef previous) {
+            checkNotNull(guestId, "Guest id cannot be null");
+            checkNotNull(favoriteCoffee, "Favorite coffee cannot be null");
+            checkArgument(coffeeCount >= 0, "Coffee count cannot be negative");
+            this.guestId = guestId;
+            this.favoriteCoffee = favoriteCoffee;
+            this.guestCaffeineLimit = guestCaffeineLimit;
+            this.coffeeCount = coffeeCount;
+            this.previous = previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Arrive that = (Arrive) o;
+            return guestCaffeineLimit == that.guestCaffeineLimit &&
+                    coffeeCount == that.coffeeCount &&
+                    Objects.equals(guestId, that.guestId) &&
+                    Objects.equals(favoriteCoffee, that.favoriteCoffee) &&
+                    Objects.equals(previous, that.previous);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(guestId, favoriteCoffee, guestCaffeineLimit, coffeeCount, previous);
+        }
+
+        @Override
+        public String toString() {
+            return "Arrive{" +
+                    "guestId='" + guestId + '\'' +
+                    ", favoriteCoffee=" + favoriteCoffee +
+                    ", guestCaffeineLimit=" + guestCaffeineLimit +
+                    ", coffeeCount=" + coffeeCount +
+                    ", previous=" + previous +
+                    '}';
+        }
+    }
+
+    /** Stops the guest for the hand-off of its shard, see {@link CoffeeHouseSharding}. */
+    public static final class HandOff {
+        public static final HandOff Instance = new HandOff();
+
+        private HandOff() {
+        }
+    }
+}
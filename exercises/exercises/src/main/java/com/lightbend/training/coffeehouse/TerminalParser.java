@@ -0,0 +1,217 @@
+package com.lightbend.training.coffeehouse;
+
+import com.lightbend.training.coffeehouse.TerminalCommand.Guest;
+import com.lightbend.training.coffeehouse.TerminalCommand.Quit;
+import com.lightbend.training.coffeehouse.TerminalCommand.Status;
+import com.lightbend.training.coffeehouse.TerminalCommand.Unknown;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+/**
+ * Single pass parser of terminal commands, reading a line in place without regular expressions or
+ * intermediate strings; only unknown commands are copied into a string. The grammar is
+ * <pre>
+ * guest:  [count] ws* ("guest" | "g") ws* [coffee code] ws* [max coffee count]
+ * status: "status" | "s"
+ * quit:   "quit" | "q"
+ * </pre>
+ * where counts are ASCII digits and a count beyond {@link Integer#MAX_VALUE} is rejected with a
+ * {@link NumberFormatException}.
+ *
+ * Chunks of several commands are split into lines at {@code '\n'}, dropping a preceding
+ * {@code '\r'}. Byte chunks are read as UTF-8, so a command is only recognized in ASCII.
+ */
+public final class TerminalParser {
+
+    private TerminalParser() {
+    }
+
+    public static TerminalCommand parse(final CharSequence s) {
+        return parse(s, 0, s.length());
+    }
+
+    /** Parses the command in {@code s} from {@code start} inclusive to {@code end} exclusive. */
+    public static TerminalCommand parse(final CharSequence s, final int start, final int end) {
+        final TerminalCommand guest = parseGuest(s, start, end);
+        if (guest != null) return guest;
+        if (is(s, start, end, "status") || is(s, start, end, "s")) return Status.Instance;
+        if (is(s, start, end, "quit") || is(s, start, end, "q")) return Quit.Instance;
+        return new Unknown(s.subSequence(start, end).toString());
+    }
+
+    /**
+     * Parses every line of the chunk, including a last line without line terminator, until the
+     * handler returns {@code false}.
+     *
+     * @return {@code false} if the handler stopped the parsing
+     */
+    public static boolean parseLines(final CharSequence chunk, final Predicate<TerminalCommand> handler) {
+        final int end = chunk.length();
+        int lineStart = 0;
+        for (int i = 0; i < end; i++) {
+            if (chunk.charAt(i) == '\n') {
+                if (!handler.test(parse(chunk, lineStart, lineEnd(chunk, lineStart, i)))) return false;
+                lineStart = i + 1;
+            }
+        }
+        return lineStart == end || handler.test(parse(chunk, lineStart, lineEnd(chunk, lineStart, end)));
+    }
+
+    /**
+     * Parses the complete lines between the position and the limit of the chunk until the handler
+     * returns {@code false}, and moves the position past the last parsed line. A last line without
+     * line terminator is only parsed at the {@code endOfInput}, otherwise it is left in the chunk
+     * to be completed by the next read.
+     *
+     * @return {@code false} if the handler stopped the parsing
+     */
+    public static boolean parseLines(final ByteBuffer chunk, final boolean endOfInput,
+                                     final Predicate<TerminalCommand> handler) {
+        final Utf8Sequence s = new Utf8Sequence(chunk);
+        final int end = chunk.limit();
+        int lineStart = chunk.position();
+        for (int i = lineStart; i < end; i++) {
+            if (chunk.get(i) == '\n') {
+                final boolean more = handler.test(parse(s, lineStart, lineEnd(s, lineStart, i)));
+                lineStart = i + 1;
+                if (!more) {
+                    chunk.position(lineStart);
+                    return false;
+                }
+            }
+        }
+        if (endOfInput && lineStart < end) {
+            chunk.position(end);
+            return handler.test(parse(s, lineStart, lineEnd(s, lineStart, end)));
+        }
+        chunk.position(lineStart);
+        return true;
+    }
+
+    private static TerminalCommand parseGuest(final CharSequence s, final int start, final int end) {
+        // No part of the grammar can give back what a previous part consumed, so no backtracking
+        final int countEnd = skipDigits(s, start, end);
+        int i = skipWhitespace(s, countEnd, end);
+        if (startsWith(s, i, end, "guest")) {
+            i += 5;
+        } else if (i < end && s.charAt(i) == 'g') {
+            i += 1;
+        } else {
+            return null;
+        }
+        i = skipWhitespace(s, i, end);
+        Coffee coffee = Coffee.AKKACCINO;
+        if (i < end) {
+            final Coffee ordered = coffee(s.charAt(i));
+            if (ordered != null) {
+                coffee = ordered;
+                i++;
+            }
+        }
+        i = skipWhitespace(s, i, end);
+        final int maxCoffeeCountStart = i;
+        i = skipDigits(s, i, end);
+        if (i != end) return null;
+        final int count = countEnd > start ? parseInt(s, start, countEnd) : 1;
+        final int maxCoffeeCount =
+            end > maxCoffeeCountStart ? parseInt(s, maxCoffeeCountStart, end) : Integer.MAX_VALUE;
+        return new Guest(count, coffee, maxCoffeeCount);
+    }
+
+    private static Coffee coffee(final char c) {
+        switch (c) {
+            case 'A':
+            case 'a':
+                return Coffee.AKKACCINO;
+            case 'M':
+            case 'm':
+                return Coffee.MOCHA_PLAY;
+            case 'C':
+            case 'c':
+                return Coffee.CAFFE_JAVA;
+            default:
+                return null;
+        }
+    }
+
+    private static int parseInt(final CharSequence s, final int start, final int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = s.charAt(i) - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException(
+                    String.format("For input string: \"%s\"", s.subSequence(start, end)));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int skipDigits(final CharSequence s, int i, final int end) {
+        while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') i++;
+        return i;
+    }
+
+    /** Skips the characters of the regular expression class {@code \s}. */
+    private static int skipWhitespace(final CharSequence s, int i, final int end) {
+        while (i < end) {
+            final char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') break;
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean startsWith(final CharSequence s, final int i, final int end, final String prefix) {
+        if (end - i < prefix.length()) return false;
+        for (int j = 0; j < prefix.length(); j++) {
+            if (s.charAt(i + j) != prefix.charAt(j)) return false;
+        }
+        return true;
+    }
+
+    private static boolean is(final CharSequence s, final int start, final int end, final String word) {
+        return end - start == word.length() && startsWith(s, start, end, word);
+    }
+
+    private static int lineEnd(final CharSequence s, final int start, final int end) {
+        return end > start && s.charAt(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * The bytes of a buffer by absolute index; bytes beyond ASCII never match the grammar, so they
+     * are only decoded when an unknown command is copied.
+     */
+    private static final class Utf8Sequence implements CharSequence {
+
+        private final ByteBuffer buffer;
+
+        Utf8Sequence(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int length() {
+            return buffer.limit();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return (char) (buffer.get(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            final byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
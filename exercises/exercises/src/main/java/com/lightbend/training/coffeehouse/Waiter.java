@@ -2,11 +2,33 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import com.google.common.collect.ImmutableList;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Takes the orders of its guests to the coffee house for approval and serves the prepared
+ * coffees. With a {@code batchSize} above one the orders are approved in batches: an
+ * {@link CoffeeHouse.ApproveCoffees} is sent once {@code batchSize} orders are pending, or
+ * {@code batchWindow} after the first of them, whichever comes first.
+ *
+ * Given the {@link CaffeineCounters} of the coffee house, the waiter approves the orders of the
+ * guests known to them itself and hands them straight to the barista; a guest at its limit is
+ * reported to the coffee house with {@link CaffeineLedger.LimitReached}. Other orders, e.g. of
+ * simulated guests, are still approved by the coffee house.
+ */
 public class Waiter extends AbstractLoggingActor {
 
     private final ActorRef coffeeHouse;
@@ -17,39 +39,218 @@ public class Waiter extends AbstractLoggingActor {
 
     private int complaintCount;
 
-    public Waiter(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount) {
+    private final FiniteDuration overloadBackoff;
+
+    private final int maxOverloadRetries;
+
+    private final Map<ActorRef,Integer> overloadRetries = new HashMap<>();
+
+    private final int batchSize;
+
+    private final FiniteDuration batchWindow;
+
+    private final List<CoffeeHouse.ApproveCoffee> pendingApprovals = new ArrayList<>();
+
+    private Cancellable batchTimeout;
+
+    private final CaffeineCounters counters;
+
+    private final LongAdder orders =
+            CoffeeHouseMetrics.get(context().system()).counter("waiter.orders");
+
+    private final LongAdder coffeesServed =
+            CoffeeHouseMetrics.get(context().system()).counter("waiter.coffees-served");
+
+    private final CoffeeHouseStatus status = CoffeeHouseStatus.get(context().system());
+
+    private final LongAdder complaints =
+            CoffeeHouseMetrics.get(context().system()).counter("waiter.complaints");
+
+    private final LongAdder retriedOrders =
+            CoffeeHouseMetrics.get(context().system()).counter("waiter.overload-retries");
+
+    private final LongAdder unavailableOrders =
+            CoffeeHouseMetrics.get(context().system()).counter("waiter.coffee-unavailable");
+
+    private final LongAdder approvals =
+            CoffeeHouseMetrics.get(context().system()).counter("coffee-house.approvals");
+
+    public Waiter(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount,
+                  FiniteDuration overloadBackoff, int maxOverloadRetries,
+                  int batchSize, FiniteDuration batchWindow, CaffeineCounters counters) {
+        checkArgument(batchSize > 0, "Batch size must be positive");
         this.coffeeHouse = coffeeHouse;
         this.barista = barista;
         this.maxComplaintCount = maxComplaintCount;
+        this.overloadBackoff = overloadBackoff;
+        this.maxOverloadRetries = maxOverloadRetries;
+        this.batchSize = batchSize;
+        this.batchWindow = batchWindow;
+        this.counters = counters;
+    }
+
+    public Waiter(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount,
+                  FiniteDuration overloadBackoff, int maxOverloadRetries,
+                  int batchSize, FiniteDuration batchWindow) {
+        this(coffeeHouse,barista,maxComplaintCount,overloadBackoff,maxOverloadRetries,batchSize,batchWindow,null);
+    }
+
+    public Waiter(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount,
+                  FiniteDuration overloadBackoff, int maxOverloadRetries) {
+        this(coffeeHouse,barista,maxComplaintCount,overloadBackoff,maxOverloadRetries,
+                1,FiniteDuration.Zero());
+    }
+
+    public Waiter(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount) {
+        this(coffeeHouse,barista,maxComplaintCount,FiniteDuration.create(100,TimeUnit.MILLISECONDS),3);
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder().
-                match(ServeCoffee.class, serveCoffee -> coffeeHouse.tell
-                        (new CoffeeHouse.ApproveCoffee(serveCoffee.coffee,sender()),self())).
-                match(Barista.CoffeePrepared.class, coffeePrepared ->
+                match(ServeCoffee.class, serveCoffee -> {
+                        orders.increment();
+                        approve(serveCoffee,sender());
+                }).
+                match(ServeCoffees.class, serveCoffees -> {
+                        orders.add(serveCoffees.orders.size());
+                        for (ServeCoffee serveCoffee : serveCoffees.orders) approve(serveCoffee,sender());
+                }).
+                match(BatchTimeout.class, timeout -> flushApprovals()).
+                match(Barista.CoffeePrepared.class, coffeePrepared -> {
+                        if (!overloadRetries.isEmpty()) overloadRetries.remove(coffeePrepared.guest);
+                        coffeesServed.increment();
+                        status.served(coffeePrepared.coffee);
                         coffeePrepared.guest.tell
-                        (new CoffeeServed(coffeePrepared.coffee),self())).
+                        (new CoffeeServed(coffeePrepared.coffee,
+                                OrderTrace.at(coffeePrepared.trace,OrderTrace.Hop.SERVING)),self());
+                }).
+                match(Barista.BaristaOverloaded.class, overloaded -> retryOrGiveUp(overloaded.prepareCoffee)).
                 match(Complaint.class,
                         complaint -> complaintCount == this.maxComplaintCount,
-                        complaint -> {throw new FrustratedException(complaint.coffee,sender());} ).
+                        complaint -> {
+                            complaints.increment();
+                            throw new FrustratedException(complaint.coffee,sender(),complaint.trace);
+                        }).
                 match(Complaint.class, complaint -> {
+                   complaints.increment();
                    complaintCount++;
-                   this.barista.tell(new Barista.PrepareCoffee(complaint.coffee,sender()),self());
+                   this.barista.tell(new Barista.PrepareCoffee(complaint.coffee,sender(),complaint.trace),self());
                 }).
                 build();
     }
 
+    private void approve(ServeCoffee serveCoffee, ActorRef guest) {
+        final CoffeeHouse.ApproveCoffee approveCoffee = new CoffeeHouse.ApproveCoffee(serveCoffee.coffee,guest,
+                OrderTrace.at(serveCoffee.trace,OrderTrace.Hop.WAITER));
+        if (counters != null && approveInline(approveCoffee)) return;
+        if (batchSize == 1) {
+            coffeeHouse.tell(approveCoffee,self());
+            return;
+        }
+        pendingApprovals.add(approveCoffee);
+        if (pendingApprovals.size() >= batchSize) {
+            flushApprovals();
+        } else if (pendingApprovals.size() == 1) {
+            batchTimeout = context().system().scheduler().scheduleOnce(batchWindow,self(),BatchTimeout.Instance,
+                    context().dispatcher(),self());
+        }
+    }
+
+    /** Returns false for guests unknown to the shared counters, which the coffee house approves. */
+    private boolean approveInline(CoffeeHouse.ApproveCoffee approveCoffee) {
+        switch (counters.tryIncrement(approveCoffee.guest)) {
+            case APPROVED:
+                approvals.increment();
+                barista.tell(approveCoffee.approved(),self());
+                return true;
+            case LIMIT_REACHED:
+                coffeeHouse.tell(new CaffeineLedger.LimitReached(approveCoffee.guest),self());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void flushApprovals() {
+        if (batchTimeout != null) {
+            batchTimeout.cancel();
+            batchTimeout = null;
+        }
+        if (pendingApprovals.isEmpty()) return;
+        coffeeHouse.tell(CoffeeHouse.ApproveCoffees.of(pendingApprovals),self());
+        pendingApprovals.clear();
+    }
+
+    /** Also called before a restart, so the pending orders of a frustrated waiter are not lost. */
+    @Override
+    public void postStop() {
+        flushApprovals();
+    }
+
+    /**
+     * Sends the order to the barista again after an exponential backoff; once the retries are
+     * used up, the guest is told to come back later.
+     */
+    private void retryOrGiveUp(Barista.PrepareCoffee prepareCoffee) {
+        final int retries = overloadRetries.getOrDefault(prepareCoffee.guest,0);
+        if (retries < maxOverloadRetries) {
+            overloadRetries.put(prepareCoffee.guest,retries + 1);
+            retriedOrders.increment();
+            context().system().scheduler().scheduleOnce(overloadBackoff.mul(1L << Math.min(retries,16)),
+                    barista,prepareCoffee,context().dispatcher(),self());
+        } else {
+            overloadRetries.remove(prepareCoffee.guest);
+            unavailableOrders.increment();
+            log().info("Sorry {}, the baristas are overloaded.",prepareCoffee.guest);
+            // The coffee was counted against the guest's caffeine limit when it was approved
+            if (counters == null || !counters.tryDecrement(prepareCoffee.guest)) {
+                coffeeHouse.tell(new CaffeineLedger.RefundCoffee(prepareCoffee.guest),self());
+            }
+            prepareCoffee.guest.tell(new CoffeeUnavailable(prepareCoffee.coffee),self());
+        }
+    }
+
     public static Props props(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount) {
         return Props.create(Waiter.class, () -> new Waiter(coffeeHouse,barista,maxComplaintCount));
     }
 
+    public static Props props(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount,
+                              FiniteDuration overloadBackoff, int maxOverloadRetries) {
+        return Props.create(Waiter.class, () ->
+                new Waiter(coffeeHouse,barista,maxComplaintCount,overloadBackoff,maxOverloadRetries));
+    }
+
+    public static Props props(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount,
+                              FiniteDuration overloadBackoff, int maxOverloadRetries,
+                              int batchSize, FiniteDuration batchWindow) {
+        return Props.create(Waiter.class, () -> new Waiter(coffeeHouse,barista,maxComplaintCount,
+                overloadBackoff,maxOverloadRetries,batchSize,batchWindow));
+    }
+
+    public static Props props(ActorRef coffeeHouse,ActorRef barista, int maxComplaintCount,
+                              FiniteDuration overloadBackoff, int maxOverloadRetries,
+                              int batchSize, FiniteDuration batchWindow, CaffeineCounters counters) {
+        return Props.create(Waiter.class, () -> new Waiter(coffeeHouse,barista,maxComplaintCount,
+                overloadBackoff,maxOverloadRetries,batchSize,batchWindow,counters));
+    }
+
+    private static final class BatchTimeout {
+        static final BatchTimeout Instance = new BatchTimeout();
+    }
+
     public static final class ServeCoffee {
         public  final Coffee coffee;
+        /** Trace of a sampled order, {@code null} otherwise; not part of equality. */
+        public final OrderTrace trace;
 
         protected ServeCoffee(Coffee coffee) {
+            this(coffee,null);
+        }
+
+        protected ServeCoffee(Coffee coffee, OrderTrace trace) {
             this.coffee = coffee;
+            this.trace = trace;
         }
 
         @Override
@@ -73,11 +274,53 @@ public class Waiter extends AbstractLoggingActor {
         }
     }
 
+    /** Several orders of the same guest, the sender, each served on its own. */
+    public static final class ServeCoffees {
+        public final List<ServeCoffee> orders;
+
+        public ServeCoffees(List<ServeCoffee> orders) {
+            checkNotNull(orders,"Orders cannot be Null");
+            this.orders = ImmutableList.copyOf(orders);
+        }
+
+        /** A single order is sent as a plain {@link ServeCoffee}. */
+        static Object of(List<ServeCoffee> orders) {
+            return orders.size() == 1 ? orders.get(0) : new ServeCoffees(orders);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ServeCoffees that = (ServeCoffees) o;
+            return Objects.equals(orders, that.orders);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orders);
+        }
+
+        @Override
+        public String toString() {
+            return "ServeCoffees{" +
+                    "orders=" + orders +
+                    '}';
+        }
+    }
+
     public static final class CoffeeServed {
         public final Coffee coffee;
+        /** Trace of a sampled order, {@code null} otherwise; not part of equality. */
+        public final OrderTrace trace;
 
         public CoffeeServed(Coffee coffee) {
+            this(coffee,null);
+        }
+
+        public CoffeeServed(Coffee coffee, OrderTrace trace) {
             this.coffee = coffee;
+            this.trace = trace;
         }
 
         @Override
@@ -101,12 +344,20 @@ public class Waiter extends AbstractLoggingActor {
         }
     }
 
+    /** Carries the trace of the wrong coffee on to the one prepared again. */
     public static final class Complaint {
         public final Coffee coffee;
+        /** Trace of a sampled order, {@code null} otherwise; not part of equality. */
+        public final OrderTrace trace;
 
         public Complaint(final Coffee coffee) {
+            this(coffee,null);
+        }
+
+        public Complaint(final Coffee coffee, OrderTrace trace) {
             checkNotNull(coffee,"Coffee cannot be Null");
             this.coffee = coffee;
+            this.trace = trace;
         }
 
         @Override
@@ -130,15 +381,51 @@ public class Waiter extends AbstractLoggingActor {
         }
     }
 
+    public static final class CoffeeUnavailable {
+        public final Coffee coffee;
+
+        public CoffeeUnavailable(final Coffee coffee) {
+            checkNotNull(coffee,"Coffee cannot be Null");
+            this.coffee = coffee;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CoffeeUnavailable that = (CoffeeUnavailable) o;
+            return Objects.equals(coffee, that.coffee);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(coffee);
+        }
+
+        @Override
+        public String toString() {
+            return "CoffeeUnavailable{" +
+                    "coffee=" + coffee +
+                    '}';
+        }
+    }
+
     public static final class FrustratedException extends IllegalStateException {
         static final long serialVersionUID = 1L;
         public final Coffee coffee;
         public final ActorRef guest;
+        /** Trace of a sampled order, {@code null} otherwise. */
+        public final transient OrderTrace trace;
 
         public FrustratedException(Coffee coffee, ActorRef guest) {
+            this(coffee,guest,null);
+        }
+
+        public FrustratedException(Coffee coffee, ActorRef guest, OrderTrace trace) {
             super("Too many complaints!");
             this.coffee = coffee;
             this.guest = guest;
+            this.trace = trace;
         }
     }
 }
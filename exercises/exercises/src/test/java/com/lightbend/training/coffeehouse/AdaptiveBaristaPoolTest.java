@@ -0,0 +1,99 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.routing.ActorRefRoutee;
+import akka.routing.GetRoutees;
+import akka.routing.Routee;
+import akka.routing.Routees;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+import scala.collection.immutable.IndexedSeq;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveBaristaPoolTest extends BaseAkkaTestCase {
+
+  private AdaptiveBaristaPool pool(String resizer) {
+    return new AdaptiveBaristaPool(ConfigFactory.parseString(
+            "nr-of-instances = 1\nresizer {\n" + resizer + "\n}"));
+  }
+
+  private IndexedSeq<Routee> routees(ActorRef... refs) {
+    List<Routee> routees = new ArrayList<>();
+    for (ActorRef ref : refs) routees.add(new ActorRefRoutee(ref));
+    return CollectionConverters.asScala(routees).toIndexedSeq();
+  }
+
+  private ActorRef barista(int outstanding, int slots) {
+    ActorRef ref = new TestKit(system).getRef();
+    BaristaLoad.Load load = BaristaLoad.get(system).of(ref);
+    load.slots(slots);
+    for (int i = 0; i < outstanding; i++) load.routed();
+    return ref;
+  }
+
+  @Test
+  public void shouldRouteOrdersToTheBaristaWithFewestOutstandingOrdersPerSlot() {
+    ActorRef busy = barista(3, 1);
+    ActorRef idle = barista(2, 4);
+    ActorRef half = barista(1, 2);
+    AdaptiveBaristaPool pool = pool("");
+    Barista.PrepareCoffee order = new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters());
+
+    Routee selected = pool.createRouter(system).logic().select(order, routees(busy, idle, half));
+
+    assertThat(selected).isEqualTo(new ActorRefRoutee(idle));
+    assertThat(BaristaLoad.get(system).of(idle).outstanding()).isEqualTo(3);
+  }
+
+  @Test
+  public void shouldGrowOnceAllBaristasAreUnderPressure() {
+    AdaptiveBaristaPool pool = pool("lower-bound = 1, upper-bound = 10, rampup-rate = 0.5");
+    pool.createRouter(system);
+
+    int adjustment = pool.resizer().get().resize(routees(barista(3, 1), barista(2, 1), barista(8, 4), barista(5, 2)));
+
+    assertThat(adjustment).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldNotGrowWhileSomeBaristaHasIdleSlots() {
+    AdaptiveBaristaPool pool = pool("lower-bound = 1, upper-bound = 10");
+    pool.createRouter(system);
+
+    assertThat(pool.resizer().get().resize(routees(barista(3, 1), barista(1, 2)))).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldShrinkWhenFewSlotsAreBusyButNotBelowTheLowerBound() {
+    AdaptiveBaristaPool pool = pool("lower-bound = 2, upper-bound = 10");
+    pool.createRouter(system);
+
+    assertThat(pool.resizer().get().resize(routees(barista(1, 1), barista(0, 1), barista(0, 1), barista(0, 1))))
+            .isEqualTo(-1);
+    assertThat(pool.resizer().get().resize(routees(barista(0, 1), barista(0, 1)))).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldGrowTheRunningPoolUnderABurstOfOrders() {
+    new TestKit(system) {{
+      AdaptiveBaristaPool pool = pool("lower-bound = 1, upper-bound = 4, messages-per-resize = 1, rampup-rate = 1");
+      ActorRef baristas = system.actorOf(pool.props(Barista.props(duration("300 milliseconds"), 100)));
+
+      for (int i = 0; i < 8; i++) {
+        baristas.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+      }
+      for (int i = 0; i < 8; i++) {
+        expectMsgClass(Duration.ofSeconds(3), Barista.CoffeePrepared.class);
+      }
+      baristas.tell(GetRoutees.getInstance(), getRef());
+      assertThat(expectMsgClass(Routees.class).getRoutees().size()).isGreaterThan(1);
+    }};
+  }
+}
@@ -0,0 +1,61 @@
+package com.lightbend.training.coffeehouse;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class ArrivalShapeTest {
+
+  private static final long TEN_MILLIS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void constantShouldSpreadArrivalsEvenly() {
+    ArrivalShape shape = ArrivalShape.constant(250);
+    int[] arrivals = new int[100];
+    for (int i = 0; i < arrivals.length; i++) arrivals[i] = shape.arrivals(TEN_MILLIS);
+    // 2.5 guests every 10 milliseconds
+    assertThat(arrivals).containsOnly(2, 3);
+    assertThat(sum(arrivals)).isBetween(249, 250);
+  }
+
+  @Test
+  public void poissonShouldHaveMeanAndVarianceOfTheRate() {
+    ArrivalShape shape = ArrivalShape.poisson(1000, new Random(16));
+    int[] arrivals = new int[10_000];
+    for (int i = 0; i < arrivals.length; i++) arrivals[i] = shape.arrivals(TEN_MILLIS);
+    double mean = sum(arrivals) / (double) arrivals.length;
+    double variance = 0;
+    for (int a : arrivals) variance += (a - mean) * (a - mean);
+    variance /= arrivals.length;
+    assertThat(mean).isCloseTo(10, within(0.2));
+    assertThat(variance).isCloseTo(10, within(1.0));
+  }
+
+  @Test
+  public void poissonShouldApproximateLargeMeans() {
+    Random random = new Random(16);
+    long sum = 0;
+    for (int i = 0; i < 1000; i++) sum += ArrivalShape.samplePoisson(1000, random);
+    assertThat(sum / 1000.0).isCloseTo(1000, within(5.0));
+  }
+
+  @Test
+  public void burstShouldLetGroupsArriveAtTheAverageRate() {
+    // 50 guests every half second
+    ArrivalShape shape = ArrivalShape.burst(100, 50);
+    int[] arrivals = new int[10];
+    for (int i = 0; i < arrivals.length; i++) arrivals[i] = shape.arrivals(TimeUnit.MILLISECONDS.toNanos(100));
+    assertThat(arrivals).containsExactly(0, 0, 0, 0, 50, 0, 0, 0, 0, 50);
+    assertThat(shape.arrivals(TimeUnit.SECONDS.toNanos(1))).isEqualTo(100);
+  }
+
+  private static int sum(int[] values) {
+    int sum = 0;
+    for (int value : values) sum += value;
+    return sum;
+  }
+}
@@ -1,11 +1,13 @@
 package com.lightbend.training.coffeehouse;
 
 import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
 import akka.testkit.javadsl.TestKit;
 import org.junit.Test;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -47,4 +49,86 @@ public class BaristaTest extends BaseAkkaTestCase {
       assertThat(numberOfCorrectCoffee).isBetween(expectedCount - variation, expectedCount + variation);
     }};
   }
+
+  @Test
+  public void shouldPrepareAsManyCoffeesConcurrentlyAsItHasSlots() {
+    new TestKit(system) {{
+      ActorRef barista = system.actorOf(Barista.props(duration("300 milliseconds"), 100, 3));
+
+      within(Duration.ofMillis(300), Duration.ofMillis(550), () -> {
+        for (int i = 0; i < 3; i++) {
+          barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+        }
+        for (int i = 0; i < 3; i++) {
+          expectMsgEquals(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+        }
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void shouldQueueOrdersWhileAllSlotsAreBusy() {
+    new TestKit(system) {{
+      ActorRef barista = system.actorOf(Barista.props(duration("200 milliseconds"), 100, 1));
+
+      within(Duration.ofMillis(400), Duration.ofMillis(650), () -> {
+        barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+        barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+        expectMsgEquals(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+        expectMsgEquals(new Barista.CoffeePrepared(new Coffee.MochaPlay(), system.deadLetters()));
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void shouldRejectOrdersWithBaristaOverloadedWhenTooManyAreWaiting() {
+    new TestKit(system) {{
+      ActorRef barista = system.actorOf(Barista.props(duration("300 milliseconds"), 100, 1, 1));
+      Barista.PrepareCoffee rejected = new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters());
+      barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+      barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+      barista.tell(rejected, getRef());
+      expectMsgEquals(new Barista.BaristaOverloaded(rejected));
+      assertThat(CoffeeHouseMetrics.get(system).counter("barista.rejected-orders").sum()).isEqualTo(1);
+      assertThat(CoffeeHouseMetrics.get(system).gauge("barista.waiting-orders").sum()).isEqualTo(1);
+      expectMsgEquals(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+      expectMsgEquals(new Barista.CoffeePrepared(new Coffee.MochaPlay(), system.deadLetters()));
+      assertThat(CoffeeHouseMetrics.get(system).gauge("barista.waiting-orders").sum()).isEqualTo(0);
+    }};
+  }
+
+  @Test
+  public void shouldHandUnfinishedOrdersBackWhenStopped() {
+    new TestKit(system) {{
+      ActorRef barista = system.actorOf(Barista.props(duration("300 milliseconds"), 100, 1));
+      Barista.PrepareCoffee preparing = new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters());
+      Barista.PrepareCoffee waiting = new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters());
+      barista.tell(preparing, getRef());
+      barista.tell(waiting, getRef());
+      barista.tell(PoisonPill.getInstance(), ActorRef.noSender());
+      expectMsgEquals(new Barista.BaristaOverloaded(waiting));
+      expectMsgEquals(new Barista.BaristaOverloaded(preparing));
+      expectNoMessage(Duration.ofMillis(400));
+      assertThat(CoffeeHouseMetrics.get(system).counter("barista.handed-back-orders").sum()).isEqualTo(2);
+      assertThat(CoffeeHouseMetrics.get(system).gauge("barista.waiting-orders").sum()).isEqualTo(0);
+    }};
+  }
+
+  @Test
+  public void ordersOfABatchShouldBeAcceptedOneAfterTheOther() {
+    new TestKit(system) {{
+      ActorRef barista = system.actorOf(Barista.props(duration("100 milliseconds"), 100, 1, 1));
+      Barista.PrepareCoffee third = new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters());
+      barista.tell(new Barista.PrepareCoffees(Arrays.asList(
+              new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()),
+              new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()),
+              third)), getRef());
+      // One prepared right away, one waiting for the machine, and no room for the third
+      expectMsgEquals(new Barista.BaristaOverloaded(third));
+      expectMsgEquals(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+      expectMsgEquals(new Barista.CoffeePrepared(new Coffee.MochaPlay(), system.deadLetters()));
+    }};
+  }
 }
@@ -0,0 +1,101 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineCountersTest extends BaseAkkaTestCase {
+
+  @Test
+  public void tryIncrementShouldStopAtLimit() {
+    CaffeineCounters counters = new CaffeineCounters(2);
+    ActorRef guest = new TestProbe(system).ref();
+    assertThat(counters.add(guest)).isTrue();
+    assertThat(counters.add(guest)).isFalse();
+    assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.APPROVED);
+    assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.APPROVED);
+    assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.LIMIT_REACHED);
+    assertThat(counters.count(guest)).isEqualTo(2);
+  }
+
+  @Test
+  public void tryDecrementShouldGiveBackACountedCoffee() {
+    CaffeineCounters counters = new CaffeineCounters(1);
+    ActorRef guest = new TestProbe(system).ref();
+    counters.add(guest);
+    assertThat(counters.tryDecrement(guest)).isFalse();
+    counters.tryIncrement(guest);
+    assertThat(counters.tryDecrement(guest)).isTrue();
+    assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.APPROVED);
+    counters.remove(guest);
+    assertThat(counters.tryDecrement(guest)).isFalse();
+  }
+
+  @Test
+  public void removedGuestShouldNotBeApprovedNorPassOnItsCount() {
+    CaffeineCounters counters = new CaffeineCounters(Integer.MAX_VALUE);
+    ActorRef guest = new TestProbe(system).ref();
+    assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.UNKNOWN_GUEST);
+    counters.add(guest);
+    counters.tryIncrement(guest);
+    assertThat(counters.remove(guest)).isTrue();
+    assertThat(counters.remove(guest)).isFalse();
+    assertThat(counters.contains(guest)).isFalse();
+    assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.UNKNOWN_GUEST);
+    // The next guest reuses the slot, starting from zero
+    ActorRef next = new TestProbe(system).ref();
+    counters.add(next);
+    assertThat(counters.count(next)).isEqualTo(0);
+    assertThat(counters.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void guestsShouldGetSlotsBeyondTheFirstChunk() {
+    CaffeineCounters counters = new CaffeineCounters(1);
+    List<ActorRef> guests = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      ActorRef guest = new TestProbe(system).ref();
+      guests.add(guest);
+      counters.add(guest);
+    }
+    for (ActorRef guest : guests) {
+      assertThat(counters.tryIncrement(guest)).isEqualTo(CaffeineCounters.Approval.APPROVED);
+    }
+    for (ActorRef guest : guests) assertThat(counters.count(guest)).isEqualTo(1);
+  }
+
+  @Test
+  public void concurrentApprovalsShouldNeverExceedTheLimit() throws Exception {
+    CaffeineCounters counters = new CaffeineCounters(10_000);
+    ActorRef guest = new TestProbe(system).ref();
+    counters.add(guest);
+    ExecutorService threads = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Integer>> approved = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        approved.add(threads.submit(() -> {
+          int count = 0;
+          for (int i = 0; i < 5_000; i++) {
+            if (counters.tryIncrement(guest) == CaffeineCounters.Approval.APPROVED) count++;
+          }
+          return count;
+        }));
+      }
+      int total = 0;
+      for (Future<Integer> future : approved) total += future.get(10, TimeUnit.SECONDS);
+      assertThat(total).isEqualTo(10_000);
+      assertThat(counters.count(guest)).isEqualTo(10_000);
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+}
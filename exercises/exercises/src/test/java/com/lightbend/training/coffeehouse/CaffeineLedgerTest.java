@@ -0,0 +1,135 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class CaffeineLedgerTest extends BaseAkkaTestCase {
+
+  @Test
+  public void sendingApproveCoffeeShouldForwardPrepareCoffeeToBaristaIfCaffeineLimitNotReached() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      TestProbe waiter = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(CaffeineLedger.props(barista.ref(), 1));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), waiter.ref());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      barista.reply("ready");
+      waiter.expectMsg("ready");
+    }};
+  }
+
+  @Test
+  public void sendingApproveCoffeeShouldReportLimitReachedToParentWhenLimitReached() {
+    new TestKit(system) {{
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(CaffeineLedger.props(system.deadLetters(), 0));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), ActorRef.noSender());
+      expectMsgEquals(new CaffeineLedger.LimitReached(guest));
+    }};
+  }
+
+  @Test
+  public void refundedCoffeeShouldNotCountAgainstTheLimit() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(CaffeineLedger.props(barista.ref(), 1));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      ledger.tell(new CaffeineLedger.RefundCoffee(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      expectNoMessage();
+    }};
+  }
+
+  @Test
+  public void sendingGetStatusShouldResultInNumberOfGuestsInShard() {
+    new TestKit(system) {{
+      ActorRef ledger = childActorOf(CaffeineLedger.props(system.deadLetters(), 1));
+      ActorRef guest = new TestProbe(system).ref();
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CaffeineLedger.AddGuest(new TestProbe(system).ref()), getRef());
+      ledger.tell(new CaffeineLedger.RemoveGuest(guest), getRef());
+      ledger.tell(CoffeeHouse.GetStatus.Instance, getRef());
+      expectMsgEquals(new CoffeeHouse.Status(1));
+    }};
+  }
+
+  @Test
+  public void shardedLedgerShouldAddGuestsByTheirFirstOrderAndTellThemTheLimitReached() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      TestProbe guest = new TestProbe(system);
+      ActorRef ledger = childActorOf(CaffeineLedger.shardedProps(barista.ref(), 1));
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref()), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref()), getRef());
+      guest.expectMsg(new CaffeineLedger.LimitReached(guest.ref()));
+      expectNoMessage();
+    }};
+  }
+
+  @Test
+  public void shardedLedgerShouldMoveTheCountOfAGuestHandedOff() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef ledger = childActorOf(CaffeineLedger.shardedProps(barista.ref(), 2));
+      ActorRef previous = system.actorOf(shardedGuest(), "4f-7");
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), previous), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), previous));
+
+      // The next incarnation of the guest has the same name, on another node in the cluster
+      ActorRef guest = childActorOf(shardedGuest(), "4f-7");
+      ledger.tell(new CaffeineLedger.MoveGuest(previous, guest), getRef());
+      expectMsg(new CaffeineLedger.GuestMoved(guest));
+
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), previous), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectNoMessage();
+      ledger.tell(CoffeeHouse.GetStatus.Instance, getRef());
+      expectMsg(new CoffeeHouse.Status(1));
+    }};
+  }
+
+  @Test
+  public void sendingApproveCoffeesShouldForwardTheApprovedOrdersAsOneBatch() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest1 = new TestProbe(system).ref();
+      ActorRef guest2 = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(CaffeineLedger.props(barista.ref(), 1));
+      ledger.tell(new CaffeineLedger.AddGuest(guest1), getRef());
+      ledger.tell(new CaffeineLedger.AddGuest(guest2), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffees(Arrays.asList(
+              new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest1),
+              new CoffeeHouse.ApproveCoffee(new Coffee.CaffeJava(), guest2),
+              new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest1))), getRef());
+      expectMsgEquals(new CaffeineLedger.LimitReached(guest1));
+      barista.expectMsg(new Barista.PrepareCoffees(Arrays.asList(
+              new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest1),
+              new Barista.PrepareCoffee(new Coffee.CaffeJava(), guest2))));
+    }};
+  }
+
+  private static Props shardedGuest() {
+    return Props.create(AbstractActor.class, () -> new AbstractActor() {
+      @Override
+      public Receive createReceive() {
+        return receiveBuilder().build();
+      }
+    });
+  }
+}
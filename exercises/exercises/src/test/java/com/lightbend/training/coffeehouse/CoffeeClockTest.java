@@ -0,0 +1,68 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoffeeClockTest extends BaseAkkaTestCase {
+
+  @Test
+  public void shouldSendMessageOnceTheDelayHasPassed() {
+    new TestKit(system) {{
+      within(Duration.ofMillis(200), Duration.ofMillis(500), () -> {
+        CoffeeClock.get(system).schedule(duration("200 milliseconds"), getRef(), "finished", ActorRef.noSender());
+        expectMsgEquals("finished");
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void shouldSendMessageWithoutDelayRightAway() {
+    new TestKit(system) {{
+      CoffeeClock.get(system).schedule(duration("0 milliseconds"), getRef(), "finished", ActorRef.noSender());
+      expectMsgEquals(Duration.ofMillis(50), "finished");
+    }};
+  }
+
+  @Test
+  public void shouldSendMessagesInOrderOfTheirDeadlines() {
+    new TestKit(system) {{
+      CoffeeClock clock = CoffeeClock.get(system);
+      clock.schedule(duration("300 milliseconds"), getRef(), "third", ActorRef.noSender());
+      clock.schedule(duration("100 milliseconds"), getRef(), "first", ActorRef.noSender());
+      clock.schedule(duration("200 milliseconds"), getRef(), "second", ActorRef.noSender());
+      expectMsgEquals("first");
+      expectMsgEquals("second");
+      expectMsgEquals("third");
+    }};
+  }
+
+  @Test
+  public void shouldKeepDeadlinesBeyondOneRoundOfTheWheel() {
+    new TestKit(system) {{
+      // 128 ticks of 10 milliseconds in the test configuration
+      within(Duration.ofMillis(1500), Duration.ofMillis(2000), () -> {
+        CoffeeClock.get(system).schedule(duration("1500 milliseconds"), getRef(), "finished", ActorRef.noSender());
+        expectMsgEquals("finished");
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void shouldDeliverAllOfManyDeadlines() {
+    new TestKit(system) {{
+      CoffeeClock clock = CoffeeClock.get(system);
+      for (int i = 0; i < 10000; i++) {
+        clock.schedule(duration((i % 50 + 1) + " milliseconds"), getRef(), i, ActorRef.noSender());
+      }
+      assertThat(receiveN(10000, Duration.ofSeconds(3))).hasSize(10000);
+      assertThat(clock.pending()).isEqualTo(0);
+    }};
+  }
+}
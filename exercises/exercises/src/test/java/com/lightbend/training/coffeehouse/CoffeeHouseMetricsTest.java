@@ -0,0 +1,56 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoffeeHouseMetricsTest extends BaseAkkaTestCase {
+
+  @Test
+  public void histogramShouldCountValuesUpToEachBound() {
+    CoffeeHouseMetrics.Histogram histogram = new CoffeeHouseMetrics.Histogram(new double[]{1, 2, 4});
+    histogram.record(0.5);
+    histogram.record(1);
+    histogram.record(3);
+    histogram.record(10);
+    histogram.recordNanos(1_500_000_000L);
+    assertThat(histogram.cumulativeCounts()).containsExactly(2, 3, 4, 5);
+    assertThat(histogram.count()).isEqualTo(5);
+    assertThat(histogram.sum()).isEqualTo(16);
+  }
+
+  @Test
+  public void shouldExportToThePrometheusDefaultRegistryBySystem() {
+    CoffeeHouseMetrics metrics = CoffeeHouseMetrics.get(system);
+    metrics.counter("waiter.orders").add(3);
+    metrics.gauge("coffee-house.guests").add(2);
+    metrics.histogram("guest.order-latency").record(0.002);
+
+    assertThat(sample("coffee_house_waiter_orders_total")).isEqualTo(3);
+    assertThat(sample("coffee_house_guests")).isEqualTo(2);
+    assertThat(sample("coffee_house_guest_order_latency_seconds_count")).isEqualTo(1);
+    assertThat(CollectorRegistry.defaultRegistry.getSampleValue("coffee_house_guest_order_latency_seconds_bucket",
+            new String[]{"system", "le"}, new String[]{system.name(), "0.005"})).isEqualTo(1);
+    assertThat(CollectorRegistry.defaultRegistry.getSampleValue("coffee_house_guest_order_latency_seconds_bucket",
+            new String[]{"system", "le"}, new String[]{system.name(), "0.001"})).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldCountOrdersAndGuests() {
+    new TestKit(system) {{
+      ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "coffee-house");
+      coffeeHouse.tell(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+      expectMsgEquals(new CoffeeHouse.GuestsCreated(2, 2));
+      assertThat(CoffeeHouseMetrics.get(system).gauge("coffee-house.guests").sum()).isEqualTo(2);
+      awaitCond(() -> CoffeeHouseMetrics.get(system).counter("waiter.orders").sum() == 2);
+      awaitCond(() -> CoffeeHouseMetrics.get(system).counter("coffee-house.approvals").sum() == 2);
+    }};
+  }
+
+  private Double sample(String name) {
+    return CollectorRegistry.defaultRegistry.getSampleValue(name, new String[]{"system"}, new String[]{system.name()});
+  }
+}
@@ -0,0 +1,86 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoffeeHouseSerializerTest extends BaseAkkaTestCase {
+
+  @Test
+  public void allProtocolMessagesShouldSurviveSerialization() {
+    Serialization serialization = SerializationExtension.get(system);
+    ActorRef guest = new TestProbe(system).ref();
+    Barista.PrepareCoffee prepareCoffee = new Barista.PrepareCoffee(new Coffee.MochaPlay(), guest);
+    Object[] messages = {
+            new Coffee.Akkaccino(),
+            new Coffee.CaffeJava(),
+            new Coffee.MochaPlay(),
+            new Waiter.ServeCoffee(new Coffee.Akkaccino()),
+            new Waiter.CoffeeServed(new Coffee.CaffeJava()),
+            new Waiter.Complaint(new Coffee.MochaPlay()),
+            new Waiter.CoffeeUnavailable(new Coffee.Akkaccino()),
+            prepareCoffee,
+            new Barista.CoffeePrepared(new Coffee.CaffeJava(), guest),
+            new Barista.BaristaOverloaded(prepareCoffee),
+            new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), 12),
+            new CoffeeHouse.CreateGuests(100_000, new Coffee.CaffeJava(), -1).advance(1000),
+            new CoffeeHouse.GuestsCreated(1000, 100_000),
+            new CoffeeHouse.ApproveCoffee(new Coffee.MochaPlay(), guest),
+            CoffeeHouse.GetStatus.Instance,
+            new CoffeeHouse.Status(Integer.MAX_VALUE),
+            new CaffeineLedger.AddGuest(guest),
+            new CaffeineLedger.RemoveGuest(guest),
+            new CaffeineLedger.LimitReached(guest),
+            new CaffeineLedger.RefundCoffee(guest),
+            new CaffeineLedger.MoveGuest(guest, prepareCoffee.guest),
+            new CaffeineLedger.GuestMoved(guest),
+            Guest.CoffeeFinished.Instance,
+            new ShardedGuest.Arrive("2f9a-17", new Coffee.CaffeJava(), Integer.MAX_VALUE),
+            new ShardedGuest.Arrive("2f9a-17", new Coffee.MochaPlay(), 10, 3, guest),
+            new Waiter.ServeCoffees(Arrays.asList(
+                    new Waiter.ServeCoffee(new Coffee.Akkaccino()), new Waiter.ServeCoffee(new Coffee.MochaPlay()))),
+            new CoffeeHouse.ApproveCoffees(Arrays.asList(
+                    new CoffeeHouse.ApproveCoffee(new Coffee.CaffeJava(), guest),
+                    new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest))),
+            new Barista.PrepareCoffees(Arrays.asList(prepareCoffee, prepareCoffee)),
+            new TerminalCommand.Guest(3, new Coffee.Akkaccino(), 5),
+            TerminalCommand.Status.Instance,
+            TerminalCommand.Quit.Instance,
+            new TerminalCommand.Unknown("espresso ☕")
+    };
+    for (Object message : messages) {
+      assertThat(serialization.findSerializerFor(message)).isInstanceOf(CoffeeHouseSerializer.class);
+      byte[] bytes = serialization.serialize(message).get();
+      assertThat(serialization.deserialize(bytes, message.getClass()).get()).isEqualTo(message);
+    }
+  }
+
+  @Test
+  public void coffeesAndCountsShouldTakeFewBytes() {
+    Serialization serialization = SerializationExtension.get(system);
+    assertThat(serialization.serialize(new Coffee.Akkaccino()).get()).hasSize(2);
+    assertThat(serialization.serialize(new Waiter.ServeCoffee(new Coffee.Akkaccino())).get()).hasSize(2);
+    assertThat(serialization.serialize(new CoffeeHouse.Status(127)).get()).hasSize(2);
+    assertThat(serialization.serialize(new CoffeeHouse.Status(128)).get()).hasSize(3);
+  }
+
+  @Test
+  public void guestsShouldResolveToTheSameActor() {
+    Serialization serialization = SerializationExtension.get(system);
+    TestProbe guest = new TestProbe(system);
+    Object message = new CaffeineLedger.LimitReached(guest.ref());
+    for (int i = 0; i < 2; i++) {
+      byte[] bytes = serialization.serialize(message).get();
+      CaffeineLedger.LimitReached limitReached =
+              (CaffeineLedger.LimitReached) serialization.deserialize(bytes, message.getClass()).get();
+      limitReached.guest.tell("hello", ActorRef.noSender());
+      guest.expectMsg("hello");
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoffeeHouseShardingTest extends BaseAkkaTestCase {
+
+  private static final Config NODE_CONFIG = ConfigFactory.parseString(
+          "akka.actor.provider = cluster\n" +
+          "akka.actor.allow-java-serialization = off\n" +
+          "akka.remote.artery.canonical.hostname = 127.0.0.1\n" +
+          "akka.remote.artery.canonical.port = 0\n" +
+          "coffee-house.cluster.enabled = on\n" +
+          "coffee-house.cluster.number-of-shards = 10\n")
+          .withFallback(ConfigFactory.load());
+
+  @Test
+  public void ledgerShouldBeTheShardOfItsGuest() {
+    // A sharded guest is named by its guest id
+    ActorRef guest = createStubActor("4f-7", () -> new AbstractActor() {
+      @Override
+      public Receive createReceive() {
+        return receiveBuilder().build();
+      }
+    });
+    String ledger = new CoffeeHouseSharding.LedgerExtractor(10)
+            .entityId(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest));
+    assertThat(ledger).isEqualTo(new CoffeeHouseSharding.GuestExtractor(10)
+            .shardId(new ShardedGuest.Arrive("4f-7", new Coffee.Akkaccino(), 1)));
+    assertThat(new CoffeeHouseSharding.GuestExtractor(10).entityId(CoffeeHouse.GetStatus.Instance)).isNull();
+  }
+
+  @Test
+  public void guestsShouldBeShardedAndServedAcrossNodes() {
+    ActorSystem node1 = ActorSystem.create("coffee-house-cluster", NODE_CONFIG);
+    ActorSystem node2 = ActorSystem.create("coffee-house-cluster", NODE_CONFIG);
+    try {
+      Cluster.get(node1).join(Cluster.get(node1).selfAddress());
+      Cluster.get(node2).join(Cluster.get(node1).selfAddress());
+      new TestKit(node1) {{
+        awaitCond(Duration.ofSeconds(20), () -> upMembers(node1) == 2 && upMembers(node2) == 2);
+
+        // Every guest is approved a single coffee and leaves at the next order
+        ActorRef coffeeHouse1 = node1.actorOf(CoffeeHouse.props(1), "coffee-house");
+        ActorRef coffeeHouse2 = node2.actorOf(CoffeeHouse.props(1), "coffee-house");
+        coffeeHouse1.tell(new CoffeeHouse.CreateGuests(20, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+        receiveN(10);
+
+        awaitCond(Duration.ofSeconds(20), () -> sum(node1, node2, "coffee-house.approvals") == 20);
+        assertThat(counter(node1, "guest.orders")).isPositive();
+        assertThat(counter(node2, "guest.orders")).isPositive();
+        awaitCond(Duration.ofSeconds(10), () ->
+                counter(node1, "barista.coffees-prepared") > 0 && counter(node2, "barista.coffees-prepared") > 0);
+
+        awaitCond(Duration.ofSeconds(10), () -> CoffeeHouseMetrics.get(node1).gauge("coffee-house.guests").sum()
+                + CoffeeHouseMetrics.get(node2).gauge("coffee-house.guests").sum() == 0);
+        TestProbe probe = new TestProbe(node2);
+        coffeeHouse2.tell(CoffeeHouse.GetStatus.Instance, probe.ref());
+        probe.expectMsg(new CoffeeHouse.Status(0));
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(node2);
+      TestKit.shutdownActorSystem(node1);
+    }
+  }
+
+  @Test
+  public void guestsShouldKeepTheirCoffeesWhenTheirShardsMoveToAJoiningNode() {
+    Config config = ConfigFactory.parseString(
+            "akka.cluster.sharding.rebalance-interval = 500 ms\n" +
+            "coffee-house.guest.finish-coffee-duration = 500 ms\n")
+            .withFallback(NODE_CONFIG);
+    ActorSystem node1 = ActorSystem.create("coffee-house-cluster", config);
+    ActorSystem node2 = ActorSystem.create("coffee-house-cluster", config);
+    try {
+      Cluster.get(node1).join(Cluster.get(node1).selfAddress());
+      new TestKit(node1) {{
+        awaitCond(Duration.ofSeconds(20), () -> upMembers(node1) == 1);
+
+        // Every guest is approved ten coffees, so they are still seated when the second node joins
+        ActorRef coffeeHouse1 = node1.actorOf(CoffeeHouse.props(10), "coffee-house");
+        coffeeHouse1.tell(new CoffeeHouse.CreateGuests(20, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+        receiveN(10);
+        awaitCond(Duration.ofSeconds(10), () -> CoffeeHouseMetrics.get(node1).gauge("coffee-house.guests").sum() == 20);
+
+        Cluster.get(node2).join(Cluster.get(node1).selfAddress());
+        node2.actorOf(CoffeeHouse.props(10), "coffee-house");
+        awaitCond(Duration.ofSeconds(20), () -> counter(node2, "guest.orders") > 0);
+
+        // Handed off guests neither get more coffees than the limit nor stay in their ledgers
+        awaitCond(Duration.ofSeconds(30), () -> CoffeeHouseMetrics.get(node1).gauge("coffee-house.guests").sum()
+                + CoffeeHouseMetrics.get(node2).gauge("coffee-house.guests").sum() == 0);
+        assertThat(sum(node1, node2, "coffee-house.approvals")).isEqualTo(200);
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(node2);
+      TestKit.shutdownActorSystem(node1);
+    }
+  }
+
+  private static long upMembers(ActorSystem node) {
+    return StreamSupport.stream(Cluster.get(node).state().getMembers().spliterator(), false)
+            .filter(member -> member.status().equals(MemberStatus.up()))
+            .count();
+  }
+
+  private static long counter(ActorSystem node, String name) {
+    return CoffeeHouseMetrics.get(node).counter(name).sum();
+  }
+
+  private static long sum(ActorSystem node1, ActorSystem node2, String name) {
+    return counter(node1, name) + counter(node2, name);
+  }
+}
@@ -0,0 +1,67 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoffeeHouseStatusTest extends BaseAkkaTestCase {
+
+  @Test
+  public void snapshotShouldSumUpTheMetricsAndCoffeesServedByCoffee() {
+    ActorSystem system = ActorSystem.create("status-snapshot",
+            ConfigFactory.parseString("coffee-house.status-max-age = 0 seconds").withFallback(ConfigFactory.load()));
+    try {
+      CoffeeHouseMetrics metrics = CoffeeHouseMetrics.get(system);
+      CoffeeHouseStatus status = CoffeeHouseStatus.get(system);
+      metrics.gauge("coffee-house.guests").add(3);
+      metrics.counter("coffee-house.approvals").add(4);
+      metrics.counter("waiter.coffees-served").add(3);
+      metrics.counter("coffee-house.caffeine-rejections").increment();
+      status.served(new Coffee.Akkaccino());
+      status.served(new Coffee.Akkaccino());
+      status.served(new Coffee.MochaPlay());
+
+      CoffeeHouseStatus.Snapshot snapshot = status.snapshot();
+      assertThat(snapshot.guestCount).isEqualTo(3);
+      assertThat(snapshot.approvals).isEqualTo(4);
+      assertThat(snapshot.coffeesServed).isEqualTo(3);
+      assertThat(snapshot.caffeineRejections).isEqualTo(1);
+      assertThat(snapshot.coffeesServedByCoffee).containsEntry(new Coffee.Akkaccino(), 2L)
+              .containsEntry(new Coffee.MochaPlay(), 1L)
+              .containsEntry(new Coffee.CaffeJava(), 0L);
+    } finally {
+      TestKit.shutdownActorSystem(system);
+    }
+  }
+
+  @Test
+  public void snapshotShouldBeReusedUntilItsMaxAge() {
+    ActorSystem system = ActorSystem.create("status-max-age",
+            ConfigFactory.parseString("coffee-house.status-max-age = 1 hour").withFallback(ConfigFactory.load()));
+    try {
+      CoffeeHouseStatus status = CoffeeHouseStatus.get(system);
+      CoffeeHouseStatus.Snapshot snapshot = status.snapshot();
+      CoffeeHouseMetrics.get(system).gauge("coffee-house.guests").increment();
+      assertThat(status.snapshot()).isSameAs(snapshot);
+      assertThat(status.snapshot().guestCount).isEqualTo(0);
+    } finally {
+      TestKit.shutdownActorSystem(system);
+    }
+  }
+
+  @Test
+  public void waitersShouldCountTheCoffeesTheyServe() {
+    new TestKit(system) {{
+      ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "coffee-house");
+      coffeeHouse.tell(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+      expectMsgEquals(new CoffeeHouse.GuestsCreated(2, 2));
+      awaitCond(() -> CoffeeHouseMetrics.get(system).counter("waiter.coffees-served").sum() >= 2);
+      awaitCond(() -> CoffeeHouseStatus.get(system).snapshot().coffeesServedByCoffee.get(new Coffee.Akkaccino()) >= 2);
+      assertThat(CoffeeHouseStatus.get(system).snapshot().guestCount).isEqualTo(2);
+    }};
+  }
+}
@@ -1,11 +1,21 @@
 package com.lightbend.training.coffeehouse;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorIdentity;
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Identify;
 import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class CoffeeHouseTest extends BaseAkkaTestCase {
 
   @Test
@@ -40,6 +50,19 @@ public class CoffeeHouseTest extends BaseAkkaTestCase {
     }};
   }
 
+  @Test
+  public void sendingCreateGuestsShouldCreateGuestsInChunksAndReportProgress() {
+    new TestKit(system) {{
+      ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "create-guests");
+      coffeeHouse.tell(new CoffeeHouse.CreateGuests(5, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+      expectMsgEquals(new CoffeeHouse.GuestsCreated(2, 5));
+      expectMsgEquals(new CoffeeHouse.GuestsCreated(4, 5));
+      expectMsgEquals(new CoffeeHouse.GuestsCreated(5, 5));
+      coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+      expectMsgEquals(new CoffeeHouse.Status(5));
+    }};
+  }
+
   @Test
   public void sendingApproveCoffeeShouldForwardPrepareCoffeeIfCaffeineLimitNotReached() {
     new TestKit(system) {{
@@ -136,4 +159,132 @@ public class CoffeeHouseTest extends BaseAkkaTestCase {
       expectMsgEquals(new CoffeeHouse.Status(0));
     }};
   }
+
+  @Test
+  public void shardedCoffeeHouseShouldApproveThroughLedgersAndAggregateStatus() {
+    ActorSystem sharded = ActorSystem.create("sharded",
+            ConfigFactory.parseString("coffee-house.ledger-shards = 4").withFallback(ConfigFactory.load()));
+    try {
+      new TestKit(sharded) {{
+        ActorRef coffeeHouse = sharded.actorOf(Props.create(CoffeeHouse.class, () -> new CoffeeHouse(1) {
+          @Override
+          protected ActorRef createBarista() {
+            return getRef();
+          }
+        }), "sharded-coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(3, new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender());
+        Barista.PrepareCoffee prepareCoffee = expectMsgClass(Barista.PrepareCoffee.class);
+        expectMsgClass(Barista.PrepareCoffee.class);
+        expectMsgClass(Barista.PrepareCoffee.class);
+        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+        expectMsgEquals(new CoffeeHouse.Status(3));
+        watch(prepareCoffee.guest);
+        coffeeHouse.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), prepareCoffee.guest), ActorRef.noSender());
+        expectTerminated(prepareCoffee.guest);
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(sharded);
+    }
+  }
+
+  @Test
+  public void passivatedGuestsShouldKeepTheirCaffeineCount() {
+    ActorSystem passivating = ActorSystem.create("passivating", ConfigFactory.parseString(
+            "coffee-house.guest.passivation { enabled = on, wake-interval = 10 milliseconds }")
+            .withFallback(ConfigFactory.load()));
+    try {
+      new TestKit(passivating) {{
+        CoffeeHouseMetrics metrics = CoffeeHouseMetrics.get(passivating);
+        ActorRef coffeeHouse = passivating.actorOf(CoffeeHouse.props(2), "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+        expectMsgEquals(new CoffeeHouse.GuestsCreated(2, 2));
+        // Two coffees each, the second ordered by the guests restored from the table, then rejected
+        awaitCond(Duration.ofSeconds(10), () -> metrics.gauge("coffee-house.guests").sum() == 0);
+        assertThat(metrics.counter("coffee-house.approvals").sum()).isEqualTo(4);
+        assertThat(metrics.counter("coffee-house.caffeine-rejections").sum()).isEqualTo(2);
+        assertThat(metrics.gauge("coffee-house.resident-guests").sum()).isEqualTo(0);
+        assertThat(metrics.gauge("coffee-house.idle-guests").sum()).isEqualTo(0);
+        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+        expectMsgEquals(new CoffeeHouse.Status(0));
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(passivating);
+    }
+  }
+
+  @Test
+  public void shouldCreateConfiguredNumberOfWaiters() {
+    ActorSystem pooled = ActorSystem.create("pooled",
+            ConfigFactory.parseString("coffee-house.waiter.nr-of-instances = 3").withFallback(ConfigFactory.load()));
+    try {
+      new TestKit(pooled) {{
+        ActorRef coffeeHouse = pooled.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(3, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+        expectMsgEquals(new CoffeeHouse.GuestsCreated(2, 3));
+        expectMsgEquals(new CoffeeHouse.GuestsCreated(3, 3));
+        for (int i = 0; i < 3; i++) {
+          pooled.actorSelection("/user/coffee-house/waiter-" + i).tell(new Identify(i), getRef());
+          assertThat(expectMsgClass(ActorIdentity.class).getActorRef()).isPresent();
+        }
+        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+        expectMsgEquals(new CoffeeHouse.Status(3));
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(pooled);
+    }
+  }
+
+  @Test
+  public void batchedOrdersShouldBeApprovedAndPreparedTogether() {
+    ActorSystem batching = ActorSystem.create("batching", ConfigFactory.parseString(
+            "coffee-house.waiter.batch { max-size = 4, window = 200 milliseconds }")
+            .withFallback(ConfigFactory.load()));
+    try {
+      new TestKit(batching) {{
+        ActorRef coffeeHouse = batching.actorOf(Props.create(CoffeeHouse.class, () -> new CoffeeHouse(1) {
+          @Override
+          protected ActorRef createBarista() {
+            return getRef();
+          }
+        }), "batching-coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender());
+        Barista.PrepareCoffees prepareCoffees = expectMsgClass(Barista.PrepareCoffees.class);
+        assertThat(prepareCoffees.orders).hasSize(2);
+        // Both guests had their coffee: the next batch is rejected in the same pass
+        ActorRef guest1 = prepareCoffees.orders.get(0).guest;
+        ActorRef guest2 = prepareCoffees.orders.get(1).guest;
+        watch(guest1);
+        watch(guest2);
+        coffeeHouse.tell(new CoffeeHouse.ApproveCoffees(Arrays.asList(
+                new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest1),
+                new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest2))), ActorRef.noSender());
+        assertThat(receiveN(2)).extracting(terminated -> ((Terminated) terminated).actor())
+                .containsExactlyInAnyOrder(guest1, guest2);
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(batching);
+    }
+  }
+
+  @Test
+  public void waitersShouldApproveAgainstSharedCaffeineCounters() {
+    ActorSystem shared = ActorSystem.create("shared-counters", ConfigFactory.parseString(
+            "coffee-house.shared-caffeine-counters.enabled = on").withFallback(ConfigFactory.load()));
+    try {
+      new TestKit(shared) {{
+        CoffeeHouseMetrics metrics = CoffeeHouseMetrics.get(shared);
+        ActorRef coffeeHouse = shared.actorOf(CoffeeHouse.props(2), "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+        expectMsgEquals(new CoffeeHouse.GuestsCreated(2, 2));
+        // Two coffees each, approved by the waiter, then rejected by the coffee house
+        awaitCond(Duration.ofSeconds(10), () -> metrics.gauge("coffee-house.guests").sum() == 0);
+        assertThat(metrics.counter("coffee-house.approvals").sum()).isEqualTo(4);
+        assertThat(metrics.counter("coffee-house.caffeine-rejections").sum()).isEqualTo(2);
+        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+        expectMsgEquals(new CoffeeHouse.Status(0));
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(shared);
+    }
+  }
 }
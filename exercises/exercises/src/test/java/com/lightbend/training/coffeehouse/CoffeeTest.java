@@ -3,6 +3,11 @@ package com.lightbend.training.coffeehouse;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import static com.lightbend.training.coffeehouse.Coffee.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
@@ -39,4 +44,36 @@ public class CoffeeTest {
   public void otherDrinkShouldReturnDrinkDifferentFromGivenCode() {
     COFFEES.forEach(c -> assertThat(orderOther(c)).isNotEqualTo(c));
   }
+
+  @Test
+  public void orderShouldReturnTheCanonicalInstance() {
+    assertThat(order("a")).isSameAs(AKKACCINO);
+    assertThat(order("C")).isSameAs(CAFFE_JAVA);
+    assertThat(order("m")).isSameAs(MOCHA_PLAY);
+    COFFEES.forEach(c -> assertThat(orderOther(c)).isIn(COFFEES.toArray()));
+  }
+
+  @Test
+  public void ordinalsShouldNumberTheCatalogue() {
+    assertThat(Catalogue.size()).isEqualTo(COFFEES.size());
+    COFFEES.forEach(c -> assertThat(byOrdinal(c.ordinal())).isSameAs(c));
+    assertThat(byOrdinal(new MochaPlay().ordinal())).isSameAs(MOCHA_PLAY);
+  }
+
+  @Test
+  public void coffeesShouldNotCollideWhenHashed() {
+    assertThat(COFFEES.stream().mapToInt(Object::hashCode).distinct().count()).isEqualTo(COFFEES.size());
+    assertThat(new Akkaccino().hashCode()).isEqualTo(AKKACCINO.hashCode());
+  }
+
+  @Test
+  public void javaDeserializationShouldReturnTheCanonicalInstance() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(new CaffeJava());
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertThat(in.readObject()).isSameAs(CAFFE_JAVA);
+    }
+  }
 }
@@ -0,0 +1,138 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommandReplayTest extends BaseAkkaTestCase {
+
+  private static final Duration ADMISSION_TIMEOUT = Duration.ofSeconds(5);
+
+  private Path file;
+
+  @Before
+  public void createFile() throws IOException {
+    file = Files.createTempFile("commands", ".txt");
+  }
+
+  @After
+  public void deleteFile() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Test
+  public void shouldReplayAllCommandsAcrossWindows() throws Exception {
+    new TestKit(system) {{
+      write("2 g m 1\r\nstatus\nfoo\n10 guest\ng c");
+      ActorRef coffeeHouse = coffeeHouseCreatingGuests(getRef());
+      AtomicInteger statusRequests = new AtomicInteger();
+      CommandReplay replay = new CommandReplay(system, coffeeHouse, 0, 4, 12, ADMISSION_TIMEOUT, statusRequests::incrementAndGet);
+
+      CommandReplay.Throughput throughput = replay.replay(file);
+
+      expectMsgEquals(new CoffeeHouse.CreateGuests(2, new Coffee.MochaPlay(), 1));
+      expectMsgEquals(new CoffeeHouse.CreateGuests(10, new Coffee.Akkaccino(), Integer.MAX_VALUE));
+      expectMsgEquals(new CoffeeHouse.CreateGuests(1, new Coffee.CaffeJava(), Integer.MAX_VALUE));
+      assertThat(statusRequests.get()).isEqualTo(1);
+      assertThat(throughput.commands).isEqualTo(4);
+      assertThat(throughput.guests).isEqualTo(13);
+      assertThat(throughput.unknownCommands).isEqualTo(1);
+      assertThat(throughput.bytes).isEqualTo(Files.size(file));
+    }};
+  }
+
+  @Test
+  public void shouldStopAtQuit() throws Exception {
+    new TestKit(system) {{
+      write("g\nq\ng\n");
+      CommandReplay.Throughput throughput =
+              new CommandReplay(system, coffeeHouseCreatingGuests(getRef()), 0, 4, 1024, ADMISSION_TIMEOUT, () -> { }).replay(file);
+      expectMsgClass(CoffeeHouse.CreateGuests.class);
+      expectNoMessage(duration("100 milliseconds"));
+      assertThat(throughput.commands).isEqualTo(1);
+      assertThat(throughput.bytes).isEqualTo(4);
+    }};
+  }
+
+  @Test
+  public void shouldWaitForTheCoffeeHouseToCreateTheGuests() throws Exception {
+    new TestKit(system) {{
+      write("g\ng\n");
+      TestProbe coffeeHouse = new TestProbe(system);
+      CommandReplay replay = new CommandReplay(system, coffeeHouse.ref(), 0, 1, 1024, ADMISSION_TIMEOUT, () -> { });
+      CompletableFuture<CommandReplay.Throughput> replayed = CompletableFuture.supplyAsync(() -> {
+        try {
+          return replay.replay(file);
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      coffeeHouse.expectMsgClass(CoffeeHouse.CreateGuests.class);
+      coffeeHouse.expectNoMessage(duration("200 milliseconds"));
+      coffeeHouse.reply(new CoffeeHouse.GuestsCreated(1, 1));
+      coffeeHouse.expectMsgClass(CoffeeHouse.CreateGuests.class);
+      assertThat(replayed).isNotDone();
+      coffeeHouse.reply(new CoffeeHouse.GuestsCreated(1, 1));
+      assertThat(replayed.get().commands).isEqualTo(2);
+    }};
+  }
+
+  @Test
+  public void shouldWriteOffAdmissionsNotReturnedInTime() throws Exception {
+    new TestKit(system) {{
+      write("g\ng\n");
+      TestProbe coffeeHouse = new TestProbe(system);
+      CommandReplay replay = new CommandReplay(system, coffeeHouse.ref(), 0, 1, 1024, Duration.ofMillis(200),
+              () -> { });
+
+      CommandReplay.Throughput throughput = replay.replay(file);
+
+      coffeeHouse.receiveN(2);
+      assertThat(throughput.commands).isEqualTo(2);
+      assertThat(throughput.unconfirmedCommands).isEqualTo(2);
+    }};
+  }
+
+  @Test
+  public void shouldFeedCommandsAtTheConfiguredRate() throws Exception {
+    new TestKit(system) {{
+      write("s\ns\ns\ns\ns\ns\n");
+      CommandReplay.Throughput throughput =
+              new CommandReplay(system, coffeeHouseCreatingGuests(getRef()), 20, 4, 1024, ADMISSION_TIMEOUT, () -> { }).replay(file);
+      // The first command is due right away, the sixth after 5 / 20 seconds
+      assertThat(throughput.elapsedNanos).isGreaterThanOrEqualTo(250_000_000L);
+      assertThat(throughput.commandsPerSecond()).isLessThanOrEqualTo(24);
+    }};
+  }
+
+  private void write(String commands) throws IOException {
+    Files.write(file, commands.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ActorRef coffeeHouseCreatingGuests(ActorRef probe) {
+    return createStubActor("coffee-house", () -> new AbstractActor() {
+      @Override
+      public Receive createReceive() {
+        return receiveBuilder().match(CoffeeHouse.CreateGuests.class, createGuests -> {
+          probe.forward(createGuests, context());
+          sender().tell(new CoffeeHouse.GuestsCreated(createGuests.count, createGuests.count), self());
+        }).build();
+      }
+    });
+  }
+}
@@ -0,0 +1,68 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.event.Logging;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GuestIngressTest extends BaseAkkaTestCase {
+
+  @Test
+  public void shouldAskForChunksWithBoundedAdmissionsInFlight() {
+    TestProbe coffeeHouse = new TestProbe(system);
+    SourceQueueWithComplete<CoffeeHouse.CreateGuests> ingress = GuestIngress.start(
+            GuestIngress.admissions(coffeeHouse.ref(), 2, 2, Duration.ofSeconds(5), Logging.getLogger(system, this)),
+            10, Materializer.matFromSystem(system));
+
+    ingress.offer(new CoffeeHouse.CreateGuests(5, new Coffee.MochaPlay(), 3));
+
+    coffeeHouse.expectMsg(new CoffeeHouse.CreateGuests(2, new Coffee.MochaPlay(), 3));
+    coffeeHouse.expectMsg(new CoffeeHouse.CreateGuests(2, new Coffee.MochaPlay(), 3));
+    coffeeHouse.expectNoMessage(FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+    coffeeHouse.reply(new CoffeeHouse.GuestsCreated(2, 2));
+    coffeeHouse.expectMsg(new CoffeeHouse.CreateGuests(1, new Coffee.MochaPlay(), 3));
+  }
+
+  @Test
+  public void shouldSkipChunksNotAdmittedInTime() throws Exception {
+    TestProbe coffeeHouse = new TestProbe(system);
+    CompletionStage<List<CoffeeHouse.GuestsCreated>> admitted = Source.from(Arrays.asList(
+            new CoffeeHouse.CreateGuests(1, new Coffee.Akkaccino(), 1),
+            new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), 1)))
+            .via(GuestIngress.admissions(coffeeHouse.ref(), 1, 2, Duration.ofMillis(100), Logging.getLogger(system, this)))
+            .runWith(Sink.seq(), Materializer.matFromSystem(system));
+
+    coffeeHouse.expectMsg(new CoffeeHouse.CreateGuests(1, new Coffee.Akkaccino(), 1));
+    coffeeHouse.expectMsg(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), 1));
+    coffeeHouse.reply(new CoffeeHouse.GuestsCreated(2, 2));
+    assertThat(admitted.toCompletableFuture().get(5, TimeUnit.SECONDS))
+            .containsExactly(new CoffeeHouse.GuestsCreated(2, 2));
+  }
+
+  @Test
+  public void shouldGenerateArrivalsInTheGivenShape() throws Exception {
+    List<CoffeeHouse.CreateGuests> arrivals = GuestIngress
+            .arrivals(() -> ArrivalShape.burst(1000, 10), Duration.ofMillis(5), new Coffee.CaffeJava(), 7)
+            .take(3)
+            .runWith(Sink.seq(), Materializer.matFromSystem(system))
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+    assertThat(arrivals).allSatisfy(arrival -> {
+      assertThat(arrival.count % 10).isZero();
+      assertThat(arrival.favoriteCoffee).isEqualTo(new Coffee.CaffeJava());
+      assertThat(arrival.guestCaffeineLimit).isEqualTo(7);
+    });
+  }
+}
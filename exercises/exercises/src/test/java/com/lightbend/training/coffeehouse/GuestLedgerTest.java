@@ -0,0 +1,85 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GuestLedgerTest extends BaseAkkaTestCase {
+
+  @Test
+  public void addedGuestShouldStartWithZeroCount() {
+    GuestLedger ledger = new GuestLedger();
+    ActorRef guest = new TestProbe(system).ref();
+    assertThat(ledger.add(guest)).isTrue();
+    assertThat(ledger.add(guest)).isFalse();
+    assertThat(ledger.count(guest)).isEqualTo(0);
+    assertThat(ledger.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void tryIncrementShouldStopAtLimit() {
+    GuestLedger ledger = new GuestLedger();
+    ActorRef guest = new TestProbe(system).ref();
+    ledger.add(guest);
+    assertThat(ledger.tryIncrement(guest, 2)).isTrue();
+    assertThat(ledger.tryIncrement(guest, 2)).isTrue();
+    assertThat(ledger.tryIncrement(guest, 2)).isFalse();
+    assertThat(ledger.count(guest)).isEqualTo(2);
+  }
+
+  @Test
+  public void tryDecrementShouldStopAtZero() {
+    GuestLedger ledger = new GuestLedger();
+    ActorRef guest = new TestProbe(system).ref();
+    ledger.add(guest);
+    ledger.tryIncrement(guest, 2);
+    assertThat(ledger.tryDecrement(guest)).isTrue();
+    assertThat(ledger.tryDecrement(guest)).isFalse();
+    assertThat(ledger.count(guest)).isEqualTo(0);
+    assertThat(ledger.tryDecrement(new TestProbe(system).ref())).isFalse();
+  }
+
+  @Test
+  public void unknownGuestShouldNotBeApproved() {
+    GuestLedger ledger = new GuestLedger();
+    ActorRef guest = new TestProbe(system).ref();
+    assertThat(ledger.contains(guest)).isFalse();
+    assertThat(ledger.count(guest)).isEqualTo(-1);
+    assertThat(ledger.tryIncrement(guest, Integer.MAX_VALUE)).isFalse();
+    assertThat(ledger.remove(guest)).isFalse();
+  }
+
+  @Test
+  public void shouldBehaveLikeAMapUnderRandomAddIncrementAndRemove() {
+    GuestLedger ledger = new GuestLedger(1);
+    Map<ActorRef, Integer> expected = new HashMap<>();
+    List<ActorRef> guests = new ArrayList<>();
+    for (int i = 0; i < 500; i++) guests.add(new TestProbe(system).ref());
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      ActorRef guest = guests.get(random.nextInt(guests.size()));
+      switch (random.nextInt(3)) {
+        case 0:
+          assertThat(ledger.add(guest)).isEqualTo(expected.putIfAbsent(guest, 0) == null);
+          break;
+        case 1:
+          boolean known = expected.containsKey(guest);
+          assertThat(ledger.tryIncrement(guest, Integer.MAX_VALUE)).isEqualTo(known);
+          if (known) expected.put(guest, expected.get(guest) + 1);
+          break;
+        default:
+          assertThat(ledger.remove(guest)).isEqualTo(expected.remove(guest) != null);
+      }
+    }
+    assertThat(ledger.size()).isEqualTo(expected.size());
+    guests.forEach(guest -> assertThat(ledger.count(guest)).isEqualTo(expected.getOrDefault(guest, -1)));
+  }
+}
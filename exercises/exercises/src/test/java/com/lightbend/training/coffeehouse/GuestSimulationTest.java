@@ -0,0 +1,98 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GuestSimulationTest extends BaseAkkaTestCase {
+
+  private static final FiniteDuration FINISH = FiniteDuration.create(50, TimeUnit.MILLISECONDS);
+
+  private static final FiniteDuration TICK = FiniteDuration.create(10, TimeUnit.MILLISECONDS);
+
+  @Test
+  public void guestsShouldOrderAgainUntilTheirCaffeineLimit() {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      ActorRef table = system.actorOf(GuestSimulation.props(waiter.ref(), FINISH, Integer.MAX_VALUE, TICK, 1));
+      table.tell(new GuestSimulation.AddGuests(2, new Coffee.Akkaccino(), 1), getRef());
+      // The arriving guests order together, then one per advance of at most one guest
+      waiter.expectMsg(new Waiter.ServeCoffees(Arrays.asList(
+              new Waiter.ServeCoffee(new Coffee.Akkaccino()), new Waiter.ServeCoffee(new Coffee.Akkaccino()))));
+      table.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), waiter.ref());
+      table.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), waiter.ref());
+      for (int guest = 0; guest < 2; guest++) {
+        waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+        table.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), waiter.ref());
+      }
+      // Two coffees are over the limit of one: the guests leave instead of ordering again
+      awaitCond(() -> CoffeeHouseMetrics.get(system).counter("guest.caffeine-exceptions").sum() == 2);
+      waiter.expectNoMessage();
+      table.tell(CoffeeHouse.GetStatus.Instance, getRef());
+      expectMsgEquals(new CoffeeHouse.Status(0));
+      assertThat(CoffeeHouseMetrics.get(system).counter("guest.orders").sum()).isEqualTo(4);
+    }};
+  }
+
+  @Test
+  public void guestsShouldBeRejectedAtTheCoffeeHouseLimit() {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      ActorRef table = system.actorOf(GuestSimulation.props(waiter.ref(), FINISH, 1, TICK, 1000));
+      table.tell(new GuestSimulation.AddGuests(1, new Coffee.CaffeJava(), Integer.MAX_VALUE), getRef());
+      waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.CaffeJava()));
+      table.tell(new Waiter.CoffeeServed(new Coffee.CaffeJava()), waiter.ref());
+      awaitCond(() -> CoffeeHouseMetrics.get(system).counter("coffee-house.caffeine-rejections").sum() == 1);
+      waiter.expectNoMessage();
+      assertThat(CoffeeHouseMetrics.get(system).gauge("coffee-house.guests").sum()).isEqualTo(0);
+    }};
+  }
+
+  @Test
+  public void wrongCoffeeShouldBeComplainedAbout() {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      ActorRef table = system.actorOf(GuestSimulation.props(waiter.ref(), FINISH, Integer.MAX_VALUE, TICK, 1000));
+      table.tell(new GuestSimulation.AddGuests(1, new Coffee.MochaPlay(), Integer.MAX_VALUE), getRef());
+      waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.MochaPlay()));
+      table.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), waiter.ref());
+      waiter.expectMsg(new Waiter.Complaint(new Coffee.MochaPlay()));
+      table.tell(new Waiter.CoffeeUnavailable(new Coffee.MochaPlay()), waiter.ref());
+      // Still a guest, ordering again once its coffee would have been finished
+      waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.MochaPlay()));
+    }};
+  }
+
+  @Test
+  public void coffeeHouseShouldServeTheSimulatedGuests() {
+    ActorSystem simulating = ActorSystem.create("simulating",
+            ConfigFactory.parseString("coffee-house.simulation.tables = 2").withFallback(ConfigFactory.load()));
+    try {
+      new TestKit(simulating) {{
+        CoffeeHouseMetrics metrics = CoffeeHouseMetrics.get(simulating);
+        ActorRef coffeeHouse = simulating.actorOf(CoffeeHouse.props(2), "coffee-house");
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(5, new Coffee.Akkaccino(), Integer.MAX_VALUE), getRef());
+        receiveN(3);
+        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+        expectMsgEquals(new CoffeeHouse.Status(5));
+        // Two coffees each, then rejected at the coffee house's limit, as Guest actors would be
+        awaitCond(Duration.ofSeconds(10), () -> metrics.gauge("coffee-house.guests").sum() == 0);
+        assertThat(metrics.counter("coffee-house.approvals").sum()).isEqualTo(10);
+        assertThat(metrics.counter("waiter.coffees-served").sum()).isEqualTo(10);
+        assertThat(metrics.counter("coffee-house.caffeine-rejections").sum()).isEqualTo(5);
+      }};
+    } finally {
+      TestKit.shutdownActorSystem(simulating);
+    }
+  }
+}
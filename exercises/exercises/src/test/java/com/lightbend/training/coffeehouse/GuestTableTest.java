@@ -0,0 +1,54 @@
+package com.lightbend.training.coffeehouse;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GuestTableTest {
+
+  @Test
+  public void guestsShouldBeDueInTheOrderAdded() {
+    GuestTable table = new GuestTable();
+    table.add(new Coffee.Akkaccino(), 1, 5, 2, 100);
+    table.add(new Coffee.MochaPlay(), 3, 7, 4, 200);
+    assertThat(table.isDue(99)).isFalse();
+    assertThat(table.isDue(100)).isTrue();
+    assertThat(table.favoriteCoffee()).isEqualTo(new Coffee.Akkaccino());
+    assertThat(table.coffeeCount()).isEqualTo(1);
+    assertThat(table.caffeineLimit()).isEqualTo(5);
+    assertThat(table.caffeineCount()).isEqualTo(2);
+    table.remove();
+    assertThat(table.isDue(150)).isFalse();
+    assertThat(table.favoriteCoffee()).isEqualTo(new Coffee.MochaPlay());
+    table.remove();
+    assertThat(table.size()).isEqualTo(0);
+    assertThat(table.isDue(Long.MAX_VALUE)).isFalse();
+  }
+
+  @Test
+  public void growingShouldKeepWrappedGuestsInOrder() {
+    GuestTable table = new GuestTable();
+    int next = 0;
+    int first = 0;
+    // Wrap around the end of the arrays before growing them
+    for (int i = 0; i < 10; i++) table.add(new Coffee.CaffeJava(), next, 0, 0, next++);
+    for (int i = 0; i < 10; i++, first++) table.remove();
+    for (int i = 0; i < 100; i++) table.add(new Coffee.CaffeJava(), next, 0, 0, next++);
+    assertThat(table.size()).isEqualTo(100);
+    while (table.isDue(Long.MAX_VALUE - 1)) {
+      assertThat(table.coffeeCount()).isEqualTo(first++);
+      table.remove();
+    }
+    assertThat(first).isEqualTo(next);
+  }
+
+  @Test
+  public void guestsShouldNotBeAddedOutOfOrder() {
+    GuestTable table = new GuestTable();
+    table.add(new Coffee.Akkaccino(), 0, 0, 0, 100);
+    assertThatThrownBy(() -> table.add(new Coffee.Akkaccino(), 0, 0, 0, 99))
+            .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new GuestTable().remove()).isInstanceOf(IllegalStateException.class);
+  }
+}
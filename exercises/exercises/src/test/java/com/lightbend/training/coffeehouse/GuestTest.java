@@ -62,6 +62,18 @@ public class GuestTest extends BaseAkkaTestCase {
     }};
   }
 
+  @Test
+  public void sendingCoffeeUnavailableShouldResultInServeCoffeeAfterFinishCoffeeDuration() {
+    new TestKit(system) {{
+      ActorRef guest = createGuest(this, getRef());
+      within(Duration.ofMillis(50), Duration.ofMillis(200), () -> {
+        guest.tell(new Waiter.CoffeeUnavailable(new Coffee.Akkaccino()), ActorRef.noSender());
+        expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+        return null;
+      });
+    }};
+  }
+
   private ActorRef createGuest(TestKit kit, ActorRef waiter) {
     ActorRef guest = system.actorOf(Guest.props(waiter, new Coffee.Akkaccino(), kit.duration("100 milliseconds"), Integer.MAX_VALUE));
     kit.expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino())); // Creating Guest immediately sends Waiter.ServeCoffee
@@ -0,0 +1,161 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LoadGeneratorTest extends BaseAkkaTestCase {
+
+  @Test
+  public void shouldRecordTheLatencyOfEveryOrderServed() throws Exception {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+      system.actorOf(LoadGenerator.props(coffeeHouseAdmittingGuests(waiter.ref()), new Coffee.Akkaccino(), 100,
+              Duration.ofMillis(100), Duration.ZERO, 2, 1000, Duration.ofMillis(1), Duration.ofSeconds(5), report));
+
+      for (int i = 0; i < 10; i++) {
+        waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+        waiter.reply(new Waiter.CoffeeServed(new Coffee.Akkaccino()));
+      }
+
+      LoadGenerator.Report result = report.get(5, TimeUnit.SECONDS);
+      assertThat(result.orders).isEqualTo(10);
+      assertThat(result.served).isEqualTo(10);
+      assertThat(result.unfinished).isZero();
+      assertThat(result.latency.getTotalCount()).isEqualTo(10);
+      assertThat(result.uncorrectedLatency.getTotalCount()).isEqualTo(10);
+    }};
+  }
+
+  @Test
+  public void shouldMeasureFromWhenOrdersWereDue() throws Exception {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+      system.actorOf(LoadGenerator.props(coffeeHouseAdmittingGuests(waiter.ref()), new Coffee.Akkaccino(), 20,
+              Duration.ofMillis(200), Duration.ZERO, 1, 1000, Duration.ofMillis(1), Duration.ofMillis(300), report));
+
+      // Nothing is served: every order is still open at the drain timeout, 300 ms after the last was due
+      LoadGenerator.Report result = report.get(5, TimeUnit.SECONDS);
+      assertThat(result.orders).isEqualTo(4);
+      assertThat(result.served).isZero();
+      assertThat(result.unfinished).isEqualTo(4);
+      assertThat(result.latency.getTotalCount()).isEqualTo(4);
+      assertThat(result.latency.getMinValue()).isGreaterThanOrEqualTo(300_000);
+      assertThat(result.latency.getMaxValue()).isGreaterThanOrEqualTo(450_000);
+      assertThat(result.uncorrectedLatency.getTotalCount()).isZero();
+    }};
+  }
+
+  @Test
+  public void shouldComplainAboutTheWrongCoffeeAndSkipTheWarmup() throws Exception {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+      system.actorOf(LoadGenerator.props(coffeeHouseAdmittingGuests(waiter.ref()), new Coffee.CaffeJava(), 10,
+              Duration.ofMillis(100), Duration.ofMillis(100), 1, 1000, Duration.ofMillis(1), Duration.ofSeconds(5), report));
+
+      waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.CaffeJava()));
+      waiter.reply(new Waiter.CoffeeServed(new Coffee.MochaPlay()));
+      waiter.expectMsg(new Waiter.Complaint(new Coffee.CaffeJava()));
+      waiter.reply(new Waiter.CoffeeServed(new Coffee.CaffeJava()));
+      waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.CaffeJava()));
+      waiter.reply(new Waiter.CoffeeUnavailable(new Coffee.CaffeJava()));
+
+      LoadGenerator.Report result = report.get(5, TimeUnit.SECONDS);
+      assertThat(result.orders).isEqualTo(2);
+      assertThat(result.served).isEqualTo(1);
+      assertThat(result.unavailable).isEqualTo(1);
+      assertThat(result.latency.getTotalCount()).isZero();
+    }};
+  }
+
+  @Test
+  public void shouldAdmitEnoughGuestsToStayWithinTheCaffeineLimit() throws Exception {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+      system.actorOf(LoadGenerator.props(coffeeHouseAdmittingGuests(waiter.ref()), new Coffee.Akkaccino(), 100,
+              Duration.ofMillis(100), Duration.ZERO, 1, 3, Duration.ofMillis(1), Duration.ofSeconds(5), report));
+
+      // 10 orders of at most 3 coffees per guest take 4 guests
+      Set<ActorRef> guests = new HashSet<>();
+      for (int i = 0; i < 10; i++) {
+        waiter.expectMsg(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+        guests.add(waiter.sender());
+        waiter.reply(new Waiter.CoffeeServed(new Coffee.Akkaccino()));
+      }
+
+      assertThat(guests).hasSize(4);
+      assertThat(report.get(5, TimeUnit.SECONDS).served).isEqualTo(10);
+    }};
+  }
+
+  @Test
+  public void shouldFailTheRunWhenAGuestLeaves() {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+      system.actorOf(LoadGenerator.props(coffeeHouseAdmittingGuests(waiter.ref()), new Coffee.Akkaccino(), 10,
+              Duration.ofSeconds(1), Duration.ZERO, 1, 1000, Duration.ofMillis(1), Duration.ofSeconds(5), report));
+
+      waiter.expectMsgClass(Waiter.ServeCoffee.class);
+      system.stop(waiter.sender());
+
+      assertThatThrownBy(() -> report.get(5, TimeUnit.SECONDS))
+              .isInstanceOf(ExecutionException.class)
+              .hasCauseInstanceOf(IllegalStateException.class)
+              .hasMessageContaining("left after 1 of 10 orders");
+    }};
+  }
+
+  @Test
+  public void reportShouldPrintPercentilesAndWriteTheHistogram() throws Exception {
+    new TestKit(system) {{
+      TestProbe waiter = new TestProbe(system);
+      CompletableFuture<LoadGenerator.Report> report = new CompletableFuture<>();
+      system.actorOf(LoadGenerator.props(coffeeHouseAdmittingGuests(waiter.ref()), new Coffee.Akkaccino(), 10,
+              Duration.ofMillis(100), Duration.ZERO, 1, 1000, Duration.ofMillis(1), Duration.ofSeconds(5), report));
+      waiter.expectMsgClass(Waiter.ServeCoffee.class);
+      waiter.reply(new Waiter.CoffeeServed(new Coffee.Akkaccino()));
+      LoadGenerator.Report result = report.get(5, TimeUnit.SECONDS);
+
+      assertThat(result.percentiles()).contains("99.9").contains("max");
+      Path file = Files.createTempDirectory("loadgen").resolve("latency.hgrm");
+      try {
+        result.writeTo(file);
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8))
+                .contains("Percentile").contains("Total count    =            1]");
+      } finally {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.getParent());
+      }
+    }};
+  }
+
+  private ActorRef coffeeHouseAdmittingGuests(ActorRef waiter) {
+    return createStubActor("coffee-house", () -> new AbstractActor() {
+      @Override
+      public Receive createReceive() {
+        return receiveBuilder().match(CoffeeHouse.AdmitGuest.class, admitGuest ->
+                context().actorOf(admitGuest.guestProps.apply(waiter))).build();
+      }
+    });
+  }
+}
@@ -0,0 +1,113 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OrderTracingTest extends BaseAkkaTestCase {
+
+  @Test
+  public void shouldTraceTheSampledOrdersOnly() {
+    assertThat(new OrderTracing(0).start()).isNull();
+    assertThat(new OrderTracing(1).start()).isNotNull();
+    OrderTracing tracing = new OrderTracing(0.5);
+    int traced = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (tracing.start() != null) traced++;
+    }
+    assertThat(traced).isBetween(350, 650);
+  }
+
+  @Test
+  public void shouldBeOffByDefault() {
+    assertThat(OrderTracing.get(system).start()).isNull();
+  }
+
+  @Test
+  public void traceShouldMeasureTheStagesBetweenStampedHops() {
+    OrderTrace trace = OrderTrace.start().at(OrderTrace.Hop.WAITER).at(OrderTrace.Hop.BARISTA);
+    assertThat(OrderTrace.at(null, OrderTrace.Hop.WAITER)).isNull();
+    assertThat(trace.passed(OrderTrace.Hop.APPROVED)).isFalse();
+    assertThat(trace.stageNanos(OrderTrace.Hop.ORDERED)).isEqualTo(-1);
+    assertThat(trace.stageNanos(OrderTrace.Hop.APPROVED)).isEqualTo(-1);
+    assertThat(trace.stageNanos(OrderTrace.Hop.BARISTA)).isGreaterThanOrEqualTo(0);
+    assertThat(trace.totalNanos())
+            .isEqualTo(trace.stageNanos(OrderTrace.Hop.WAITER) + trace.stageNanos(OrderTrace.Hop.BARISTA));
+  }
+
+  @Test
+  public void waiterShouldStampTheTraceOnBothWays() {
+    new TestKit(system) {{
+      TestProbe guest = new TestProbe(system);
+      ActorRef waiter = system.actorOf(Waiter.props(getRef(), system.deadLetters(), 1));
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), OrderTrace.start()), guest.ref());
+      OrderTrace approval = expectMsgClass(CoffeeHouse.ApproveCoffee.class).trace;
+      assertThat(approval.passed(OrderTrace.Hop.WAITER)).isTrue();
+
+      waiter.tell(new Barista.CoffeePrepared(new Coffee.Akkaccino(), guest.ref(), approval), getRef());
+      OrderTrace served = guest.expectMsgClass(Waiter.CoffeeServed.class).trace;
+      assertThat(served.passed(OrderTrace.Hop.SERVING)).isTrue();
+    }};
+  }
+
+  @Test
+  public void complaintShouldCarryTheTraceToTheCoffeePreparedAgain() {
+    new TestKit(system) {{
+      ActorRef guest = system.actorOf(Guest.props(getRef(), new Coffee.Akkaccino(), duration("100 milliseconds"),
+              Integer.MAX_VALUE));
+      expectMsgClass(Waiter.ServeCoffee.class);
+      OrderTrace trace = OrderTrace.start().at(OrderTrace.Hop.SERVING);
+      guest.tell(new Waiter.CoffeeServed(new Coffee.MochaPlay(), trace), getRef());
+      Waiter.Complaint complaint = expectMsgClass(Waiter.Complaint.class);
+      assertThat(complaint.trace).isSameAs(trace);
+
+      ActorRef waiter = system.actorOf(Waiter.props(system.deadLetters(), getRef(), 1));
+      waiter.tell(complaint, guest);
+      assertThat(expectMsgClass(Barista.PrepareCoffee.class).trace).isSameAs(trace);
+    }};
+  }
+
+  @Test
+  public void baristaShouldStampTheTraceWhileWaitingAndPreparing() {
+    new TestKit(system) {{
+      ActorRef barista = system.actorOf(Barista.props(duration("10 milliseconds"), 100));
+      barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters(), OrderTrace.start()), getRef());
+      barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters(), OrderTrace.start()), getRef());
+      expectMsgClass(Barista.CoffeePrepared.class);
+      OrderTrace waited = expectMsgClass(Barista.CoffeePrepared.class).trace;
+      assertThat(waited.passed(OrderTrace.Hop.BARISTA)).isTrue();
+      assertThat(waited.passed(OrderTrace.Hop.PREPARED)).isTrue();
+      // The second order waited for the first to be prepared
+      assertThat(waited.stageNanos(OrderTrace.Hop.PREPARING)).isGreaterThanOrEqualTo(5_000_000L);
+    }};
+  }
+
+  @Test
+  public void untracedOrdersShouldStayUntraced() {
+    new TestKit(system) {{
+      ActorRef waiter = system.actorOf(Waiter.props(getRef(), system.deadLetters(), 1));
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino()), getRef());
+      assertThat(expectMsgClass(CoffeeHouse.ApproveCoffee.class).trace).isNull();
+    }};
+  }
+
+  @Test
+  public void servedOrdersShouldBeRecordedPerStage() {
+    double before = count("total");
+    double preparationsBefore = count("preparation");
+    new OrderTracing(1).served(OrderTrace.start().at(OrderTrace.Hop.PREPARED));
+    new OrderTracing(1).served(null);
+    assertThat(count("total")).isEqualTo(before + 1);
+    assertThat(count("preparation")).isEqualTo(preparationsBefore + 1);
+  }
+
+  private static double count(String stage) {
+    Double count = CollectorRegistry.defaultRegistry.getSampleValue("coffee_house_order_stage_seconds_count",
+            new String[]{"stage"}, new String[]{stage});
+    return count == null ? 0 : count;
+  }
+}
@@ -0,0 +1,198 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
+import akka.actor.Props;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.testkit.TestProbe;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistentCaffeineLedgerTest extends BaseAkkaTestCase {
+
+  private final String persistenceId = "caffeine-ledger-test-" + UUID.randomUUID();
+
+  private Props ledgerProps(ActorRef barista, int caffeineLimit, int batchSize, int snapshotInterval) {
+    return PersistentCaffeineLedger.props(persistenceId, barista, caffeineLimit, batchSize,
+            FiniteDuration.create(1, TimeUnit.SECONDS), snapshotInterval);
+  }
+
+  private void stop(TestKit kit, ActorRef ledger) {
+    kit.watch(ledger);
+    ledger.tell(PoisonPill.getInstance(), ActorRef.noSender());
+    kit.expectTerminated(ledger);
+  }
+
+  private void awaitSnapshot(TestKit kit) {
+    File snapshots = new File(system.settings().config().getString("akka.persistence.snapshot-store.local.dir"));
+    kit.awaitCond(() -> {
+      String[] files = snapshots.list();
+      if (files == null) return false;
+      for (String file : files) if (file.contains(persistenceId)) return true;
+      return false;
+    });
+  }
+
+  @Test
+  public void sendingApproveCoffeeShouldForwardPrepareCoffeeToBaristaOnceWritten() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      TestProbe waiter = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(ledgerProps(barista.ref(), 1, 1, 100));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), waiter.ref());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      barista.reply("ready");
+      waiter.expectMsg("ready");
+    }};
+  }
+
+  @Test
+  public void approvalsShouldBeWrittenInBatches() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(ledgerProps(barista.ref(), 10, 3, 100));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectNoMessage(duration("200 milliseconds"));
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.receiveN(3, duration("500 milliseconds"));
+      // A partial batch is written after the flush interval
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectNoMessage(duration("500 milliseconds"));
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+    }};
+  }
+
+  @Test
+  public void caffeineCountsShouldSurviveARestartOfTheLedger() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(ledgerProps(barista.ref(), 2, 1, 100));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.receiveN(2);
+      stop(this, ledger);
+
+      ActorRef recovered = childActorOf(ledgerProps(barista.ref(), 2, 1, 100));
+      recovered.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), ActorRef.noSender());
+      expectMsgEquals(new CaffeineLedger.LimitReached(guest));
+      barista.expectNoMessage(duration("100 milliseconds"));
+    }};
+  }
+
+  @Test
+  public void refundsShouldSurviveARestartOfTheLedger() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(ledgerProps(barista.ref(), 1, 1, 100));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.receiveN(1);
+      ledger.tell(new CaffeineLedger.RefundCoffee(guest), getRef());
+      stop(this, ledger);
+
+      ActorRef recovered = childActorOf(ledgerProps(barista.ref(), 1, 1, 100));
+      recovered.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+    }};
+  }
+
+  @Test
+  public void caffeineCountsShouldBeRecoveredFromASnapshot() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      ActorRef ledger = childActorOf(ledgerProps(barista.ref(), 2, 1, 2));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.receiveN(1);
+      awaitSnapshot(this);
+      stop(this, ledger);
+
+      ActorRef recovered = childActorOf(ledgerProps(barista.ref(), 2, 1, 2));
+      recovered.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      recovered.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), ActorRef.noSender());
+      expectMsgEquals(new CaffeineLedger.LimitReached(guest));
+    }};
+  }
+
+  @Test
+  public void snapshotsShouldLeaveOutTheEventsStillBeingWritten() {
+    new TestKit(system) {{
+      TestProbe barista = new TestProbe(system);
+      ActorRef guest = new TestProbe(system).ref();
+      // The snapshot is taken once the first approval is written, while the second is on its way
+      ActorRef ledger = childActorOf(ledgerProps(barista.ref(), 3, 1, 2));
+      ledger.tell(new CaffeineLedger.AddGuest(guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      ledger.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.receiveN(2);
+      awaitSnapshot(this);
+      stop(this, ledger);
+
+      ActorRef recovered = childActorOf(ledgerProps(barista.ref(), 3, 1, 2));
+      recovered.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+      recovered.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), ActorRef.noSender());
+      expectMsgEquals(new CaffeineLedger.LimitReached(guest));
+    }};
+  }
+
+  @Test
+  public void guestsStoppedWhileTheLedgerWasDownShouldBeRemovedOnRecovery() {
+    new TestKit(system) {{
+      TestProbe guest = new TestProbe(system);
+      ActorRef ledger = childActorOf(ledgerProps(system.deadLetters(), 2, 1, 100));
+      ledger.tell(new CaffeineLedger.AddGuest(guest.ref()), getRef());
+      ledger.tell(new CaffeineLedger.AddGuest(new TestProbe(system).ref()), getRef());
+      ledger.tell(CoffeeHouse.GetStatus.Instance, getRef());
+      expectMsgEquals(new CoffeeHouse.Status(2));
+      stop(this, ledger);
+      system.stop(guest.ref());
+
+      ActorRef recovered = childActorOf(ledgerProps(system.deadLetters(), 2, 1, 100));
+      awaitAssert(() -> {
+        recovered.tell(CoffeeHouse.GetStatus.Instance, getRef());
+        expectMsgEquals(new CoffeeHouse.Status(1));
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void eventsAndSnapshotsShouldSurviveSerialization() throws Exception {
+    Serialization serialization = SerializationExtension.get(system);
+    ActorRef first = new TestProbe(system).ref();
+    ActorRef second = new TestProbe(system).ref();
+    Object[] events = {
+            new PersistentCaffeineLedger.GuestAdded(first),
+            new PersistentCaffeineLedger.GuestRemoved(second),
+            new PersistentCaffeineLedger.CaffeineIncremented(new ActorRef[]{first, second, first}),
+            new PersistentCaffeineLedger.CoffeeRefunded(first),
+            new PersistentCaffeineLedger.LedgerSnapshot(new ActorRef[]{first, second}, new int[]{3, 0})
+    };
+    for (Object event : events) {
+      assertThat(serialization.serializerFor(event.getClass())).isInstanceOf(CaffeineLedgerSerializer.class);
+      byte[] bytes = serialization.serialize(event).get();
+      String manifest = akka.serialization.Serializers.manifestFor(serialization.findSerializerFor(event), event);
+      assertThat(serialization.deserialize(bytes, serialization.findSerializerFor(event).identifier(), manifest).get())
+              .isEqualTo(event);
+    }
+  }
+}
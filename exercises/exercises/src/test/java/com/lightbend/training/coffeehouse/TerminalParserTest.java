@@ -0,0 +1,155 @@
+package com.lightbend.training.coffeehouse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TerminalParserTest {
+
+  // The regular expressions the terminal used to be parsed with, the reference for the grammar
+  private static final Pattern createGuestPattern = Pattern.compile("(\\d+)?\\s*(?:guest|g)\\s*(A|a|M|m|C|c)?\\s*(\\d+)?");
+  private static final Pattern getStatusPattern = Pattern.compile("status|s");
+  private static final Pattern quitPattern = Pattern.compile("quit|q");
+
+  private static final String[] FRAGMENTS = {
+          "g", "guest", "gues", "u", "e", "s", "t", "status", "q", "quit", "a", "A", "m", "M", "c", "C", "x",
+          " ", "  ", "\t", "\r", "\f", "\u000B", " ", "0", "1", "7", "42", "2147483647", "2147483648",
+          "99999999999", "é"
+  };
+
+  @Test
+  public void shouldParseLikeTheRegularExpressions() {
+    Random random = new Random(14);
+    for (int n = 0; n < 200_000; n++) {
+      StringBuilder command = new StringBuilder();
+      int fragments = random.nextInt(6);
+      for (int i = 0; i < fragments; i++) command.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+      assertParsedLikeRegularExpressions(command.toString());
+    }
+  }
+
+  @Test
+  public void shouldParseGeneratedGuestCommandsLikeTheRegularExpressions() {
+    Random random = new Random(41);
+    String[] whitespace = {"", " ", "  ", "\t", " \t "};
+    String[] coffees = {"", "a", "A", "m", "M", "c", "C"};
+    for (int n = 0; n < 50_000; n++) {
+      String command = (random.nextBoolean() ? Integer.toString(random.nextInt(1000)) : "")
+              + whitespace[random.nextInt(whitespace.length)]
+              + (random.nextBoolean() ? "guest" : "g")
+              + whitespace[random.nextInt(whitespace.length)]
+              + coffees[random.nextInt(coffees.length)]
+              + whitespace[random.nextInt(whitespace.length)]
+              + (random.nextBoolean() ? Integer.toString(random.nextInt(Integer.MAX_VALUE)) : "");
+      assertThat(TerminalParser.parse(command)).isInstanceOf(TerminalCommand.Guest.class);
+      assertParsedLikeRegularExpressions(command);
+    }
+  }
+
+  @Test
+  public void shouldParseACommandWithinASequence() {
+    assertThat(TerminalParser.parse("xx2 g m 1yy", 2, 9)).isEqualTo(new TerminalCommand.Guest(2, new Coffee.MochaPlay(), 1));
+    assertThat(TerminalParser.parse("xxfooyy", 2, 5)).isEqualTo(new TerminalCommand.Unknown("foo"));
+  }
+
+  @Test
+  public void shouldParseAllLinesOfAChunk() {
+    List<TerminalCommand> commands = new ArrayList<>();
+    assertThat(TerminalParser.parseLines("g\r\n2 g c 3\n\nstatus\nfoo", commands::add)).isTrue();
+    assertThat(commands).containsExactly(
+            new TerminalCommand.Guest(1, new Coffee.Akkaccino(), Integer.MAX_VALUE),
+            new TerminalCommand.Guest(2, new Coffee.CaffeJava(), 3),
+            new TerminalCommand.Unknown(""),
+            TerminalCommand.Status.Instance,
+            new TerminalCommand.Unknown("foo"));
+  }
+
+  @Test
+  public void shouldStopParsingWhenTheHandlerDoes() {
+    List<TerminalCommand> commands = new ArrayList<>();
+    ByteBuffer chunk = bytes("s\nq\ns\n");
+    assertThat(TerminalParser.parseLines(chunk, false, c -> commands.add(c) && c != TerminalCommand.Quit.Instance))
+            .isFalse();
+    assertThat(commands).containsExactly(TerminalCommand.Status.Instance, TerminalCommand.Quit.Instance);
+    assertThat(chunk.position()).isEqualTo(4);
+  }
+
+  @Test
+  public void shouldLeaveAnIncompleteLineInTheBuffer() {
+    List<TerminalCommand> commands = new ArrayList<>();
+    ByteBuffer chunk = bytes("g m\r\nstat");
+    assertThat(TerminalParser.parseLines(chunk, false, commands::add)).isTrue();
+    assertThat(commands).containsExactly(new TerminalCommand.Guest(1, new Coffee.MochaPlay(), Integer.MAX_VALUE));
+    assertThat(chunk.position()).isEqualTo(5);
+
+    chunk.compact().put("us".getBytes(StandardCharsets.UTF_8)).flip();
+    assertThat(TerminalParser.parseLines(chunk, true, commands::add)).isTrue();
+    assertThat(commands).endsWith(TerminalCommand.Status.Instance);
+    assertThat(chunk.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void shouldDecodeUnknownCommandsFromUtf8() {
+    List<TerminalCommand> commands = new ArrayList<>();
+    TerminalParser.parseLines(bytes("café\n"), false, commands::add);
+    assertThat(commands).containsExactly(new TerminalCommand.Unknown("café"));
+  }
+
+  private static ByteBuffer bytes(String s) {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.put(s.getBytes(StandardCharsets.UTF_8)).flip();
+    return buffer;
+  }
+
+  private static void assertParsedLikeRegularExpressions(String command) {
+    Object expected;
+    try {
+      expected = createWithRegularExpressions(command);
+    } catch (NumberFormatException e) {
+      expected = e.getClass();
+    }
+    Object actual;
+    try {
+      actual = TerminalParser.parse(command);
+    } catch (NumberFormatException e) {
+      actual = e.getClass();
+    }
+    assertThat(actual).as("Parsed %s", Arrays.toString(command.toCharArray())).isEqualTo(expected);
+    // The same command read from bytes
+    if (!(expected instanceof TerminalCommand.Unknown)) {
+      List<Object> commands = new ArrayList<>();
+      try {
+        TerminalParser.parseLines(bytes(command + "\n"), false, commands::add);
+      } catch (NumberFormatException e) {
+        commands.add(e.getClass());
+      }
+      assertThat(commands).containsExactly(expected);
+    }
+  }
+
+  private static TerminalCommand createWithRegularExpressions(String s) {
+    final Matcher guestMatcher = createGuestPattern.matcher(s);
+    if (guestMatcher.matches()) {
+      final String countGroup = guestMatcher.group(1);
+      final int count = countGroup != null ? Integer.parseInt(countGroup) : 1;
+      final String coffeeGroup = guestMatcher.group(2);
+      final Coffee coffee = coffeeGroup != null ? Coffee.order(coffeeGroup) : Coffee.AKKACCINO;
+      final String maxCoffeeCountGroup = guestMatcher.group(3);
+      final int maxCoffeeCount =
+              maxCoffeeCountGroup != null ? Integer.parseInt(maxCoffeeCountGroup) : Integer.MAX_VALUE;
+      return new TerminalCommand.Guest(count, coffee, maxCoffeeCount);
+    }
+    if (getStatusPattern.matcher(s).matches()) return TerminalCommand.Status.Instance;
+    if (quitPattern.matcher(s).matches()) return TerminalCommand.Quit.Instance;
+    return new TerminalCommand.Unknown(s);
+  }
+}
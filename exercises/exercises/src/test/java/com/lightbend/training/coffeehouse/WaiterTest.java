@@ -6,6 +6,9 @@ import akka.testkit.TestProbe;
 import akka.testkit.javadsl.TestKit;
 import org.junit.Test;
 
+import java.time.Duration;
+import java.util.Arrays;
+
 public class WaiterTest extends BaseAkkaTestCase {
 
   @Test
@@ -50,4 +53,87 @@ public class WaiterTest extends BaseAkkaTestCase {
       });
     }};
   }
+
+  @Test
+  public void sendingBaristaOverloadedShouldResendPrepareCoffeeAfterBackoff() {
+    new TestKit(system) {{
+      ActorRef barista = getRef();
+      TestProbe guest = new TestProbe(system);
+      ActorRef waiter = system.actorOf(Waiter.props(system.deadLetters(), barista, 1, duration("100 milliseconds"), 1));
+      Barista.PrepareCoffee prepareCoffee = new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref());
+      within(Duration.ofMillis(100), Duration.ofMillis(500), () -> {
+        waiter.tell(new Barista.BaristaOverloaded(prepareCoffee), barista);
+        expectMsgEquals(prepareCoffee);
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void shouldSendCoffeeUnavailableToGuestWhenOverloadRetriesAreUsedUp() {
+    new TestKit(system) {{
+      ActorRef guest = getRef();
+      TestProbe coffeeHouse = new TestProbe(system);
+      ActorRef waiter = system.actorOf(Waiter.props(coffeeHouse.ref(), system.deadLetters(), 1, duration("100 milliseconds"), 0));
+      waiter.tell(new Barista.BaristaOverloaded(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest)), system.deadLetters());
+      expectMsgEquals(new Waiter.CoffeeUnavailable(new Coffee.Akkaccino()));
+      // The coffee counted against the caffeine limit is given back
+      coffeeHouse.expectMsg(new CaffeineLedger.RefundCoffee(guest));
+    }};
+  }
+
+  @Test
+  public void ordersShouldBeApprovedTogetherOnceTheBatchIsFull() {
+    new TestKit(system) {{
+      TestProbe guest1 = new TestProbe(system);
+      TestProbe guest2 = new TestProbe(system);
+      ActorRef waiter = system.actorOf(Waiter.props(getRef(), system.deadLetters(), 1,
+              duration("100 milliseconds"), 1, 2, duration("10 seconds")));
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino()), guest1.ref());
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.MochaPlay()), guest2.ref());
+      expectMsgEquals(new CoffeeHouse.ApproveCoffees(Arrays.asList(
+              new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest1.ref()),
+              new CoffeeHouse.ApproveCoffee(new Coffee.MochaPlay(), guest2.ref()))));
+    }};
+  }
+
+  @Test
+  public void pendingOrdersShouldBeApprovedTogetherAfterTheBatchWindow() {
+    new TestKit(system) {{
+      TestProbe guest = new TestProbe(system);
+      ActorRef waiter = system.actorOf(Waiter.props(getRef(), system.deadLetters(), 1,
+              duration("100 milliseconds"), 1, 10, duration("200 milliseconds")));
+      within(Duration.ofMillis(200), Duration.ofMillis(1000), () -> {
+        waiter.tell(new Waiter.ServeCoffees(Arrays.asList(
+                new Waiter.ServeCoffee(new Coffee.CaffeJava()), new Waiter.ServeCoffee(new Coffee.CaffeJava()))),
+                guest.ref());
+        expectMsgEquals(new CoffeeHouse.ApproveCoffees(Arrays.asList(
+                new CoffeeHouse.ApproveCoffee(new Coffee.CaffeJava(), guest.ref()),
+                new CoffeeHouse.ApproveCoffee(new Coffee.CaffeJava(), guest.ref()))));
+        return null;
+      });
+    }};
+  }
+
+  @Test
+  public void ordersOfKnownGuestsShouldBeApprovedAgainstTheSharedCounters() {
+    new TestKit(system) {{
+      TestProbe coffeeHouse = new TestProbe(system);
+      TestProbe barista = new TestProbe(system);
+      TestProbe guest = new TestProbe(system);
+      TestProbe simulated = new TestProbe(system);
+      CaffeineCounters counters = new CaffeineCounters(1);
+      counters.add(guest.ref());
+      ActorRef waiter = system.actorOf(Waiter.props(coffeeHouse.ref(), barista.ref(), 1,
+              duration("100 milliseconds"), 1, 1, duration("1 millisecond"), counters));
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino()), guest.ref());
+      barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino()), guest.ref());
+      coffeeHouse.expectMsg(new CaffeineLedger.LimitReached(guest.ref()));
+      // Guests unknown to the counters are still approved by the coffee house
+      waiter.tell(new Waiter.ServeCoffee(new Coffee.MochaPlay()), simulated.ref());
+      coffeeHouse.expectMsg(new CoffeeHouse.ApproveCoffee(new Coffee.MochaPlay(), simulated.ref()));
+      barista.expectNoMessage();
+    }};
+  }
 }
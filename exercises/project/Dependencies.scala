@@ -9,6 +9,9 @@ object Version {
   val assertjVer      = "3.15.0"
   val junitVer        = "0.11"
   val quavaVer        = "23.0"
+  val leveldbjniVer   = "1.8"
+  val hdrHistogramVer = "2.1.12"
+  val prometheusVer   = "0.8.1"
 }
 
 object Dependencies {
@@ -16,6 +19,13 @@ object Dependencies {
     "com.google.guava"         %  "guava"                      % Version.quavaVer,
     "com.typesafe.akka"        %% "akka-actor"                 % Version.akkaVer,
     "com.typesafe.akka"        %% "akka-slf4j"                 % Version.akkaVer,
+    "com.typesafe.akka"        %% "akka-persistence"           % Version.akkaVer,
+    "com.typesafe.akka"        %% "akka-stream"                % Version.akkaVer,
+    "com.typesafe.akka"        %% "akka-cluster-sharding"      % Version.akkaVer,
+    "org.fusesource.leveldbjni" %  "leveldbjni-all"            % Version.leveldbjniVer,
+    "org.hdrhistogram"         %  "HdrHistogram"               % Version.hdrHistogramVer,
+    "io.prometheus"            %  "simpleclient"               % Version.prometheusVer,
+    "io.prometheus"            %  "simpleclient_httpserver"    % Version.prometheusVer,
     "ch.qos.logback"           %  "logback-classic"            % Version.logbackVer,
     "org.scala-lang.modules"   %% "scala-parser-combinators"   % Version.scalaParsersVer,
     "com.lightbend.akka" %% "akka-diagnostics" % "1.1.12",